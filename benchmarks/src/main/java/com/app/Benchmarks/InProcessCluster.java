@@ -0,0 +1,50 @@
+package com.app.Benchmarks;
+
+import com.app.Common.ThreadMode;
+import com.app.Replica.Replica;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Replicas running in the current process on free ports, with their data in
+ * memory, and the settings of the clients connecting to them.
+ */
+public class InProcessCluster implements Closeable {
+    private final List<Replica> replicas = new ArrayList<>();
+
+    public static InProcessCluster start(int replicaCount, ThreadMode threadMode, long lockTtlMs) throws IOException {
+        InProcessCluster cluster = new InProcessCluster();
+        try {
+            for (int i = 0; i < replicaCount; i++) {
+                cluster.replicas.add(Replica.start(0, threadMode, lockTtlMs));
+            }
+        } catch (IOException e) {
+            cluster.close();
+            throw e;
+        }
+        return cluster;
+    }
+
+    // Client settings of the cluster, as config.properties would give them
+    public Properties clientProperties(int readQuorum, int writeQuorum) {
+        Properties properties = new Properties();
+        properties.setProperty("numReplicas", String.valueOf(replicas.size()));
+        properties.setProperty("readQuorum", String.valueOf(readQuorum));
+        properties.setProperty("writeQuorum", String.valueOf(writeQuorum));
+        for (int i = 0; i < replicas.size(); i++) {
+            properties.setProperty("replica" + (i + 1), "127.0.0.1:" + replicas.get(i).getPort());
+        }
+        return properties;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Replica replica : replicas) {
+            replica.close();
+        }
+    }
+}
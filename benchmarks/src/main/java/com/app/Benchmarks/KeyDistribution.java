@@ -0,0 +1,109 @@
+package com.app.Benchmarks;
+
+import java.util.Random;
+
+/**
+ * Popularity of the keys of a workload, choosing the index of the key of every
+ * operation among a fixed number of keys, as the request distributions of
+ * YCSB do.
+ */
+public abstract class KeyDistribution {
+    protected final int keyCount;
+
+    protected KeyDistribution(int keyCount) {
+        this.keyCount = keyCount;
+    }
+
+    // Index of the key of the next operation, from 0 to keyCount - 1
+    public abstract int next(Random random);
+
+    // Distribution named uniform, zipfian or hotspot
+    public static KeyDistribution fromName(String name, int keyCount) {
+        switch (name) {
+            case "uniform":
+                return new Uniform(keyCount);
+            case "zipfian":
+                return new Zipfian(keyCount, Zipfian.DEFAULT_THETA);
+            case "hotspot":
+                return new Hotspot(keyCount, Hotspot.DEFAULT_HOT_KEYS, Hotspot.DEFAULT_HOT_OPERATIONS);
+            default:
+                throw new IllegalArgumentException("Unknown key distribution: " + name
+                        + ". Please use 'uniform', 'zipfian' or 'hotspot'.");
+        }
+    }
+
+    // Every key is equally likely
+    public static class Uniform extends KeyDistribution {
+        public Uniform(int keyCount) {
+            super(keyCount);
+        }
+
+        @Override
+        public int next(Random random) {
+            return random.nextInt(keyCount);
+        }
+    }
+
+    // The popularity of the key of rank i is proportional to 1 / i^theta, the first keys being the most popular.
+    // Uses the constant time method of Gray et al., "Quickly generating billion-record synthetic databases".
+    public static class Zipfian extends KeyDistribution {
+        public static final double DEFAULT_THETA = 0.99;
+
+        private final double theta;
+        private final double zetaN;
+        private final double alpha;
+        private final double eta;
+
+        public Zipfian(int keyCount, double theta) {
+            super(keyCount);
+            this.theta = theta;
+            this.zetaN = zeta(keyCount, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        @Override
+        public int next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, theta)) {
+                return Math.min(1, keyCount - 1);
+            }
+            return Math.min(keyCount - 1, (int) (keyCount * Math.pow(eta * u - eta + 1, alpha)));
+        }
+    }
+
+    // A fraction of the keys receives a fraction of the operations, the rest of the operations go to the other keys
+    public static class Hotspot extends KeyDistribution {
+        public static final double DEFAULT_HOT_KEYS = 0.2;
+        public static final double DEFAULT_HOT_OPERATIONS = 0.8;
+
+        private final int hotKeyCount;
+        private final double hotOperations;
+
+        public Hotspot(int keyCount, double hotKeys, double hotOperations) {
+            super(keyCount);
+            this.hotKeyCount = Math.max(1, Math.min(keyCount, (int) (keyCount * hotKeys)));
+            this.hotOperations = hotOperations;
+        }
+
+        @Override
+        public int next(Random random) {
+            if (hotKeyCount == keyCount || random.nextDouble() < hotOperations) {
+                return random.nextInt(hotKeyCount);
+            }
+            return hotKeyCount + random.nextInt(keyCount - hotKeyCount);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.app.Benchmarks;
+
+import com.app.Client.Quorum;
+import com.app.Common.LatencyHistogram;
+import com.app.Common.ThreadMode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * YCSB-style load generator. It starts a cluster of replicas in this process
+ * on free ports and drives it with a fleet of {@link Quorum} clients shared by
+ * a number of threads. Every operation is a read or an update of a key chosen
+ * by the {@link KeyDistribution}, and the report gives the throughput and the
+ * p50, p99 and p99.9 latencies of each kind of operation, measured after the
+ * warmup.
+ *
+ * Client settings of config.properties are passed as --client.name=value, for
+ * example --client.protocol=binary or --client.writeMode=optimistic. The
+ * output of the clients and replicas is discarded unless --verbose=true.
+ */
+public class LoadGenerator {
+    private static final String USAGE = "Usage: java -cp benchmarks.jar com.app.Benchmarks.LoadGenerator"
+            + " [--replicas=<count>] [--read-quorum=<count>] [--write-quorum=<count>] [--clients=<count>]"
+            + " [--threads=<count>] [--duration-s=<seconds>] [--warmup-s=<seconds>] [--keys=<count>]"
+            + " [--read-proportion=<0..1>] [--distribution=uniform|zipfian|hotspot] [--value-size=<bytes>]"
+            + " [--replica-threads=platform|virtual] [--lock-ttl-ms=<ms>] [--verbose=true|false]"
+            + " [--client.<setting>=<value>]";
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("replicas", "5");
+        DEFAULTS.put("read-quorum", "3");
+        DEFAULTS.put("write-quorum", "4");
+        DEFAULTS.put("clients", "4");
+        DEFAULTS.put("threads", "16");
+        DEFAULTS.put("duration-s", "30");
+        DEFAULTS.put("warmup-s", "5");
+        DEFAULTS.put("keys", "10000");
+        DEFAULTS.put("read-proportion", "0.95");
+        DEFAULTS.put("distribution", "zipfian");
+        DEFAULTS.put("value-size", "100");
+        DEFAULTS.put("replica-threads", "platform");
+        DEFAULTS.put("lock-ttl-ms", "10000");
+        DEFAULTS.put("verbose", "false");
+    }
+
+    // Keys written per request while loading the keys before the run
+    private static final int LOAD_BATCH_SIZE = 100;
+
+    private enum Operation {
+        READ,
+        UPDATE
+    }
+
+    // Latencies and failures of one kind of operation, measured after the warmup
+    private static final class OperationStats {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong failures = new AtomicLong();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        Properties clientSettings = new Properties();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String name = arg.startsWith("--") && separator > 2 ? arg.substring(2, separator) : null;
+            if (name != null && name.startsWith("client.")) {
+                clientSettings.setProperty(name.substring("client.".length()), arg.substring(separator + 1));
+            } else if (name != null && DEFAULTS.containsKey(name)) {
+                options.put(name, arg.substring(separator + 1));
+            } else {
+                System.out.println("Invalid option: " + arg);
+                System.out.println(USAGE);
+                return;
+            }
+        }
+
+        int replicaCount = Integer.parseInt(options.get("replicas"));
+        int readQuorum = Integer.parseInt(options.get("read-quorum"));
+        int writeQuorum = Integer.parseInt(options.get("write-quorum"));
+        int clientCount = Integer.parseInt(options.get("clients"));
+        int threadCount = Integer.parseInt(options.get("threads"));
+        long durationS = Long.parseLong(options.get("duration-s"));
+        long warmupS = Long.parseLong(options.get("warmup-s"));
+        int keyCount = Integer.parseInt(options.get("keys"));
+        double readProportion = Double.parseDouble(options.get("read-proportion"));
+        KeyDistribution distribution = KeyDistribution.fromName(options.get("distribution"), keyCount);
+        String value = new String(new char[Integer.parseInt(options.get("value-size"))]).replace('\0', 'v');
+
+        // The clients and replicas print every request, which would be measured as well
+        PrintStream report = System.out;
+        if (!Boolean.parseBoolean(options.get("verbose"))) {
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) {
+                }
+            }));
+        }
+
+        report.println("Cluster: " + replicaCount + " replicas, R=" + readQuorum + ", W=" + writeQuorum + ", "
+                + clientCount + " clients, " + threadCount + " threads, client settings " + clientSettings);
+        report.println("Workload: " + keyCount + " keys, " + options.get("distribution") + ", "
+                + Math.round(readProportion * 100) + "% reads, " + value.length() + " B values, " + durationS
+                + " s after " + warmupS + " s of warmup");
+
+        try (InProcessCluster cluster = InProcessCluster.start(replicaCount,
+                ThreadMode.fromName(options.get("replica-threads")), Long.parseLong(options.get("lock-ttl-ms")))) {
+            Properties properties = cluster.clientProperties(readQuorum, writeQuorum);
+            properties.putAll(clientSettings);
+            List<Quorum> clients = new ArrayList<>();
+            for (int i = 0; i < clientCount; i++) {
+                clients.add(new Quorum(properties));
+            }
+            try {
+                loadKeys(clients.get(0), keyCount, value);
+
+                Map<Operation, OperationStats> stats = new LinkedHashMap<>();
+                for (Operation operation : Operation.values()) {
+                    stats.put(operation, new OperationStats());
+                }
+                long start = System.nanoTime();
+                long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupS);
+                long end = measureFrom + TimeUnit.SECONDS.toNanos(durationS);
+                List<Thread> threads = new ArrayList<>();
+                for (int i = 0; i < threadCount; i++) {
+                    Quorum client = clients.get(i % clientCount);
+                    Thread thread = new Thread(() -> runOperations(client, distribution, readProportion, value,
+                            measureFrom, end, stats), "load-generator-" + i);
+                    thread.start();
+                    threads.add(thread);
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                printReport(report, stats, durationS);
+            } finally {
+                for (Quorum client : clients) {
+                    client.close();
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    // Write every key once so that the reads find a value
+    private static void loadKeys(Quorum client, int keyCount, String value) {
+        for (int first = 0; first < keyCount; first += LOAD_BATCH_SIZE) {
+            Map<String, String> batch = new LinkedHashMap<>();
+            for (int i = first; i < Math.min(keyCount, first + LOAD_BATCH_SIZE); i++) {
+                batch.put(keyOf(i), value);
+            }
+            client.putValues(batch);
+        }
+    }
+
+    private static String keyOf(int index) {
+        return "user" + index;
+    }
+
+    private static void runOperations(Quorum client, KeyDistribution distribution, double readProportion,
+            String value, long measureFrom, long end, Map<Operation, OperationStats> stats) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now = System.nanoTime();
+        while (now - end < 0) {
+            String key = keyOf(distribution.next(random));
+            Operation operation = random.nextDouble() < readProportion ? Operation.READ : Operation.UPDATE;
+            boolean success;
+            try {
+                success = operation == Operation.READ ? client.getValue(key) != null
+                        : "true".equals(client.putValue(key, value));
+            } catch (RuntimeException e) {
+                success = false;
+            }
+            long finished = System.nanoTime();
+            if (now - measureFrom >= 0 && finished - end < 0) {
+                OperationStats operationStats = stats.get(operation);
+                operationStats.latencies.record(finished - now);
+                if (!success) {
+                    operationStats.failures.incrementAndGet();
+                }
+            }
+            now = finished;
+        }
+    }
+
+    private static void printReport(PrintStream report, Map<Operation, OperationStats> stats, long durationS) {
+        report.println(String.format("%-8s %10s %8s %12s %10s %10s %10s", "Op", "Count", "Failed", "Ops/s",
+                "p50 (ms)", "p99 (ms)", "p99.9 (ms)"));
+        long totalCount = 0;
+        for (Map.Entry<Operation, OperationStats> operation : stats.entrySet()) {
+            LatencyHistogram latencies = operation.getValue().latencies;
+            totalCount += latencies.getCount();
+            report.println(String.format("%-8s %10d %8d %12.1f %10.3f %10.3f %10.3f", operation.getKey(),
+                    latencies.getCount(), operation.getValue().failures.get(),
+                    (double) latencies.getCount() / durationS, millis(latencies.getPercentileNanos(50)),
+                    millis(latencies.getPercentileNanos(99)), millis(latencies.getPercentileNanos(99.9))));
+        }
+        report.println(String.format("%-8s %10d %8s %12.1f", "TOTAL", totalCount, "", (double) totalCount / durationS));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
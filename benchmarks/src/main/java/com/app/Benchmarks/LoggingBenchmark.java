@@ -0,0 +1,110 @@
+package com.app.Benchmarks;
+
+import com.app.Common.AsyncAppender;
+import com.app.Common.ConsoleAppender;
+import com.app.Common.Log;
+import com.app.Replica.RequestProcessor;
+import com.app.Replica.Storage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the request traces of the replicas: a GET line processed by a
+ * {@link RequestProcessor} with the traces off, written to the console by the
+ * request threads, handed over to an {@link AsyncAppender}, and handed over for
+ * 1% of the requests only.
+ *
+ * The console is replaced by a stream that discards what it is given, so the
+ * benchmarks measure what the request threads pay, not the speed of the
+ * terminal JMH forwards the output to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBenchmark {
+    private static final int KEY_COUNT = 1000;
+
+    @Param({"info", "debug-console", "debug-async", "debug-async-sampled"})
+    private String logging;
+
+    private final InetSocketAddress client = InetSocketAddress.createUnresolved("client", 1);
+    private RequestProcessor processor;
+    private String[] getRequests;
+    private AsyncAppender asyncAppender;
+    private Log.Appender previousAppender;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Storage storage = new Storage();
+        processor = new RequestProcessor(storage);
+        getRequests = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            String key = "key" + i;
+            storage.acquireWriteLock(key, client);
+            storage.put(key, "value" + i, client, 1);
+            storage.releaseWriteLock(key, client);
+            getRequests[i] = "GET " + key;
+        }
+
+        PrintStream discarded = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, true);
+        Log.setLevel("info".equals(logging) ? Log.Level.INFO : Log.Level.DEBUG);
+        Log.setTraceSampleRate("debug-async-sampled".equals(logging) ? 0.01 : 1);
+        if ("debug-console".equals(logging)) {
+            previousAppender = Log.setAppender(new ConsoleAppender(discarded));
+        } else {
+            asyncAppender = new AsyncAppender(8192, discarded);
+            previousAppender = Log.setAppender(asyncAppender);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Log.setAppender(previousAppender);
+        Log.setLevel(Log.Level.INFO);
+        Log.setTraceSampleRate(1);
+        if (asyncAppender != null) {
+            asyncAppender.close();
+            System.out.println("Log messages dropped: " + asyncAppender.getDroppedMessages());
+        }
+    }
+
+    @Benchmark
+    public String processGet() {
+        return processor.process(getRequests[ThreadLocalRandom.current().nextInt(KEY_COUNT)], client);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String processGetFourThreads() {
+        return processor.process(getRequests[ThreadLocalRandom.current().nextInt(KEY_COUNT)], client);
+    }
+}
@@ -0,0 +1,115 @@
+package com.app.Benchmarks;
+
+import com.app.Common.BinaryProtocol;
+import com.app.Common.Message;
+import com.app.Common.Opcode;
+import com.app.Common.TextProtocol;
+import com.app.Replica.RequestProcessor;
+import com.app.Replica.Storage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the request handling of the replicas and clients: parsing
+ * and formatting the lines of the text protocol as StorageHandler and
+ * ReplicaConnection do, encoding and decoding the frames of the binary
+ * protocol, and a GET line processed end to end by a {@link RequestProcessor}.
+ *
+ * The benchmarks run with 1 and 4 threads, over a number of keys and a value
+ * size given as parameters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    @Param({"1000"})
+    private int keyCount;
+
+    @Param({"16", "1024"})
+    private int valueSize;
+
+    private final InetSocketAddress client = InetSocketAddress.createUnresolved("client", 1);
+    private RequestProcessor processor;
+    private String[] getRequests;
+    private String putRequest;
+    private String getResponse;
+    private Message putMessage;
+    private byte[] putFrame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Storage storage = new Storage();
+        processor = new RequestProcessor(storage);
+        String value = new String(new char[valueSize]).replace('\0', 'v');
+        getRequests = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            String key = "key" + i;
+            storage.acquireWriteLock(key, client);
+            storage.put(key, value, client, 1);
+            storage.releaseWriteLock(key, client);
+            getRequests[i] = "GET " + key;
+        }
+        putMessage = new Message(Opcode.PUT, Collections.singletonList(new Message.Entry("key0", value, 2)));
+        putRequest = TextProtocol.formatRequest(putMessage);
+        getResponse = TextProtocol.formatResponse(new Message(Opcode.GET_SUCCESS,
+                Collections.singletonList(new Message.Entry("key0", value, 1))));
+        putFrame = BinaryProtocol.encode(putMessage);
+    }
+
+    @Benchmark
+    public Message parseTextRequest() {
+        return TextProtocol.parseRequest(putRequest);
+    }
+
+    @Benchmark
+    public String formatTextRequest() {
+        return TextProtocol.formatRequest(putMessage);
+    }
+
+    @Benchmark
+    public Message parseTextResponse() {
+        return TextProtocol.parseResponse(getResponse);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return BinaryProtocol.encode(putMessage);
+    }
+
+    @Benchmark
+    public Message decodeBinary() throws IOException {
+        // Skip the length prefix, as the connections do once they read it
+        return BinaryProtocol.decode(putFrame, 4, putFrame.length - 4);
+    }
+
+    @Benchmark
+    public String processGet() {
+        return processor.process(getRequests[ThreadLocalRandom.current().nextInt(keyCount)], client);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String processGetFourThreads() {
+        return processor.process(getRequests[ThreadLocalRandom.current().nextInt(keyCount)], client);
+    }
+}
@@ -0,0 +1,144 @@
+package com.app.Benchmarks;
+
+import com.app.Replica.InMemoryStorageEngine;
+import com.app.Replica.LsmStorageEngine;
+import com.app.Replica.SlabArena;
+import com.app.Replica.Storage;
+import com.app.Replica.StorageEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks of the in-memory {@link Storage} of a replica: reads, and the
+ * acquire, put and release cycle of a write. Every thread is a separate lock
+ * holder, so with few keys and many threads the writes contend for the same
+ * locks: a write whose lock is taken gives up, as a client would.
+ *
+ * The benchmarks run with 1 and 4 threads, over a number of keys, a value
+ * size and a storage engine given as parameters: in memory with the values on
+ * the heap or in a {@link SlabArena}, or an {@link LsmStorageEngine} in a
+ * temporary directory, with memtables small enough that most of the keys are
+ * read from its tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+    @Param({"1", "1000", "100000"})
+    private int keyCount;
+
+    @Param({"16", "1024"})
+    private int valueSize;
+
+    @Param({"heap", "offheap", "lsm"})
+    private String engine;
+
+    private Path lsmDirectory;
+    private Storage storage;
+    private String[] keys;
+    private String value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        StorageEngine storageEngine;
+        if ("lsm".equals(engine)) {
+            lsmDirectory = Files.createTempDirectory("storage-benchmark");
+            storageEngine = new LsmStorageEngine(lsmDirectory, 4 * 1024 * 1024);
+        } else {
+            storageEngine = new InMemoryStorageEngine(
+                    "offheap".equals(engine) ? new SlabArena(1024L * 1024 * 1024, 1024 * 1024) : null);
+        }
+        storage = new Storage(storageEngine, 0);
+        keys = new String[keyCount];
+        value = new String(new char[valueSize]).replace('\0', 'v');
+        InetSocketAddress loader = InetSocketAddress.createUnresolved("loader", 1);
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key" + i;
+            storage.acquireWriteLock(keys[i], loader);
+            storage.put(keys[i], value, loader, 1);
+            storage.releaseWriteLock(keys[i], loader);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        if (lsmDirectory != null) {
+            try (Stream<Path> files = Files.walk(lsmDirectory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    // Lock holder of a benchmark thread, as the connection of a client would be
+    @State(Scope.Thread)
+    public static class Holder {
+        private static final AtomicInteger NEXT_PORT = new AtomicInteger(1);
+
+        private final InetSocketAddress address = InetSocketAddress.createUnresolved("client",
+                NEXT_PORT.getAndIncrement());
+    }
+
+    @Benchmark
+    public String get() {
+        return read();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String getFourThreads() {
+        return read();
+    }
+
+    @Benchmark
+    public boolean write(Holder holder) {
+        return lockedWrite(holder);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean writeFourThreads(Holder holder) {
+        return lockedWrite(holder);
+    }
+
+    private String read() {
+        return storage.get(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    // Acquire the lock of a random key, write it at the next version and release the lock
+    private boolean lockedWrite(Holder holder) {
+        String key = keys[ThreadLocalRandom.current().nextInt(keyCount)];
+        Storage.WriteLockResult lock = storage.acquireWriteLock(key, holder.address);
+        if (!lock.isSuccess()) {
+            return false;
+        }
+        boolean written = storage.put(key, value, holder.address, lock.getCurrentVersion() + 1);
+        storage.releaseWriteLock(key, holder.address);
+        return written;
+    }
+}
@@ -24,11 +24,12 @@ public class Client {
                 String key = scanner.nextLine();
                 System.out.print("Enter value: ");
                 String value = scanner.nextLine();
-                quorum.putValue(key, value);
+                String result = quorum.putValue(key, value);
+                System.out.println("true".equals(result) ? "PUT operation successful" : "PUT operation failed");
             } else if ("get".equalsIgnoreCase(choice)) {
                 System.out.print("Enter key: ");
                 String key = scanner.nextLine();
-                quorum.getValue(key);
+                printReadResult(quorum.getAsync(key).join());
             } else if ("exit".equalsIgnoreCase(choice)) {
                 System.out.println("\nExiting the client. Goodbye!");
                 break;
@@ -38,6 +39,20 @@ public class Client {
         }
 
         scanner.close();
+        quorum.close();
+    }
+
+    // The quorum logs every operation at the debug level only, so the client reports the outcome itself
+    private static void printReadResult(ReadResult result) {
+        if (result.isFound()) {
+            System.out.println("GET operation successful. Value: " + result.getValue() + " Version Number: "
+                    + result.getVersion());
+        } else if (result.getReplicaOutcomes().containsValue(ReplicaOutcome.SUCCESS)
+                || result.getReplicaOutcomes().containsValue(ReplicaOutcome.NO_VALUE)) {
+            System.out.println("GET operation successful. No value found for key: " + result.getKey());
+        } else {
+            System.out.println("GET operation failed, the replicas did not answer.");
+        }
     }
 
     private static void printAsciiArt() {
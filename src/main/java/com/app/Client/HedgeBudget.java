@@ -0,0 +1,34 @@
+package com.app.Client;
+
+/**
+ * Limits the hedged reads of a {@link Quorum} to a share of its reads.
+ *
+ * Every read deposits a fraction of a hedge and every hedge withdraws a whole
+ * one, so at most that fraction of extra requests is ever sent, plus a small
+ * burst. When the replicas are overloaded and every read gets slow, hedging
+ * stops once the budget is spent instead of adding to the load.
+ */
+public class HedgeBudget {
+    private final double hedgesPerRead;
+    private final double maxBalance;
+    private double balance;
+
+    public HedgeBudget(double hedgesPerRead, int maxBurst) {
+        this.hedgesPerRead = hedgesPerRead;
+        this.maxBalance = maxBurst;
+    }
+
+    // Record a read that may be hedged
+    public synchronized void onRead() {
+        balance = Math.min(maxBalance, balance + hedgesPerRead);
+    }
+
+    // Take one hedge from the budget, returns false when it is spent
+    public synchronized boolean tryHedge() {
+        if (balance < 1) {
+            return false;
+        }
+        balance--;
+        return true;
+    }
+}
@@ -0,0 +1,209 @@
+package com.app.Client;
+
+import com.app.Common.Log;
+import com.app.Common.Message;
+import com.app.Common.Opcode;
+import com.app.Common.ThreadMode;
+import com.app.Common.TextProtocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection to a replica shared by many caller threads.
+ * The connection uses the pipelined text protocol: every request is tagged with
+ * an identifier and sent without waiting for the previous responses, and a
+ * reader thread completes the future of each request when the response with
+ * the same identifier arrives, in whatever order the replica answers.
+ *
+ * The replica identifies the holder of a write lock by its connection, so the
+ * lock protocol cannot be shared between callers and keeps using exclusive
+ * {@link ReplicaConnection}s; this connection is used for reads and for the
+ * conditional writes, which hold no lock.
+ *
+ * A request is forgotten as soon as its future completes, including when the
+ * caller cancels it, and the response that may still arrive for it is dropped.
+ * A request left unanswered for longer than the request timeout breaks the
+ * connection: the replica is stuck or the stream is out of step.
+ */
+public class MultiplexedReplicaConnection {
+    private final Socket clientSocket;
+    private final BufferedReader input;
+    private final PrintWriter output;
+
+    private final AtomicLong nextRequestId = new AtomicLong();
+
+    // Requests sent and not answered yet, by identifier
+    private final ConcurrentHashMap<Long, CompletableFuture<String>> pendingRequests = new ConcurrentHashMap<>();
+
+    // Time after which an unanswered request breaks the connection, and the timer of these timeouts, 0 and null
+    // when the requests wait forever
+    private final long requestTimeoutMs;
+    private final ScheduledExecutorService timer;
+
+    // Set once the connection failed, a broken connection must be replaced
+    private volatile IOException failure;
+
+    public MultiplexedReplicaConnection(String serverAddress, int serverPort) throws IOException {
+        this(serverAddress, serverPort, 0, null);
+    }
+
+    // Connection whose requests time out after the given time, checked by the given timer
+    public MultiplexedReplicaConnection(String serverAddress, int serverPort, long requestTimeoutMs,
+            ScheduledExecutorService timer) throws IOException {
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.timer = timer;
+        try {
+            clientSocket = new Socket(serverAddress, serverPort);
+            clientSocket.setTcpNoDelay(true);
+            input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+            output = new PrintWriter(clientSocket.getOutputStream(), false);
+
+            output.println(TextProtocol.PIPELINING_REQUEST);
+            output.flush();
+            String response = input.readLine();
+            if (!TextProtocol.PIPELINING_ACCEPTED.equals(response)) {
+                throw new IOException("Replica does not support pipelining, it answered " + response);
+            }
+        } catch (IOException e) {
+            closeConnection();
+            throw new IOException("Failed to open a pipelined connection to the replica " + serverAddress + ":"
+                    + serverPort + ". Please check that the replica is running.", e);
+        }
+
+        Thread reader = ThreadMode.PLATFORM.threadFactory("replica-reader-" + serverPort).newThread(this::readResponses);
+        reader.start();
+    }
+
+    public CompletableFuture<String> get(String key) {
+        return send("GET " + TextProtocol.escape(key));
+    }
+
+    public CompletableFuture<String> getIfNewer(String key, int version) {
+        return send("GET_IF_NEWER " + TextProtocol.escape(key) + " " + version);
+    }
+
+    // Write the key only if the replica holds the expected version, completes with null once written or with the
+    // current version of the replica
+    public CompletableFuture<Integer> putIfVersion(String key, String value, int expectedVersion, int newVersion) {
+        Message request = TextProtocol.conditionalPut(key, value, expectedVersion, newVersion);
+        return send(TextProtocol.formatRequest(request)).thenApply(line -> {
+            Message response = TextProtocol.parseResponse(line);
+            if (response != null && response.getOpcode() == Opcode.PUT_SUCCESS) {
+                return null;
+            }
+            if (response != null && response.getOpcode() == Opcode.VERSION_CONFLICT) {
+                return response.getEntry().getVersion();
+            }
+            throw new CompletionException(new IOException(
+                    "Unexpected response to PUT_IF_VERSION from the replica " + this + ": " + line));
+        });
+    }
+
+    public CompletableFuture<String> ping() {
+        return send("PING");
+    }
+
+    // Send a request without waiting for the responses of the requests already in flight
+    public CompletableFuture<String> send(String request) {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        long requestId = nextRequestId.incrementAndGet();
+        pendingRequests.put(requestId, response);
+        response.whenComplete((line, error) -> pendingRequests.remove(requestId, response));
+        if (timer != null && requestTimeoutMs > 0) {
+            ScheduledFuture<?> timeout = timer.schedule(() -> expire(response), requestTimeoutMs,
+                    TimeUnit.MILLISECONDS);
+            response.whenComplete((line, error) -> timeout.cancel(false));
+        }
+
+        synchronized (output) {
+            output.print(requestId + " " + request + "\n");
+            output.flush();
+            if (output.checkError()) {
+                fail(new IOException("Failed to send the request to the replica " + this));
+            }
+        }
+
+        // The reader may have failed before the request was registered
+        if (failure != null) {
+            fail(failure);
+        }
+        return response;
+    }
+
+    public boolean isBroken() {
+        return failure != null || clientSocket.isClosed();
+    }
+
+    public int getPendingCount() {
+        return pendingRequests.size();
+    }
+
+    public void closeConnection() {
+        try {
+            if (clientSocket != null) {
+                clientSocket.close();
+            }
+        } catch (IOException e) {
+            Log.warn("Failed to close the connection to a replica", e);
+        }
+    }
+
+    private void readResponses() {
+        try {
+            String response;
+            while ((response = input.readLine()) != null) {
+                int separator = response.indexOf(' ');
+                long requestId = separator < 0 ? 0 : Long.parseLong(response.substring(0, separator));
+                // A request sent but no longer pending was cancelled by its caller, its response is dropped
+                CompletableFuture<String> pendingRequest = pendingRequests.remove(requestId);
+                if (pendingRequest != null) {
+                    pendingRequest.complete(response.substring(separator + 1));
+                } else if (requestId <= 0 || requestId > nextRequestId.get()) {
+                    throw new IOException("Unexpected response from the replica " + this + ": " + response);
+                }
+            }
+            fail(new IOException("Connection closed by the replica " + this));
+        } catch (IOException | NumberFormatException e) {
+            fail(e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+
+    // Break the connection if the request is still waiting for its response
+    private void expire(CompletableFuture<String> response) {
+        if (!response.isDone()) {
+            Log.warn("Replica " + this + " did not answer a request within " + requestTimeoutMs
+                    + " ms, closing the connection");
+            fail(new IOException("Request to the replica " + this + " timed out after " + requestTimeoutMs + " ms"));
+        }
+    }
+
+    // Mark the connection as broken and fail every request still waiting for its response
+    private void fail(IOException cause) {
+        failure = cause;
+        closeConnection();
+        List<Long> requestIds = new ArrayList<>(pendingRequests.keySet());
+        for (Long requestId : requestIds) {
+            CompletableFuture<String> pendingRequest = pendingRequests.remove(requestId);
+            if (pendingRequest != null) {
+                pendingRequest.completeExceptionally(cause);
+            }
+        }
+    }
+
+    public String toString() {
+        return clientSocket.getLocalAddress().toString() + ":" + clientSocket.getPort();
+    }
+}
@@ -0,0 +1,95 @@
+package com.app.Client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded client-side cache of the values read and written through a
+ * {@link Quorum}, together with their versions.
+ *
+ * A cached value is never returned as is: the quorum read still asks every
+ * replica of the read quorum, with GET_IF_NEWER and the cached version, and a
+ * replica holding that version answers NOT_MODIFIED instead of sending the
+ * value again. The cache only saves the transfer of values that did not change.
+ *
+ * The cache is bounded by the approximate memory used by its keys and values,
+ * and evicts the least recently used keys first.
+ */
+public class NearCache {
+    // Approximate memory used by an entry besides its characters
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final long maxBytes;
+    private long usedBytes;
+    private final LinkedHashMap<String, CachedValue> values = new LinkedHashMap<>(16, 0.75f, true);
+
+    public NearCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Cached value of a key, null if the key is not cached
+    public synchronized CachedValue get(String key) {
+        return values.get(key);
+    }
+
+    // Cache a value unless a newer version of the key is already cached
+    public synchronized void put(String key, String value, int version) {
+        CachedValue cached = values.get(key);
+        if (cached != null && cached.version > version) {
+            return;
+        }
+        long size = sizeOf(key, value);
+        if (size > maxBytes) {
+            invalidate(key);
+            return;
+        }
+        CachedValue previous = values.put(key, new CachedValue(value, version));
+        usedBytes += size - (previous != null ? sizeOf(key, previous.value) : 0);
+
+        // Evict the least recently used keys until the cache fits again
+        Iterator<Map.Entry<String, CachedValue>> eldest = values.entrySet().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, CachedValue> evicted = eldest.next();
+            usedBytes -= sizeOf(evicted.getKey(), evicted.getValue().value);
+            eldest.remove();
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        CachedValue removed = values.remove(key);
+        if (removed != null) {
+            usedBytes -= sizeOf(key, removed.value);
+        }
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private static long sizeOf(String key, String value) {
+        return ENTRY_OVERHEAD + 2L * (key.length() + value.length());
+    }
+
+    public static final class CachedValue {
+        private final String value;
+        private final int version;
+
+        private CachedValue(String value, int version) {
+            this.value = value;
+            this.version = version;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+    }
+}
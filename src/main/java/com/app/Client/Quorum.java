@@ -1,36 +1,159 @@
 package com.app.Client;
 
+import com.app.Common.LatencyHistogram;
+import com.app.Common.Log;
+import com.app.Common.Message;
+import com.app.Common.TextProtocol;
+import com.app.Common.ThreadMode;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class Quorum {
     private List<String> readQuorumList;
     private List<String> writeQuorumList;
 
+    // Maximum time to wait for the replicas of a quorum to answer
+    private long requestTimeoutMs = 5000;
+
+    // Threads used to contact the replicas of a quorum in parallel
+    private ExecutorService executor;
+
+    // Persistent connections to every replica, keyed by "address:port"
+    private final Map<String, ReplicaConnectionPool> connectionPools = new HashMap<>();
+
+    // Whether reads share one pipelined connection per replica instead of borrowing pooled connections
+    private boolean pipelining;
+    private final Map<String, MultiplexedReplicaConnection> multiplexedConnections = new HashMap<>();
+
+    // Whether a write is a conditional write on the expected version of the key, applied in one round trip when
+    // nobody else writes the key, instead of acquiring, writing and releasing locks
+    private boolean optimisticWrites;
+
+    // Conditional writes retried with the versions reported by the replicas before falling back to locks
+    private static final int OPTIMISTIC_WRITE_ATTEMPTS = 3;
+
+    // Latest version this client read or wrote for each key, the expected version of its next conditional write
+    private Map<String, Integer> knownVersions = newVersionCache(10000);
+
+    // Ranks the replicas of every operation by latency and load, null when the random quorums chosen at startup are
+    // used for every operation
+    private ReplicaSelector replicaSelector;
+
+    // Whether a read still waiting for its quorum after the hedge delay is also sent to one more replica
+    private boolean hedgedReads;
+    private HedgeBudget hedgeBudget;
+
+    // Latencies of the recent reads, and the percentile of them after which a read is hedged
+    private final LatencyHistogram readLatencies = new LatencyHistogram();
+    private double hedgePercentile = 95;
+    private long hedgeMinDelayNanos;
+    private volatile long hedgeDelayNanos = Long.MAX_VALUE;
+
+    // Reads after which the hedge delay is computed again, and after which older reads are forgotten
+    private static final int HEDGE_DELAY_UPDATE_READS = 100;
+    private static final int HEDGE_DELAY_WINDOW_READS = 1000;
+
+    // Round trip times of the replicas and completion times of the quorum operations
+    private final QuorumMetrics metrics = new QuorumMetrics();
+
+    // Values and versions of the keys read or written recently, null when disabled
+    private NearCache nearCache;
+
+    // Writes the most recent value of a key to the replicas that returned an older one, null when disabled
+    private ReadRepairer readRepairer;
+    private ScheduledExecutorService readRepairService;
+
+    // Period of the renewals of the leases of the locks held by a write, a third of the default lease of the
+    // replicas, 0 disables them
+    private long lockRenewalMs = 3000;
+
+    // Timeouts and hedges of the asynchronous operations, cancelled once the operation completes
+    private final ScheduledThreadPoolExecutor asyncTimer = newAsyncTimer();
+
+    // Last asynchronous write of every key being written, the next write of the key waits for it
+    private final ConcurrentHashMap<String, CompletableFuture<WriteResult>> pendingWrites = new ConcurrentHashMap<>();
+
+    // Background thread closing the pooled connections that stayed idle for too long
+    private final ScheduledExecutorService poolMaintenance = Executors.newSingleThreadScheduledExecutor(
+            ThreadMode.PLATFORM.threadFactory("quorum-pool-maintenance"));
+
     public Quorum() {
-        try {
-            // Load the configuration file using the ClassLoader
-            Properties properties = loadConfigFile("config.properties");
+        // Load the configuration file using the ClassLoader
+        this(loadConfigFile("config.properties"));
+    }
 
+    // Client configured with the given settings instead of config.properties, for clusters whose replicas are not
+    // known in advance
+    public Quorum(Properties properties) {
+        try {
             if (properties == null) {
-                System.out.println("Error: Failed to load configuration file.");
+                Log.error("Error: Failed to load configuration file.");
                 return;
             }
 
+            // Per-operation traces are written at the debug level, for the given fraction of the operations
+            if (properties.getProperty("logLevel") != null) {
+                Log.setLevel(Log.Level.fromName(properties.getProperty("logLevel")));
+            }
+            if (properties.getProperty("logSampleRate") != null) {
+                Log.setTraceSampleRate(Double.parseDouble(properties.getProperty("logSampleRate")));
+            }
+
             // Rest of your code remains unchanged
             int numReplicas = Integer.parseInt(properties.getProperty("numReplicas"));
             int readQuorum = Integer.parseInt(properties.getProperty("readQuorum"));
             int writeQuorum = Integer.parseInt(properties.getProperty("writeQuorum"));
+            requestTimeoutMs = Long.parseLong(properties.getProperty("requestTimeoutMs", "5000"));
+            int poolMaxConnections = Integer.parseInt(properties.getProperty("poolMaxConnections", "8"));
+            long poolIdleTimeoutMs = Long.parseLong(properties.getProperty("poolIdleTimeoutMs", "30000"));
+            long poolValidateAfterMs = Long.parseLong(properties.getProperty("poolValidateAfterMs", "2000"));
+            boolean binaryProtocol = "binary".equals(properties.getProperty("protocol", "text"));
+            pipelining = Boolean.parseBoolean(properties.getProperty("pipelining", "false"));
+            optimisticWrites = "optimistic".equals(properties.getProperty("writeMode", "lock"));
+            lockRenewalMs = Long.parseLong(properties.getProperty("lockRenewalMs", "3000"));
+            knownVersions = newVersionCache(Integer.parseInt(properties.getProperty("versionCacheSize", "10000")));
+
+            // Run the per-replica requests on platform or virtual threads
+            ThreadMode threadMode = ThreadMode.fromName(properties.getProperty("threadMode", "platform"));
+            if (!threadMode.isSupported()) {
+                Log.warn("Virtual threads are not available on this JVM, using platform threads.");
+                threadMode = ThreadMode.PLATFORM;
+            }
+            executor = threadMode.newExecutor("quorum-worker");
 
             // Perform runtime checks on the read quorum and write quorum
             if (writeQuorum <= numReplicas / 2 || writeQuorum + readQuorum <= numReplicas) {
-                System.out.println("Error: Invalid read and write quorum values. Please check the configuration file.");
+                Log.error("Error: Invalid read and write quorum values. Please check the configuration file.");
                 return;
             }
 
@@ -40,12 +163,47 @@ public class Quorum {
                 String replicaKey = "replica" + i;
                 String replicaInfo = properties.getProperty(replicaKey);
                 if (replicaInfo == null) {
-                    System.out.println("Replica information not found for " + replicaKey);
+                    Log.error("Replica information not found for " + replicaKey);
                     return;
                 }
                 replicaInfoList.add(replicaInfo);
             }
 
+            if (!"fixed".equals(properties.getProperty("replicaSelection", "adaptive"))) {
+                replicaSelector = new ReplicaSelector(replicaInfoList);
+            }
+
+            // Create a connection pool for each replica
+            for (String replicaInfo : replicaInfoList) {
+                String[] parts = replicaInfo.split(":");
+                connectionPools.put(replicaInfo, new ReplicaConnectionPool(parts[0], Integer.parseInt(parts[1]),
+                        poolMaxConnections, poolIdleTimeoutMs, poolValidateAfterMs, binaryProtocol,
+                        requestTimeoutMs));
+            }
+            hedgedReads = Boolean.parseBoolean(properties.getProperty("hedgeReads", "false"));
+            hedgePercentile = Double.parseDouble(properties.getProperty("hedgePercentile", "95"));
+            hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(
+                    Long.parseLong(properties.getProperty("hedgeMinDelayMs", "1")));
+            hedgeBudget = new HedgeBudget(
+                    Double.parseDouble(properties.getProperty("hedgeBudgetPercent", "10")) / 100, 10);
+            if (Boolean.parseBoolean(properties.getProperty("nearCache", "false"))) {
+                nearCache = new NearCache(Long.parseLong(properties.getProperty("nearCacheMaxBytes", "16777216")));
+            }
+            if (Boolean.parseBoolean(properties.getProperty("readRepair", "false"))) {
+                readRepairer = new ReadRepairer(connectionPools, requestTimeoutMs,
+                        Integer.parseInt(properties.getProperty("readRepairBatchSize", "64")),
+                        Integer.parseInt(properties.getProperty("readRepairPerSecond", "1000")),
+                        Integer.parseInt(properties.getProperty("readRepairMaxPending", "10000")));
+                long readRepairIntervalMs = Long.parseLong(properties.getProperty("readRepairIntervalMs", "100"));
+                readRepairService = Executors.newSingleThreadScheduledExecutor(
+                        ThreadMode.PLATFORM.threadFactory("quorum-read-repair"));
+                readRepairService.scheduleWithFixedDelay(readRepairer::flush, readRepairIntervalMs,
+                        readRepairIntervalMs, TimeUnit.MILLISECONDS);
+            }
+            long evictionPeriodMs = Math.max(1, poolIdleTimeoutMs / 2);
+            poolMaintenance.scheduleWithFixedDelay(this::evictIdleConnections, evictionPeriodMs, evictionPeriodMs,
+                    TimeUnit.MILLISECONDS);
+
             // Create Set to hold read quorum replicas (no duplicates)
             Set<String> readQuorumSet = new HashSet<>();
             while (readQuorumSet.size() < readQuorum) {
@@ -63,21 +221,43 @@ public class Quorum {
             writeQuorumList = new ArrayList<>(writeQuorumSet);
 
             // Print the read quorum and write quorum
-            System.out.println("Read quorum: " + readQuorumList);
-            System.out.println("Write quorum: " + writeQuorumList);
+            Log.info("Read quorum: " + readQuorumList);
+            Log.info("Write quorum: " + writeQuorumList);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.error("Failed to set up the quorums", e);
         }
     }
 
+    private static ScheduledThreadPoolExecutor newAsyncTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                ThreadMode.PLATFORM.threadFactory("quorum-async-timer"));
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    // Map of the most recently used keys to their versions, holding at most the given number of keys
+    private static Map<String, Integer> newVersionCache(int maxKeys) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > maxKeys;
+            }
+        });
+    }
+
     // Load the configuration file using the ClassLoader
-    private Properties loadConfigFile(String configFile) throws IOException {
+    private static Properties loadConfigFile(String configFile) {
         Properties properties = new Properties();
-        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(configFile)) {
+        try (InputStream inputStream = Quorum.class.getClassLoader().getResourceAsStream(configFile)) {
             if (inputStream != null) {
                 properties.load(inputStream);
             }
+        } catch (IOException e) {
+            Log.error("Failed to load the configuration file " + configFile, e);
+            return null;
         }
         return properties;
     }
@@ -90,138 +270,1265 @@ public class Quorum {
         return writeQuorumList;
     }
 
+    public QuorumMetrics getMetrics() {
+        return metrics;
+    }
+
     public int getNumReplicas() {
         return readQuorumList.size() + writeQuorumList.size();
     }
 
-    public String getValue(String key) {
-        // list to hold all values returned by replicas
-        List<String> values = new ArrayList<>();
-        for (String replicaInfo : readQuorumList) {
-            String[] parts = replicaInfo.split(":");
-            String serverAddress = parts[0];
-            int serverPort = Integer.parseInt(parts[1]);
+    // Replicas to send an operation to, the first ones forming the quorum of the given size and the others being
+    // spares to replace the ones that fail. Without adaptive selection this is the fixed quorum, without spares.
+    private List<String> rankReplicas(List<String> fixedQuorum) {
+        return replicaSelector != null ? replicaSelector.rank() : fixedQuorum;
+    }
 
-            try {
-                ReplicaConnection connection = new ReplicaConnection(serverAddress, serverPort);
-                String value = connection.get(key);
-                values.add(value);
-                System.out.println("GET operation successful on Replica " + connection.toString()
-                        + ". Value: " + value);
-                connection.closeConnection();
+    // Helper method to send a request to a replica, recording its latency for the replica selection and the metrics
+    private <T> T track(String replicaInfo, ReplicaSelector.ReplicaRequest<T> request) throws IOException {
+        long start = System.nanoTime();
+        T response = replicaSelector != null ? replicaSelector.track(replicaInfo, request) : request.send();
+        metrics.recordReplicaLatency(replicaInfo, System.nanoTime() - start);
+        return response;
+    }
 
-            } catch (Exception e) {
-                e.printStackTrace();
+    // Helper method to borrow a connection to a replica, a replica that cannot be reached is ranked last for a while
+    private ReplicaConnection borrow(String replicaInfo, ReplicaConnectionPool pool) throws IOException {
+        try {
+            return pool.borrow(requestTimeoutMs);
+        } catch (IOException e) {
+            if (replicaSelector != null) {
+                replicaSelector.fail(replicaInfo);
             }
+            throw e;
+        }
+    }
+
+    // Close the pooled connections and stop the background threads of this client
+    public void close() {
+        poolMaintenance.shutdownNow();
+        asyncTimer.shutdownNow();
+        if (readRepairService != null) {
+            readRepairService.shutdownNow();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        for (ReplicaConnectionPool pool : connectionPools.values()) {
+            pool.close();
+        }
+        synchronized (multiplexedConnections) {
+            for (MultiplexedReplicaConnection connection : multiplexedConnections.values()) {
+                connection.closeConnection();
+            }
+        }
+    }
+
+    public String getValue(String key) {
+        // Send the GET request to every replica of the read quorum at once, replicas holding the cached version of
+        // the key answer without the value
+        NearCache.CachedValue cached = nearCache != null ? nearCache.get(key) : null;
+        BlockingQueue<CompletableFuture<String>> completedReads = new LinkedBlockingQueue<>();
+        List<CompletableFuture<String>> pendingReads = new ArrayList<>();
+        Map<CompletableFuture<String>, String> replicaOfRead = new HashMap<>();
+        Consumer<String> sendRead = replicaInfo -> {
+            CompletableFuture<String> pendingRead = readFromReplica(replicaInfo, key, cached);
+            replicaOfRead.put(pendingRead, replicaInfo);
+            pendingRead.whenComplete((value, error) -> completedReads.add(pendingRead));
+            pendingReads.add(pendingRead);
+        };
+        List<String> replicas = rankReplicas(readQuorumList);
+        Iterator<String> spareReplicas = replicas.subList(readQuorumList.size(), replicas.size()).iterator();
+        for (String replicaInfo : replicas.subList(0, readQuorumList.size())) {
+            sendRead.accept(replicaInfo);
         }
 
-        // Find the value with the highest version number
+        Iterator<String> hedgeReplicas = hedgeReplicas(spareReplicas);
+        if (hedgedReads) {
+            hedgeBudget.onRead();
+        }
+
+        // Find the value with the highest version number as the responses arrive
         int highestVersionNumber = -1;
         String mostRecentValue = null;
+        Map<String, Integer> versionsRead = new HashMap<>();
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(requestTimeoutMs);
+        long hedgeAt = start + Math.max(hedgeMinDelayNanos, hedgeDelayNanos);
+        boolean hedgePending = hedgedReads;
+        int answered = 0;
+        try {
+            // Stop at the first answers of the quorum size, a hedged read makes one more read than needed
+            for (int received = 0; received < pendingReads.size() && answered < readQuorumList.size(); ) {
+                boolean hedgeFirst = hedgePending && hedgeAt - deadline < 0;
+                CompletableFuture<String> completed = completedReads.poll(
+                        (hedgeFirst ? hedgeAt : deadline) - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (completed == null && hedgeFirst) {
+                    // The quorum is late: ask one more replica if the budget allows it, and keep waiting
+                    hedgePending = false;
+                    if (hedgeReplicas.hasNext() && hedgeBudget.tryHedge()) {
+                        String hedge = hedgeReplicas.next();
+                        if (Log.isTraced()) {
+                            Log.debug("Hedging the read of key " + key + " on Replica " + hedge);
+                        }
+                        sendRead.accept(hedge);
+                    }
+                    continue;
+                }
+                if (completed == null) {
+                    Log.warn("Timed out waiting for the read quorum");
+                    break;
+                }
+                received++;
+
+                String value;
+                try {
+                    value = completed.join();
+                } catch (CompletionException e) {
+                    Log.warn("GET operation failed on Replica " + replicaOfRead.get(completed), e.getCause());
+                    // Read from a spare replica instead, so that the quorum still gets its number of answers
+                    if (spareReplicas.hasNext()) {
+                        String spare = spareReplicas.next();
+                        Log.warn("Reading from spare Replica " + spare + " instead of "
+                                + replicaOfRead.get(completed));
+                        sendRead.accept(spare);
+                    }
+                    continue;
+                }
 
-        for (String value : values) {
-            if (value.startsWith("GET_SUCCESS") && value != null) {
-                System.out.println("Value: " + value);
-                String[] parts = value.split(" ");
-                int version = Integer.parseInt(parts[2]);
+                answered++;
+                if (value != null && value.startsWith("NOT_MODIFIED") && cached != null) {
+                    value = "GET_SUCCESS " + TextProtocol.escape(cached.getValue()) + " "
+                            + parseVersion(value);
+                }
+                if (value != null && value.startsWith("GET_SUCCESS")) {
+                    if (Log.isTraced()) {
+                        Log.debug("Value: " + value);
+                    }
+                    int version = parseVersion(value);
+                    versionsRead.put(replicaOfRead.get(completed), version);
 
-                // Update the most recent value if a higher version number is encountered
-                if (version > highestVersionNumber) {
-                    highestVersionNumber = version;
-                    mostRecentValue = value;
+                    // Update the most recent value if a higher version number is encountered
+                    if (version > highestVersionNumber) {
+                        highestVersionNumber = version;
+                        mostRecentValue = value;
+                    }
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Replicas that did not answer in time, or after the quorum, are of no use anymore
+            for (CompletableFuture<String> pendingRead : pendingReads) {
+                pendingRead.cancel(true);
+            }
         }
 
-        System.out.println("GET RESULT: " + mostRecentValue);
+        if (answered == readQuorumList.size()) {
+            recordReadLatency(System.nanoTime() - start);
+        }
+        if (mostRecentValue != null) {
+            rememberVersion(key, parseValue(mostRecentValue), highestVersionNumber);
+            scheduleReadRepairs(key, mostRecentValue, versionsRead);
+        }
+        if (Log.isTraced()) {
+            Log.debug("GET RESULT: " + mostRecentValue);
+        }
         return mostRecentValue;
 
     }
 
+    // Read a key without blocking the calling thread, with the same spare replicas, hedging, near-cache and read
+    // repair as getValue(). The reads go over the pipelined connections to the replicas, so any number of reads can be
+    // in flight without a thread each. The future completes on a worker thread.
+    public CompletableFuture<ReadResult> getAsync(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return new AsyncRead(key).start();
+    }
+
+    // Read many keys with one MGET per replica of the read quorum, returns the most recent response line of every
+    // key as getValue() would, or null for the keys no replica could read
+    public Map<String, String> getValues(Collection<String> keys) {
+        List<String> keyList = new ArrayList<>(new LinkedHashSet<>(keys));
+        Map<String, String> mostRecentValues = new LinkedHashMap<>();
+        for (String key : keyList) {
+            mostRecentValues.put(key, null);
+        }
+        if (keyList.isEmpty()) {
+            return mostRecentValues;
+        }
+
+        List<String> readReplicas = rankReplicas(readQuorumList).subList(0, readQuorumList.size());
+        List<CompletableFuture<List<String>>> pendingReads = new ArrayList<>();
+        for (String replicaInfo : readReplicas) {
+            pendingReads.add(CompletableFuture.supplyAsync(() -> readBatchFromReplica(replicaInfo, keyList), executor));
+        }
+        awaitAll(pendingReads);
+
+        // Keep the value with the highest version number of every key
+        int[] highestVersionNumbers = new int[keyList.size()];
+        Arrays.fill(highestVersionNumbers, -1);
+        Map<String, List<String>> valuesRead = new HashMap<>();
+        for (int r = 0; r < pendingReads.size(); r++) {
+            CompletableFuture<List<String>> pendingRead = pendingReads.get(r);
+            List<String> values;
+            try {
+                values = pendingRead.getNow(null);
+            } catch (CompletionException e) {
+                continue;
+            }
+            if (values == null) {
+                // The replica did not answer in time
+                pendingRead.cancel(true);
+                continue;
+            }
+
+            valuesRead.put(readReplicas.get(r), values);
+            for (int i = 0; i < keyList.size(); i++) {
+                String value = values.get(i);
+                if (value.startsWith("GET_SUCCESS") && parseVersion(value) > highestVersionNumbers[i]) {
+                    highestVersionNumbers[i] = parseVersion(value);
+                    mostRecentValues.put(keyList.get(i), value);
+                }
+            }
+        }
+        for (int i = 0; i < keyList.size(); i++) {
+            String mostRecentValue = mostRecentValues.get(keyList.get(i));
+            if (mostRecentValue == null) {
+                continue;
+            }
+            rememberVersion(keyList.get(i), parseValue(mostRecentValue), highestVersionNumbers[i]);
+            Map<String, Integer> versionsRead = new HashMap<>();
+            for (Map.Entry<String, List<String>> replicaValues : valuesRead.entrySet()) {
+                String value = replicaValues.getValue().get(i);
+                if (value.startsWith("GET_SUCCESS")) {
+                    versionsRead.put(replicaValues.getKey(), parseVersion(value));
+                }
+            }
+            scheduleReadRepairs(keyList.get(i), mostRecentValue, versionsRead);
+        }
+
+        if (Log.isTraced()) {
+            Log.debug("MGET RESULT: " + mostRecentValues);
+        }
+        return mostRecentValues;
+    }
+
+    private List<String> readBatchFromReplica(String replicaInfo, List<String> keys) {
+        ReplicaConnectionPool pool = connectionPools.get(replicaInfo);
+        try {
+            ReplicaConnection connection = borrow(replicaInfo, pool);
+            try {
+                List<String> values = track(replicaInfo, () -> connection.getAll(keys));
+                if (Log.isTraced()) {
+                    Log.debug("MGET operation successful on Replica " + connection.toString()
+                            + ". Keys: " + keys.size());
+                }
+                return values;
+            } finally {
+                pool.release(connection);
+            }
+        } catch (IOException e) {
+            Log.warn("MGET operation failed on Replica " + replicaInfo, e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Helper method to choose the replicas a read may be hedged on: the ranked spares, or the replicas left out of the
+    // fixed read quorum
+    private Iterator<String> hedgeReplicas(Iterator<String> spareReplicas) {
+        if (!hedgedReads || replicaSelector != null) {
+            return spareReplicas;
+        }
+        List<String> otherReplicas = new ArrayList<>(connectionPools.keySet());
+        otherReplicas.removeAll(readQuorumList);
+        return otherReplicas.iterator();
+    }
+
+    // Helper method to record the time a read took to reach its quorum, updating the hedge delay from the recent reads
+    private void recordReadLatency(long latencyNanos) {
+        metrics.recordRead(latencyNanos);
+        readLatencies.record(latencyNanos);
+        long count = readLatencies.getCount();
+        if (count % HEDGE_DELAY_UPDATE_READS == 0) {
+            hedgeDelayNanos = readLatencies.getPercentileNanos(hedgePercentile);
+            if (count >= HEDGE_DELAY_WINDOW_READS) {
+                readLatencies.reset();
+            }
+        }
+    }
+
+    // Helper method to queue the most recent value of a key, as a GET response line, for the replicas that returned
+    // an older version of it. Replicas that could not read the key are left alone, a write is in progress there.
+    private void scheduleReadRepairs(String key, String mostRecentValue, Map<String, Integer> versionsRead) {
+        if (readRepairer == null) {
+            return;
+        }
+        int version = parseVersion(mostRecentValue);
+        String value = parseValue(mostRecentValue);
+        for (Map.Entry<String, Integer> versionRead : versionsRead.entrySet()) {
+            if (versionRead.getValue() < version) {
+                readRepairer.schedule(versionRead.getKey(), key, value, version);
+            }
+        }
+    }
+
+    // Helper method to record the latest version of a key seen by this client, and its value in the near-cache
+    private void rememberVersion(String key, String value, int version) {
+        knownVersions.put(key, version);
+        if (nearCache != null) {
+            nearCache.put(key, value, version);
+        }
+    }
+
+    // The value of a GET response is everything between the status and the version, escaped as on a text line
+    private static String parseValue(String getResponse) {
+        return TextProtocol.unescape(getResponse.substring(getResponse.indexOf(' ') + 1,
+                getResponse.lastIndexOf(' ')));
+    }
+
+    // The version is the last field of a GET response, values read through the binary protocol may contain spaces
+    private static int parseVersion(String getResponse) {
+        return Integer.parseInt(getResponse.substring(getResponse.lastIndexOf(' ') + 1));
+    }
+
+    // Helper method to perform a single GET on one replica of the read quorum
+    private CompletableFuture<String> readFromReplica(String replicaInfo, String key, NearCache.CachedValue cached) {
+        if (!pipelining) {
+            return CompletableFuture.supplyAsync(() -> readFromPooledConnection(replicaInfo, key, cached), executor);
+        }
+
+        return readPipelined(replicaInfo, key, cached);
+    }
+
+    // Helper method to perform a single GET over the pipelined connection to a replica
+    private CompletableFuture<String> readPipelined(String replicaInfo, String key, NearCache.CachedValue cached) {
+        return sendPipelined(replicaInfo, connection -> {
+            CompletableFuture<String> response = cached != null ? connection.getIfNewer(key, cached.getVersion())
+                    : connection.get(key);
+            return response.thenApply(value -> {
+                if (Log.isTraced()) {
+                    Log.debug("GET operation successful on Replica " + connection.toString()
+                            + ". Value: " + value);
+                }
+                return value;
+            });
+        });
+    }
+
+    // Helper method to perform a conditional write over the pipelined connection to a replica
+    private CompletableFuture<ConditionalWrite> writePipelined(String replicaInfo, String key, String value,
+            int expectedVersion, int newVersion) {
+        return sendPipelined(replicaInfo, connection -> connection.putIfVersion(key, value, expectedVersion, newVersion)
+                .thenApply(currentVersion -> {
+                    if (currentVersion == null) {
+                        if (Log.isTraced()) {
+                            Log.debug("PUT operation successful on Replica " + connection.toString()
+                                    + ". Value: " + value + " Version Number: " + newVersion);
+                        }
+                        return new ConditionalWrite(true, newVersion);
+                    }
+                    return new ConditionalWrite(false, currentVersion);
+                }));
+    }
+
+    // Helper method to send a request over the pipelined connection to a replica, shared by all concurrent requests,
+    // recording its latency for the replica selection and the metrics
+    private <T> CompletableFuture<T> sendPipelined(String replicaInfo,
+            Function<MultiplexedReplicaConnection, CompletableFuture<T>> request) {
+        MultiplexedReplicaConnection connection;
+        try {
+            connection = getMultiplexedConnection(replicaInfo);
+        } catch (IOException e) {
+            if (replicaSelector != null) {
+                replicaSelector.fail(replicaInfo);
+            }
+            CompletableFuture<T> failedRequest = new CompletableFuture<>();
+            failedRequest.completeExceptionally(e);
+            return failedRequest;
+        }
+        long start = replicaSelector != null ? replicaSelector.begin(replicaInfo) : System.nanoTime();
+        CompletableFuture<T> response = request.apply(connection);
+        response.whenComplete((value, error) -> {
+            if (replicaSelector != null) {
+                replicaSelector.complete(replicaInfo, start, error == null);
+            }
+            if (error == null) {
+                metrics.recordReplicaLatency(replicaInfo, System.nanoTime() - start);
+            }
+        });
+        return response;
+    }
+
+    private String readFromPooledConnection(String replicaInfo, String key, NearCache.CachedValue cached) {
+        ReplicaConnectionPool pool = connectionPools.get(replicaInfo);
+        try {
+            ReplicaConnection connection = borrow(replicaInfo, pool);
+            try {
+                String value = track(replicaInfo, () -> cached != null
+                        ? connection.getIfNewer(key, cached.getVersion())
+                        : connection.get(key));
+                if (Log.isTraced()) {
+                    Log.debug("GET operation successful on Replica " + connection.toString()
+                            + ". Value: " + value);
+                }
+                return value;
+            } finally {
+                pool.release(connection);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Helper method to get the pipelined connection to a replica, replacing it if it broke
+    private MultiplexedReplicaConnection getMultiplexedConnection(String replicaInfo) throws IOException {
+        synchronized (multiplexedConnections) {
+            MultiplexedReplicaConnection connection = multiplexedConnections.get(replicaInfo);
+            if (connection == null || connection.isBroken()) {
+                String[] parts = replicaInfo.split(":");
+                connection = new MultiplexedReplicaConnection(parts[0], Integer.parseInt(parts[1]), requestTimeoutMs,
+                        asyncTimer);
+                multiplexedConnections.put(replicaInfo, connection);
+            }
+            return connection;
+        }
+    }
+
     public String putValue(String key, String value) {
         if (key == null || value == null) {
             throw new IllegalArgumentException("Key or value cannot be null");
         }
-        // Create connections to replicas
-        List<ReplicaConnection> replicaConnections = new ArrayList<>();
-        for (String replicaInfo : writeQuorumList) {
-            String[] parts = replicaInfo.split(":");
-            String serverAddress = parts[0];
-            int serverPort = Integer.parseInt(parts[1]);
+        long start = System.nanoTime();
+        WriteResult result = optimisticWrites ? putValueIfVersion(key, value) : putValueWithLocks(key, value);
+        if (result.isSuccess()) {
+            metrics.recordWrite(System.nanoTime() - start);
+        }
+        return result.isSuccess() ? "true" : "false";
+    }
+
+    // Write a key without blocking the calling thread. Whatever the write mode, the value is written with conditional
+    // writes over the pipelined connections: a write lock is held by a connection and cannot be taken over a shared
+    // one. Writes that keep conflicting fall back to locks on a worker thread. Writes of the same key through this
+    // client are applied one after the other, in the order of the calls. The future completes on a worker thread.
+    public CompletableFuture<WriteResult> putAsync(String key, String value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Key or value cannot be null");
+        }
+        CompletableFuture<WriteResult> write = new CompletableFuture<>();
+        CompletableFuture<WriteResult> previousWrite = pendingWrites.put(key, write);
+        Runnable startWrite = () -> {
+            long start = System.nanoTime();
+            new AsyncWrite(key, value).start().whenComplete((result, error) -> {
+                pendingWrites.remove(key, write);
+                if (error != null) {
+                    write.completeExceptionally(error);
+                } else {
+                    if (result.isSuccess()) {
+                        metrics.recordWrite(System.nanoTime() - start);
+                    }
+                    write.complete(result);
+                }
+            });
+        };
+        if (previousWrite == null) {
+            startWrite.run();
+        } else {
+            previousWrite.whenComplete((result, error) -> startWrite.run());
+        }
+        return write;
+    }
+
+    // Write the key with a conditional write on every replica of the write quorum. Each replica is expected at the
+    // version this client last saw, a conflict reports the version of the replica and the write is retried with it,
+    // so the replicas end up with the value at the same new version. Falls back to locks if the conflicts persist.
+    private WriteResult putValueIfVersion(String key, String value) {
+        List<String> writeReplicas = rankReplicas(writeQuorumList).subList(0, writeQuorumList.size());
+        Integer knownVersion = knownVersions.get(key);
+        int[] expectedVersions = new int[writeReplicas.size()];
+        Arrays.fill(expectedVersions, knownVersion != null ? knownVersion : -1);
+        int newVersionNumber = Math.max(1, expectedVersions[0] + 1);
+
+        for (int attempt = 0; attempt < OPTIMISTIC_WRITE_ATTEMPTS; attempt++) {
+            List<CompletableFuture<ConditionalWrite>> writeRequests = new ArrayList<>();
+            for (int i = 0; i < writeReplicas.size(); i++) {
+                String replicaInfo = writeReplicas.get(i);
+                int expectedVersion = expectedVersions[i];
+                int version = newVersionNumber;
+                writeRequests.add(CompletableFuture.supplyAsync(
+                        () -> writeIfVersion(replicaInfo, key, value, expectedVersion, version), executor));
+            }
+            awaitAll(writeRequests);
+
+            Map<String, ReplicaOutcome> outcomes = new LinkedHashMap<>();
+            int highestVersionNumber = collectConditionalWrites(writeReplicas, writeRequests, expectedVersions,
+                    newVersionNumber, outcomes);
+            if (highestVersionNumber == -1) {
+                rememberVersion(key, value, newVersionNumber);
+                if (Log.isTraced()) {
+                    Log.debug("PUT operation successful");
+                }
+                return new WriteResult(key, true, newVersionNumber, outcomes);
+            }
+            newVersionNumber = highestVersionNumber + 1;
+        }
+
+        if (Log.isTraced()) {
+            Log.debug("Conditional writes kept conflicting, falling back to locks for key: " + key);
+        }
+        return putValueWithLocks(key, value);
+    }
+
+    // Helper method to collect the answers to one attempt of conditional writes, recording the version every replica
+    // is at for the next attempt. Returns -1 if every replica was written, else the highest version seen.
+    private static int collectConditionalWrites(List<String> writeReplicas,
+            List<CompletableFuture<ConditionalWrite>> writeRequests, int[] expectedVersions, int newVersionNumber,
+            Map<String, ReplicaOutcome> outcomes) {
+        boolean allWritten = true;
+        int highestVersionNumber = newVersionNumber;
+        for (int i = 0; i < writeRequests.size(); i++) {
+            ConditionalWrite write;
             try {
-                ReplicaConnection connection = new ReplicaConnection(serverAddress, serverPort);
-                replicaConnections.add(connection);
-            } catch (Exception e) {
-                e.printStackTrace();
+                write = writeRequests.get(i).getNow(null);
+            } catch (CompletionException e) {
+                write = null;
+            }
+            if (write == null) {
+                // The state of the replica is unknown, the next attempt expects the same version again
+                Log.warn("PUT operation failed on Replica " + writeReplicas.get(i));
+                outcomes.put(writeReplicas.get(i), writeRequests.get(i).isDone() ? ReplicaOutcome.FAILED
+                        : ReplicaOutcome.TIMED_OUT);
+                allWritten = false;
+                continue;
+            }
+            if (!write.written) {
+                if (Log.isTraced()) {
+                    Log.debug("Version conflict on Replica " + writeReplicas.get(i)
+                            + " Version Number: " + write.version);
+                }
+                allWritten = false;
             }
+            outcomes.put(writeReplicas.get(i), write.written ? ReplicaOutcome.SUCCESS
+                    : ReplicaOutcome.VERSION_CONFLICT);
+            expectedVersions[i] = write.version;
+            highestVersionNumber = Math.max(highestVersionNumber, write.version);
         }
+        return allWritten ? -1 : highestVersionNumber;
+    }
 
-        // Acquire locks on all replicas
-        List<Integer> versionNumbers = new ArrayList<>();
-        for (ReplicaConnection connection : replicaConnections) {
-            int lockAcquired = -1;
+    // Helper method to perform a conditional write on one replica of the write quorum
+    private ConditionalWrite writeIfVersion(String replicaInfo, String key, String value, int expectedVersion,
+            int newVersion) {
+        ReplicaConnectionPool pool = connectionPools.get(replicaInfo);
+        try {
+            ReplicaConnection connection = borrow(replicaInfo, pool);
             try {
-                lockAcquired = connection.acquireLock(key);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            if (lockAcquired == -1) {
-                System.out.println("Failed to acquire lock on Replica: " + (connection.toString()));
-                releaseLocks(replicaConnections, key);
-                closeReplicaConnections(replicaConnections);
-                return "false";
-            } else {
-                System.out.println("Lock acquired on Replica " + (connection.toString())
-                        + " Version Number: " + lockAcquired);
-                versionNumbers.add(lockAcquired);
+                Integer currentVersion = track(replicaInfo,
+                        () -> connection.putIfVersion(key, value, expectedVersion, newVersion));
+                if (currentVersion == null) {
+                    if (Log.isTraced()) {
+                        Log.debug("PUT operation successful on Replica " + connection.toString()
+                                + ". Value: " + value + " Version Number: " + newVersion);
+                    }
+                    return new ConditionalWrite(true, newVersion);
+                }
+                return new ConditionalWrite(false, currentVersion);
+            } finally {
+                pool.release(connection);
             }
+        } catch (IOException e) {
+            Log.warn("PUT operation failed on Replica " + replicaInfo, e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private WriteResult putValueWithLocks(String key, String value) {
+        Map<String, ReplicaOutcome> outcomes = Collections.synchronizedMap(new LinkedHashMap<>());
+        List<String> replicas = rankReplicas(writeQuorumList);
+        Iterator<String> spareReplicas = replicas.subList(writeQuorumList.size(), replicas.size()).iterator();
+        List<String> replicasToLock = new ArrayList<>(replicas.subList(0, writeQuorumList.size()));
+
+        List<LockedReplica> lockedReplicas = new ArrayList<>();
+        List<Integer> versionNumbers = new ArrayList<>();
+        boolean allLocksAcquired = true;
+        while (!replicasToLock.isEmpty()) {
+            // Connect to the replicas and acquire the locks on all of them at once
+            List<CompletableFuture<LockedReplica>> lockRequests = new ArrayList<>();
+            for (String replicaInfo : replicasToLock) {
+                lockRequests.add(CompletableFuture.supplyAsync(() -> lockReplica(replicaInfo, key), executor));
+            }
+            awaitAll(lockRequests);
+
+            // A replica that cannot be reached is replaced by a spare, a lock held by another client fails the PUT
+            List<String> unreachableReplicas = new ArrayList<>();
+            for (int i = 0; i < lockRequests.size(); i++) {
+                CompletableFuture<LockedReplica> lockRequest = lockRequests.get(i);
+                LockedReplica lockedReplica = lockRequest.getNow(null);
+                if (lockedReplica == null) {
+                    // The replica answers late: give its lock back as soon as it is granted
+                    Log.warn("Timed out acquiring lock on Replica: " + replicasToLock.get(i));
+                    lockRequest.thenAccept(lateReplica -> abandonReplica(lateReplica, key));
+                    outcomes.put(replicasToLock.get(i), ReplicaOutcome.TIMED_OUT);
+                    unreachableReplicas.add(replicasToLock.get(i));
+                    continue;
+                }
+
+                if (lockedReplica.connection != null) {
+                    lockedReplicas.add(lockedReplica);
+                } else {
+                    outcomes.put(replicasToLock.get(i), ReplicaOutcome.FAILED);
+                    unreachableReplicas.add(replicasToLock.get(i));
+                    continue;
+                }
+                if (lockedReplica.version == -1) {
+                    if (Log.isTraced()) {
+                        Log.debug("Failed to acquire lock on Replica: " + lockedReplica);
+                    }
+                    outcomes.put(lockedReplica.replicaInfo, ReplicaOutcome.LOCK_NOT_ACQUIRED);
+                    allLocksAcquired = false;
+                } else {
+                    if (Log.isTraced()) {
+                        Log.debug("Lock acquired on Replica " + lockedReplica
+                                + " Version Number: " + lockedReplica.version);
+                    }
+                    versionNumbers.add(lockedReplica.version);
+                }
+            }
+
+            replicasToLock = new ArrayList<>();
+            for (String unreachable : unreachableReplicas) {
+                if (!allLocksAcquired || !spareReplicas.hasNext()) {
+                    allLocksAcquired = false;
+                    break;
+                }
+                String spare = spareReplicas.next();
+                Log.warn("Locking spare Replica " + spare + " instead of " + unreachable);
+                replicasToLock.add(spare);
+            }
+        }
+
+        if (!allLocksAcquired) {
+            releaseLocks(lockedReplicas, key);
+            return new WriteResult(key, false, -1, outcomes);
         }
 
         // Compute the new version number equal to the max of all version numbers + 1
         int newVersionNumber = Collections.max(versionNumbers) + 1;
 
-        // Send PUT request to all replicas
-        for (ReplicaConnection connection : replicaConnections) {
-            try {
-                if (connection.put(key, value, newVersionNumber)) {
-                    System.out
-                            .println("PUT operation successful on Replica " + (connection.toString())
+        // Send PUT request to all replicas at once, returning each connection once it has answered
+        List<CompletableFuture<Void>> putRequests = new ArrayList<>();
+        for (LockedReplica lockedReplica : lockedReplicas) {
+            ReplicaConnection connection = lockedReplica.connection;
+            putRequests.add(CompletableFuture.runAsync(() -> {
+                lockedReplica.stopRenewal();
+                try {
+                    if (connection.put(key, value, newVersionNumber)) {
+                        if (Log.isTraced()) {
+                            Log.debug("PUT operation successful on Replica " + (connection.toString())
                                     + ". Value: " + value + " Version Number: " + newVersionNumber);
+                        }
+                        outcomes.put(lockedReplica.replicaInfo, ReplicaOutcome.SUCCESS);
+                    } else {
+                        Log.warn("PUT operation failed on Replica " + (connection.toString()));
+                        outcomes.put(lockedReplica.replicaInfo, ReplicaOutcome.FAILED);
+                    }
+                } catch (IOException e) {
+                    Log.warn("PUT operation failed on Replica " + connection, e);
+                    outcomes.put(lockedReplica.replicaInfo, ReplicaOutcome.FAILED);
+                }
+            }, executor).whenComplete(
+                    (ignored, error) -> releaseReplicaConnections(Collections.singletonList(lockedReplica))));
+        }
+        awaitAll(putRequests);
+        int written = 0;
+        for (LockedReplica lockedReplica : lockedReplicas) {
+            outcomes.putIfAbsent(lockedReplica.replicaInfo, ReplicaOutcome.TIMED_OUT);
+            if (outcomes.get(lockedReplica.replicaInfo) == ReplicaOutcome.SUCCESS) {
+                written++;
+            }
+        }
+
+        // The version is only known to be the one of the key once the whole write quorum has it
+        boolean success = written >= writeQuorumList.size();
+        if (success) {
+            rememberVersion(key, value, newVersionNumber);
+            if (Log.isTraced()) {
+                Log.debug("PUT operation successful");
+            }
+        } else {
+            Log.warn("PUT operation of key " + key + " written on " + written + " of the "
+                    + writeQuorumList.size() + " replicas of the write quorum");
+        }
+
+        synchronized (outcomes) {
+            return new WriteResult(key, success, success ? newVersionNumber : -1, new LinkedHashMap<>(outcomes));
+        }
+    }
+
+    // Write many keys with one batched lock request and one MPUT per replica of the write quorum. A key is
+    // written only if its lock was acquired on every replica, returns whether the write of every key succeeded
+    public Map<String, Boolean> putValues(Map<String, String> values) {
+        List<String> keys = new ArrayList<>(values.keySet());
+        for (String key : keys) {
+            if (key == null || values.get(key) == null) {
+                throw new IllegalArgumentException("Key or value cannot be null");
+            }
+        }
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        if (keys.isEmpty()) {
+            return results;
+        }
+
+        // Acquire the locks of all keys on every replica at once
+        List<String> writeReplicas = rankReplicas(writeQuorumList).subList(0, writeQuorumList.size());
+        List<CompletableFuture<LockedBatch>> lockRequests = new ArrayList<>();
+        for (String replicaInfo : writeReplicas) {
+            lockRequests.add(CompletableFuture.supplyAsync(() -> lockBatch(replicaInfo, keys), executor));
+        }
+        awaitAll(lockRequests);
+
+        List<LockedBatch> lockedBatches = new ArrayList<>();
+        boolean[] allLocksAcquired = new boolean[keys.size()];
+        Arrays.fill(allLocksAcquired, true);
+        int[] highestVersionNumbers = new int[keys.size()];
+        for (int i = 0; i < lockRequests.size(); i++) {
+            CompletableFuture<LockedBatch> lockRequest = lockRequests.get(i);
+            LockedBatch lockedBatch = lockRequest.getNow(null);
+            if (lockedBatch == null) {
+                // The replica answers late: give its locks back as soon as they are granted
+                Log.warn("Timed out acquiring locks on Replica: " + writeReplicas.get(i));
+                lockRequest.thenAccept(lateBatch -> releaseBatch(lateBatch, keys, Collections.emptyList()));
+                Arrays.fill(allLocksAcquired, false);
+                continue;
+            }
+
+            if (lockedBatch.connection != null) {
+                lockedBatches.add(lockedBatch);
+            }
+            for (int k = 0; k < keys.size(); k++) {
+                int version = lockedBatch.versions != null ? lockedBatch.versions.get(k) : -1;
+                if (version == -1) {
+                    allLocksAcquired[k] = false;
                 } else {
-                    System.out.println("PUT operation failed on Replica " + (connection.toString()));
+                    highestVersionNumbers[k] = Math.max(highestVersionNumbers[k], version);
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
             }
         }
 
-        // Close connections to replicas
-        closeReplicaConnections(replicaConnections);
-        System.out.println("PUT operation successful");
+        // Release the keys that could not be locked everywhere and write the others with their new version number
+        List<String> failedKeys = new ArrayList<>();
+        List<Message.Entry> writes = new ArrayList<>();
+        for (int k = 0; k < keys.size(); k++) {
+            String key = keys.get(k);
+            results.put(key, false);
+            if (allLocksAcquired[k]) {
+                writes.add(new Message.Entry(key, values.get(key), highestVersionNumbers[k] + 1));
+            } else {
+                failedKeys.add(key);
+            }
+        }
+        if (!failedKeys.isEmpty()) {
+            if (Log.isTraced()) {
+                Log.debug("Failed to acquire locks for keys: " + failedKeys);
+            }
+        }
 
-        return "true";
+        List<CompletableFuture<List<Boolean>>> putRequests = new ArrayList<>();
+        for (LockedBatch lockedBatch : lockedBatches) {
+            putRequests.add(CompletableFuture.supplyAsync(() -> releaseBatch(lockedBatch, failedKeys, writes),
+                    executor));
+        }
+        awaitAll(putRequests);
+
+        // A key is only written once the whole write quorum took it, as for a single write
+        int[] acknowledgements = new int[writes.size()];
+        for (CompletableFuture<List<Boolean>> putRequest : putRequests) {
+            List<Boolean> written = putRequest.getNow(Collections.<Boolean>emptyList());
+            for (int w = 0; w < writes.size() && w < written.size(); w++) {
+                if (written.get(w)) {
+                    acknowledgements[w]++;
+                }
+            }
+        }
+        for (int w = 0; w < writes.size(); w++) {
+            Message.Entry write = writes.get(w);
+            if (acknowledgements[w] >= writeQuorumList.size()) {
+                results.put(write.getKey(), true);
+                rememberVersion(write.getKey(), write.getValue(), write.getVersion());
+            } else {
+                Log.warn("MPUT of key " + write.getKey() + " written on " + acknowledgements[w] + " of the "
+                        + writeQuorumList.size() + " replicas of the write quorum");
+            }
+        }
+
+        if (Log.isTraced()) {
+            Log.debug("MPUT RESULT: " + results);
+        }
+        return results;
     }
 
-    // Helper method to close all connections to replicas
-    private void closeReplicaConnections(List<ReplicaConnection> connections) {
-        for (ReplicaConnection connection : connections) {
-            try {
-                connection.closeConnection();
-            } catch (IOException e) {
-                e.printStackTrace();
+    // Helper method to connect to a replica of the write quorum and acquire the locks on all keys at once
+    private LockedBatch lockBatch(String replicaInfo, List<String> keys) {
+        ReplicaConnectionPool pool = connectionPools.get(replicaInfo);
+        ReplicaConnection connection = null;
+        List<Integer> versions = null;
+        try {
+            connection = borrow(replicaInfo, pool);
+            ReplicaConnection locking = connection;
+            versions = track(replicaInfo, () -> locking.acquireLocks(keys));
+        } catch (IOException e) {
+            Log.warn("Failed to acquire the locks on Replica " + replicaInfo, e);
+        }
+        LeaseRenewal renewal = null;
+        if (versions != null) {
+            List<String> lockedKeys = new ArrayList<>();
+            for (int k = 0; k < keys.size(); k++) {
+                if (versions.get(k) != -1) {
+                    lockedKeys.add(keys.get(k));
+                }
             }
+            renewal = renewLeases(connection, lockedKeys);
         }
+        return new LockedBatch(replicaInfo, pool, connection, versions, renewal);
     }
 
-    // Helper method to release locks on all replicas when a PUT operation fails
-    private void releaseLocks(List<ReplicaConnection> connections, String key) {
-        for (ReplicaConnection connection : connections) {
-            try {
-                connection.releaseLock(key);
-            } catch (IOException e) {
-                e.printStackTrace();
+    // Helper method to release the given locks and write the given entries on one replica, returning its
+    // connection to the pool once the replica has answered. Returns whether the replica took each entry, none if
+    // it could not be reached.
+    private List<Boolean> releaseBatch(LockedBatch lockedBatch, List<String> unlockedKeys,
+            List<Message.Entry> writes) {
+        if (lockedBatch.connection == null) {
+            return Collections.emptyList();
+        }
+        ReplicaConnection connection = lockedBatch.connection;
+        if (lockedBatch.renewal != null) {
+            lockedBatch.renewal.stop();
+        }
+        try {
+            if (!unlockedKeys.isEmpty()) {
+                connection.releaseLocks(unlockedKeys);
+            }
+            if (writes.isEmpty()) {
+                return Collections.emptyList();
             }
+            List<Boolean> written = connection.putAll(writes);
+            if (Log.isTraced()) {
+                Log.debug("MPUT operation successful on Replica " + connection.toString() + ". Written: "
+                        + Collections.frequency(written, true) + "/" + writes.size());
+            }
+            return written;
+        } catch (IOException e) {
+            Log.warn("MPUT operation failed on Replica " + connection, e);
+            return Collections.emptyList();
+        } finally {
+            lockedBatch.pool.release(connection);
+        }
+    }
+
+    // Helper method to connect to a replica of the write quorum and acquire the lock on the key
+    private LockedReplica lockReplica(String replicaInfo, String key) {
+        ReplicaConnectionPool pool = connectionPools.get(replicaInfo);
+        ReplicaConnection connection = null;
+        int lockAcquired = -1;
+        try {
+            connection = borrow(replicaInfo, pool);
+            ReplicaConnection locking = connection;
+            lockAcquired = track(replicaInfo, () -> locking.acquireLock(key));
+        } catch (IOException e) {
+            Log.warn("Failed to acquire the lock on Replica " + replicaInfo, e);
+        }
+        LeaseRenewal renewal = lockAcquired != -1 ? renewLeases(connection, Collections.singletonList(key)) : null;
+        return new LockedReplica(replicaInfo, pool, connection, lockAcquired, renewal);
+    }
+
+    // Helper method to keep renewing the leases of the locks held on a connection until the write stops the
+    // renewal, null when there is nothing to renew
+    private LeaseRenewal renewLeases(ReplicaConnection connection, List<String> keys) {
+        if (lockRenewalMs <= 0 || keys.isEmpty()) {
+            return null;
+        }
+        LeaseRenewal renewal = new LeaseRenewal(connection, keys);
+        renewal.task = asyncTimer.scheduleWithFixedDelay(() -> executor.execute(renewal), lockRenewalMs,
+                lockRenewalMs, TimeUnit.MILLISECONDS);
+        return renewal;
+    }
+
+    // Helper method to release the lock of a replica that answered after the PUT operation was aborted
+    private void abandonReplica(LockedReplica lockedReplica, String key) {
+        if (lockedReplica.connection == null) {
+            return;
+        }
+        releaseLocks(Collections.singletonList(lockedReplica), key);
+    }
+
+    // Helper method to wait until all requests have completed or the request timeout expires
+    private void awaitAll(List<? extends CompletableFuture<?>> requests) {
+        try {
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0]))
+                    .get(requestTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.warn("Timed out waiting for the replicas to answer");
+        } catch (ExecutionException e) {
+            Log.warn("Request to the replicas failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Helper method to hand the connections to replicas back to their pools
+    private void releaseReplicaConnections(List<LockedReplica> lockedReplicas) {
+        for (LockedReplica lockedReplica : lockedReplicas) {
+            lockedReplica.stopRenewal();
+            lockedReplica.pool.release(lockedReplica.connection);
         }
+    }
 
+    // Helper method to close the pooled connections that stayed idle for too long
+    private void evictIdleConnections() {
+        for (ReplicaConnectionPool pool : connectionPools.values()) {
+            pool.evictIdle();
+        }
+    }
+
+    // Helper method to release locks on all replicas when a PUT operation fails, returning each connection
+    // to its pool once the replica has answered
+    private void releaseLocks(List<LockedReplica> lockedReplicas, String key) {
+        List<CompletableFuture<Void>> releaseRequests = new ArrayList<>();
+        for (LockedReplica lockedReplica : lockedReplicas) {
+            releaseRequests.add(CompletableFuture.runAsync(() -> {
+                lockedReplica.stopRenewal();
+                try {
+                    lockedReplica.connection.releaseLock(key);
+                } catch (IOException e) {
+                    Log.warn("Failed to release the lock on Replica " + lockedReplica.replicaInfo, e);
+                }
+            }, executor).whenComplete(
+                    (ignored, error) -> releaseReplicaConnections(Collections.singletonList(lockedReplica))));
+        }
+        awaitAll(releaseRequests);
+    }
+
+    // Read started by getAsync(), updated by the answers of the replicas as they arrive
+    private class AsyncRead {
+        private final String key;
+        private final NearCache.CachedValue cached;
+        private final long start = System.nanoTime();
+        private final CompletableFuture<ReadResult> result = new CompletableFuture<>();
+
+        // Reads sent, in the order the replicas were contacted, and the outcome of the ones that answered
+        private final Map<String, CompletableFuture<String>> reads = new LinkedHashMap<>();
+        private final Map<String, ReplicaOutcome> outcomes = new HashMap<>();
+        private final Map<String, Integer> versionsRead = new HashMap<>();
+        private Iterator<String> spareReplicas;
+        private Iterator<String> hedgeReplicas;
+        private ScheduledFuture<?> hedgeTask;
+        private ScheduledFuture<?> timeoutTask;
+
+        private int answered;
+        private int highestVersionNumber = -1;
+        private String mostRecentValue;
+        private boolean started;
+        private boolean done;
+
+        private AsyncRead(String key) {
+            this.key = key;
+            this.cached = nearCache != null ? nearCache.get(key) : null;
+        }
+
+        private synchronized CompletableFuture<ReadResult> start() {
+            List<String> replicas = rankReplicas(readQuorumList);
+            spareReplicas = replicas.subList(readQuorumList.size(), replicas.size()).iterator();
+            hedgeReplicas = hedgeReplicas(spareReplicas);
+            for (String replicaInfo : replicas.subList(0, readQuorumList.size())) {
+                send(replicaInfo);
+            }
+            // Replicas that cannot be reached fail at once, the read may be over already
+            started = true;
+            finishIfAnswered();
+            if (done) {
+                return result;
+            }
+            if (hedgedReads) {
+                hedgeBudget.onRead();
+                if (hedgeDelayNanos != Long.MAX_VALUE) {
+                    hedgeTask = asyncTimer.schedule(this::hedge, Math.max(hedgeMinDelayNanos, hedgeDelayNanos),
+                            TimeUnit.NANOSECONDS);
+                }
+            }
+            timeoutTask = asyncTimer.schedule(() -> finish(ReplicaOutcome.TIMED_OUT), requestTimeoutMs,
+                    TimeUnit.MILLISECONDS);
+            return result;
+        }
+
+        private void send(String replicaInfo) {
+            CompletableFuture<String> read = readPipelined(replicaInfo, key, cached);
+            reads.put(replicaInfo, read);
+            read.whenComplete((value, error) -> onAnswer(replicaInfo, value, error));
+        }
+
+        private synchronized void onAnswer(String replicaInfo, String value, Throwable error) {
+            if (done) {
+                return;
+            }
+            if (error != null) {
+                outcomes.put(replicaInfo, ReplicaOutcome.FAILED);
+                // Read from a spare replica instead, so that the quorum still gets its number of answers
+                if (spareReplicas.hasNext()) {
+                    String spare = spareReplicas.next();
+                    Log.warn("Reading from spare Replica " + spare + " instead of " + replicaInfo);
+                    send(spare);
+                }
+            } else {
+                answered++;
+                if (value != null && value.startsWith("NOT_MODIFIED") && cached != null) {
+                    value = "GET_SUCCESS " + TextProtocol.escape(cached.getValue()) + " "
+                            + parseVersion(value);
+                }
+                if (value != null && value.startsWith("GET_SUCCESS")) {
+                    int version = parseVersion(value);
+                    versionsRead.put(replicaInfo, version);
+                    outcomes.put(replicaInfo, ReplicaOutcome.SUCCESS);
+                    if (version > highestVersionNumber) {
+                        highestVersionNumber = version;
+                        mostRecentValue = value;
+                    }
+                } else {
+                    outcomes.put(replicaInfo, ReplicaOutcome.NO_VALUE);
+                }
+            }
+            finishIfAnswered();
+        }
+
+        // The read is over once the quorum answered, or once every replica contacted answered or failed
+        private void finishIfAnswered() {
+            if (started && (answered == readQuorumList.size() || outcomes.size() == reads.size())) {
+                finish(ReplicaOutcome.CANCELLED);
+            }
+        }
+
+        // The quorum is late: ask one more replica if the budget allows it
+        private synchronized void hedge() {
+            if (!done && hedgeReplicas.hasNext() && hedgeBudget.tryHedge()) {
+                String hedge = hedgeReplicas.next();
+                if (Log.isTraced()) {
+                    Log.debug("Hedging the read of key " + key + " on Replica " + hedge);
+                }
+                send(hedge);
+            }
+        }
+
+        // Complete the read with the answers received, the replicas that did not answer get the given outcome
+        private synchronized void finish(ReplicaOutcome unansweredOutcome) {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (hedgeTask != null) {
+                hedgeTask.cancel(false);
+            }
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+            Map<String, ReplicaOutcome> replicaOutcomes = new LinkedHashMap<>();
+            for (Map.Entry<String, CompletableFuture<String>> read : reads.entrySet()) {
+                ReplicaOutcome outcome = outcomes.get(read.getKey());
+                if (outcome == null) {
+                    outcome = unansweredOutcome;
+                    read.getValue().cancel(true);
+                }
+                replicaOutcomes.put(read.getKey(), outcome);
+            }
+
+            if (answered == readQuorumList.size()) {
+                recordReadLatency(System.nanoTime() - start);
+            }
+            String value = null;
+            if (mostRecentValue != null) {
+                value = parseValue(mostRecentValue);
+                rememberVersion(key, value, highestVersionNumber);
+                scheduleReadRepairs(key, mostRecentValue, versionsRead);
+            }
+            ReadResult readResult = new ReadResult(key, value, highestVersionNumber, replicaOutcomes);
+            if (Log.isTraced()) {
+                Log.debug("GET RESULT: " + readResult);
+            }
+            executor.execute(() -> result.complete(readResult));
+        }
+    }
+
+    // Write started by putAsync(), one attempt of conditional writes on the write quorum at a time
+    private class AsyncWrite {
+        private final String key;
+        private final String value;
+        private final CompletableFuture<WriteResult> result = new CompletableFuture<>();
+        private final List<String> writeReplicas = rankReplicas(writeQuorumList).subList(0, writeQuorumList.size());
+        private final int[] expectedVersions = new int[writeReplicas.size()];
+        private int newVersionNumber;
+        private int attempt;
+
+        private AsyncWrite(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        private CompletableFuture<WriteResult> start() {
+            Integer knownVersion = knownVersions.get(key);
+            Arrays.fill(expectedVersions, knownVersion != null ? knownVersion : -1);
+            newVersionNumber = Math.max(1, expectedVersions[0] + 1);
+            attemptWrite();
+            return result;
+        }
+
+        private void attemptWrite() {
+            List<CompletableFuture<ConditionalWrite>> writeRequests = new ArrayList<>();
+            for (int i = 0; i < writeReplicas.size(); i++) {
+                writeRequests.add(writePipelined(writeReplicas.get(i), key, value, expectedVersions[i],
+                        newVersionNumber));
+            }
+
+            // Completed by the last answer, or by the timeout with the replicas that answered so far
+            CompletableFuture<Void> attemptDone = CompletableFuture.allOf(
+                    writeRequests.toArray(new CompletableFuture<?>[0]));
+            ScheduledFuture<?> timeoutTask = asyncTimer.schedule(() -> attemptDone.complete(null), requestTimeoutMs,
+                    TimeUnit.MILLISECONDS);
+            attemptDone.whenComplete((ignored, error) -> {
+                timeoutTask.cancel(false);
+                Map<String, ReplicaOutcome> outcomes = new LinkedHashMap<>();
+                int highestVersionNumber = collectConditionalWrites(writeReplicas, writeRequests, expectedVersions,
+                        newVersionNumber, outcomes);
+                if (highestVersionNumber == -1) {
+                    rememberVersion(key, value, newVersionNumber);
+                    if (Log.isTraced()) {
+                        Log.debug("PUT operation successful");
+                    }
+                    WriteResult writeResult = new WriteResult(key, true, newVersionNumber, outcomes);
+                    executor.execute(() -> result.complete(writeResult));
+                } else if (++attempt < OPTIMISTIC_WRITE_ATTEMPTS) {
+                    newVersionNumber = highestVersionNumber + 1;
+                    attemptWrite();
+                } else {
+                    if (Log.isTraced()) {
+                        Log.debug("Conditional writes kept conflicting, falling back to locks for key: " + key);
+                    }
+                    CompletableFuture.supplyAsync(() -> putValueWithLocks(key, value), executor)
+                            .whenComplete((writeResult, lockError) -> {
+                                if (lockError != null) {
+                                    result.completeExceptionally(lockError);
+                                } else {
+                                    result.complete(writeResult);
+                                }
+                            });
+                }
+            });
+        }
+    }
+
+    // Outcome of a conditional write on one replica, with the version of the key on the replica afterwards
+    private static class ConditionalWrite {
+        private final boolean written;
+        private final int version;
+
+        private ConditionalWrite(boolean written, int version) {
+            this.written = written;
+            this.version = version;
+        }
+    }
+
+    // Renewals of the leases of the locks a write holds on one connection, so that the locks do not expire while the
+    // write waits for the other replicas. A connection serves one request at a time: the write stops the renewals,
+    // waiting for the one in progress, before it sends its own requests.
+    private static class LeaseRenewal implements Runnable {
+        private final ReplicaConnection connection;
+        private final List<String> keys;
+        private volatile ScheduledFuture<?> task;
+        private volatile boolean stopped;
+
+        private LeaseRenewal(ReplicaConnection connection, List<String> keys) {
+            this.connection = connection;
+            this.keys = keys;
+        }
+
+        @Override
+        public synchronized void run() {
+            for (String key : keys) {
+                if (stopped) {
+                    return;
+                }
+                try {
+                    if (connection.renewLock(key) == -1) {
+                        Log.warn("Lost the lock of key " + key + " on Replica " + connection);
+                    }
+                } catch (IOException e) {
+                    Log.warn("Failed to renew the lock of key " + key + " on Replica " + connection, e);
+                    stopped = true;
+                    task.cancel(false);
+                    return;
+                }
+            }
+        }
+
+        private void stop() {
+            stopped = true;
+            task.cancel(false);
+            synchronized (this) {
+                // Wait for a renewal in progress to let go of the connection
+            }
+        }
+    }
+
+    // Connection to a replica of the write quorum together with the versions returned by a batched lock request,
+    // null if the request failed
+    private static class LockedBatch {
+        private final String replicaInfo;
+        private final ReplicaConnectionPool pool;
+        private final ReplicaConnection connection;
+        private final List<Integer> versions;
+        private final LeaseRenewal renewal;
+
+        private LockedBatch(String replicaInfo, ReplicaConnectionPool pool, ReplicaConnection connection,
+                List<Integer> versions, LeaseRenewal renewal) {
+            this.replicaInfo = replicaInfo;
+            this.pool = pool;
+            this.connection = connection;
+            this.versions = versions;
+            this.renewal = renewal;
+        }
+
+        @Override
+        public String toString() {
+            return connection != null ? connection.toString() : replicaInfo;
+        }
+    }
+
+    // Connection to a replica of the write quorum together with the version returned by its lock
+    private static class LockedReplica {
+        private final String replicaInfo;
+        private final ReplicaConnectionPool pool;
+        private final ReplicaConnection connection;
+        private final int version;
+        private final LeaseRenewal renewal;
+
+        private LockedReplica(String replicaInfo, ReplicaConnectionPool pool, ReplicaConnection connection,
+                int version, LeaseRenewal renewal) {
+            this.replicaInfo = replicaInfo;
+            this.pool = pool;
+            this.connection = connection;
+            this.version = version;
+            this.renewal = renewal;
+        }
+
+        private void stopRenewal() {
+            if (renewal != null) {
+                renewal.stop();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return connection != null ? connection.toString() : replicaInfo;
+        }
     }
 }
@@ -0,0 +1,61 @@
+package com.app.Client;
+
+import com.app.Common.LatencyHistogram;
+import com.app.Common.PrometheusText;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency histograms of a {@link Quorum} client, the counterpart of the metrics
+ * kept by the replicas.
+ *
+ * The round trip time of every request is recorded for the replica it was sent
+ * to, and the time a quorum operation took to complete, from its start until
+ * its quorum answered, for the reads and the writes. Operations that did not
+ * reach their quorum are left out of the completion times.
+ */
+public class QuorumMetrics {
+    private final Map<String, LatencyHistogram> replicaLatencies = new ConcurrentHashMap<>();
+    private final LatencyHistogram readLatencies = new LatencyHistogram();
+    private final LatencyHistogram writeLatencies = new LatencyHistogram();
+
+    public void recordReplicaLatency(String replicaInfo, long latencyNanos) {
+        replicaLatencies.computeIfAbsent(replicaInfo, replica -> new LatencyHistogram()).record(latencyNanos);
+    }
+
+    public void recordRead(long latencyNanos) {
+        readLatencies.record(latencyNanos);
+    }
+
+    public void recordWrite(long latencyNanos) {
+        writeLatencies.record(latencyNanos);
+    }
+
+    // Round trip times of a replica, null if no request was answered by it yet
+    public LatencyHistogram getReplicaLatencies(String replicaInfo) {
+        return replicaLatencies.get(replicaInfo);
+    }
+
+    public LatencyHistogram getReadLatencies() {
+        return readLatencies;
+    }
+
+    public LatencyHistogram getWriteLatencies() {
+        return writeLatencies;
+    }
+
+    // All the metrics in the Prometheus text format
+    public String toPrometheus() {
+        PrometheusText text = new PrometheusText();
+        for (Map.Entry<String, LatencyHistogram> entry : replicaLatencies.entrySet()) {
+            text.summary("quorum_replica_rtt_seconds", "Round trip time of the requests sent to a replica.",
+                    "replica", entry.getKey(), entry.getValue());
+        }
+        text.summary("quorum_operation_seconds", "Time quorum operations took to reach their quorum.", "operation",
+                "read", readLatencies);
+        text.summary("quorum_operation_seconds", "Time quorum operations took to reach their quorum.", "operation",
+                "write", writeLatencies);
+        return text.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package com.app.Client;
+
+import com.app.Common.Log;
+import com.app.Common.Message;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings the replicas that answered a read with an older version up to date,
+ * in the background so that the read itself does not wait for it.
+ *
+ * The repairs are queued per replica, keeping only the newest value of every
+ * key, and {@link #flush()} sends them as REPAIR batches. The replica applies
+ * an entry only if it is newer than its own version and the key is not locked,
+ * so a repair never overwrites a write made after the read. The number of keys
+ * repaired per second is limited by a token bucket and the queue of every
+ * replica is bounded: repairs are dropped rather than delaying the reads.
+ */
+public class ReadRepairer {
+    private final Map<String, ReplicaConnectionPool> connectionPools;
+    private final long requestTimeoutMs;
+    private final int batchSize;
+    private final int maxPendingPerReplica;
+    private final double repairsPerSecond;
+
+    // Repairs waiting to be sent, by replica and key
+    private final Map<String, Map<String, Message.Entry>> pendingRepairs = new ConcurrentHashMap<>();
+
+    // Token bucket of the repairs that may be sent, only used by the thread calling flush()
+    private double availableRepairs;
+    private long lastRefill = System.nanoTime();
+
+    public ReadRepairer(Map<String, ReplicaConnectionPool> connectionPools, long requestTimeoutMs, int batchSize,
+            int repairsPerSecond, int maxPendingPerReplica) {
+        this.connectionPools = connectionPools;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.batchSize = batchSize;
+        this.repairsPerSecond = repairsPerSecond;
+        this.maxPendingPerReplica = maxPendingPerReplica;
+    }
+
+    // Queue the write of a value to a replica that returned an older version of the key
+    public void schedule(String replicaInfo, String key, String value, int version) {
+        Map<String, Message.Entry> pending = pendingRepairs.computeIfAbsent(replicaInfo,
+                replica -> new ConcurrentHashMap<>());
+        if (pending.size() >= maxPendingPerReplica && !pending.containsKey(key)) {
+            return;
+        }
+        pending.merge(key, new Message.Entry(key, value, version),
+                (queued, repair) -> repair.getVersion() > queued.getVersion() ? repair : queued);
+    }
+
+    public int getPendingRepairs() {
+        int count = 0;
+        for (Map<String, Message.Entry> pending : pendingRepairs.values()) {
+            count += pending.size();
+        }
+        return count;
+    }
+
+    // Send at most one batch of queued repairs to every replica, within the rate limit
+    public void flush() {
+        long now = System.nanoTime();
+        availableRepairs = Math.min(Math.max(repairsPerSecond, batchSize),
+                availableRepairs + repairsPerSecond * (now - lastRefill) / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+
+        for (Map.Entry<String, Map<String, Message.Entry>> replicaRepairs : pendingRepairs.entrySet()) {
+            int limit = (int) Math.min(batchSize, availableRepairs);
+            if (limit == 0) {
+                return;
+            }
+            List<Message.Entry> batch = takeBatch(replicaRepairs.getValue(), limit);
+            if (!batch.isEmpty()) {
+                availableRepairs -= batch.size();
+                sendBatch(replicaRepairs.getKey(), batch);
+            }
+        }
+    }
+
+    // Remove up to the given number of repairs from the queue of a replica
+    private static List<Message.Entry> takeBatch(Map<String, Message.Entry> pending, int limit) {
+        List<Message.Entry> batch = new ArrayList<>(Math.min(limit, pending.size()));
+        Iterator<Message.Entry> repairs = pending.values().iterator();
+        while (batch.size() < limit && repairs.hasNext()) {
+            Message.Entry repair = repairs.next();
+            // A newer repair queued in the meantime stays for the next batch
+            if (pending.remove(repair.getKey(), repair)) {
+                batch.add(repair);
+            }
+        }
+        return batch;
+    }
+
+    private void sendBatch(String replicaInfo, List<Message.Entry> batch) {
+        ReplicaConnectionPool pool = connectionPools.get(replicaInfo);
+        try {
+            ReplicaConnection connection = pool.borrow(requestTimeoutMs);
+            try {
+                List<Boolean> applied = connection.repair(batch);
+                int appliedCount = 0;
+                for (boolean entryApplied : applied) {
+                    appliedCount += entryApplied ? 1 : 0;
+                }
+                if (Log.isTraced()) {
+                    Log.debug("Read repair on Replica " + connection.toString() + ". Applied: " + appliedCount
+                            + "/" + batch.size());
+                }
+            } finally {
+                pool.release(connection);
+            }
+        } catch (IOException e) {
+            // Repairs are best effort, the next read of the keys queues them again
+            Log.warn("Read repair failed on Replica " + replicaInfo + ": " + e.getMessage());
+        }
+    }
+}
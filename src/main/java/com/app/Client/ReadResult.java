@@ -0,0 +1,51 @@
+package com.app.Client;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Result of a quorum read: the most recent value returned by the replicas of
+ * the read quorum and what every replica contacted answered.
+ */
+public class ReadResult {
+    private final String key;
+    private final String value;
+    private final int version;
+    private final Map<String, ReplicaOutcome> replicaOutcomes;
+
+    public ReadResult(String key, String value, int version, Map<String, ReplicaOutcome> replicaOutcomes) {
+        this.key = key;
+        this.value = value;
+        this.version = version;
+        this.replicaOutcomes = Collections.unmodifiableMap(replicaOutcomes);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    // Most recent value, null if no replica returned one
+    public String getValue() {
+        return value;
+    }
+
+    // Version of the value, -1 if no replica returned one
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isFound() {
+        return value != null;
+    }
+
+    // Outcome of every replica contacted, keyed by "address:port" in the order they were contacted
+    public Map<String, ReplicaOutcome> getReplicaOutcomes() {
+        return replicaOutcomes;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadResult{key=" + key + ", value=" + value + ", version=" + version + ", replicas=" + replicaOutcomes
+                + "}";
+    }
+}
@@ -1,33 +1,103 @@
 package com.app.Client;
 
+import com.app.Common.BinaryProtocol;
+import com.app.Common.Log;
+import com.app.Common.Message;
+import com.app.Common.Opcode;
+import com.app.Common.TextProtocol;
+
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class ReplicaConnection {
     private Socket clientSocket;
     private BufferedReader input;
     private PrintWriter output;
 
+    // Streams of the binary protocol, null while the connection uses the text protocol
+    private DataInputStream binaryInput;
+    private DataOutputStream binaryOutput;
+
+    // Set once a request fails, a broken connection must not be reused
+    private volatile boolean broken;
+
     public ReplicaConnection(String serverAddress, int serverPort) throws IOException {
+        this(serverAddress, serverPort, false);
+    }
+
+    public ReplicaConnection(String serverAddress, int serverPort, boolean binaryProtocol) throws IOException {
+        this(serverAddress, serverPort, binaryProtocol, 0);
+    }
+
+    // Connection whose requests fail once a response takes longer than the given time, 0 waits forever
+    public ReplicaConnection(String serverAddress, int serverPort, boolean binaryProtocol, int readTimeoutMs)
+            throws IOException {
         try {
             clientSocket = new Socket(serverAddress, serverPort);
+            clientSocket.setTcpNoDelay(true);
+            clientSocket.setSoTimeout(readTimeoutMs);
             input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
             output = new PrintWriter(clientSocket.getOutputStream(), true);
+            if (binaryProtocol) {
+                negotiateBinaryProtocol();
+            }
         } catch (IOException e) {
-            System.err.println("Failed to connect to the server. Please check that the replica is running.");
-            System.exit(1);
+            if (clientSocket != null) {
+                clientSocket.close();
+            }
+            throw new IOException("Failed to connect to the replica " + serverAddress + ":" + serverPort
+                    + ". Please check that the replica is running.", e);
+        }
+    }
+
+    // Switch the connection to the binary protocol, staying with text if the replica does not support it
+    private void negotiateBinaryProtocol() throws IOException {
+        String response = sendRequest(BinaryProtocol.NEGOTIATION_REQUEST);
+        if (!BinaryProtocol.NEGOTIATION_ACCEPTED.equals(response)) {
+            Log.info("Replica " + this + " does not support the binary protocol, using text.");
+            return;
         }
+        // Nothing follows the answer, so the text reader has not buffered any frame bytes
+        binaryInput = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+        binaryOutput = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
     }
 
     public void closeConnection() throws IOException {
         clientSocket.close();
     }
 
+    // Fail the requests whose response takes longer than the given time, 0 waits forever
+    public void setReadTimeout(int timeoutMs) throws IOException {
+        clientSocket.setSoTimeout(timeoutMs);
+    }
+
+    public boolean isBroken() {
+        return broken || clientSocket.isClosed();
+    }
+
+    public boolean isBinaryProtocol() {
+        return binaryOutput != null;
+    }
+
+    public boolean ping() throws IOException {
+        if (isBinaryProtocol()) {
+            return sendRequest(Message.of(Opcode.PING)).getOpcode() == Opcode.PONG;
+        }
+        return sendRequest("PING").equals("PONG");
+    }
+
     public int acquireLock(String key) throws IOException {
-        String acquireLockRequest = "ACQUIRE_LOCK " + key;
-        output.println(acquireLockRequest);
+        if (isBinaryProtocol()) {
+            Message lockResponse = sendRequest(Message.of(Opcode.ACQUIRE_LOCK, key, null, 0));
+            return lockResponse.getOpcode() == Opcode.LOCK_ACQUIRED ? lockResponse.getEntry().getVersion() : -1;
+        }
 
-        String lockResponse = input.readLine();
+        String acquireLockRequest = "ACQUIRE_LOCK " + TextProtocol.escape(key);
+        String lockResponse = sendRequest(acquireLockRequest);
 
         if (lockResponse.startsWith("LOCK_ACQUIRED")) {
             String[] parts = lockResponse.split(" ");
@@ -39,27 +109,238 @@ public class ReplicaConnection {
         return -1; // Return a default value (e.g., -1) to indicate an error or no version number
     }
 
+    // Extend the lease of a lock held by this connection, returns the version number or -1 if the lock was lost
+    public int renewLock(String key) throws IOException {
+        Message lockResponse = isBinaryProtocol() ? sendRequest(Message.of(Opcode.RENEW_LOCK, key, null, 0))
+                : TextProtocol.parseResponse(sendRequest("RENEW_LOCK " + TextProtocol.escape(key)));
+        return lockResponse != null && lockResponse.getOpcode() == Opcode.LOCK_ACQUIRED
+                ? lockResponse.getEntry().getVersion()
+                : -1;
+    }
+
     public boolean releaseLock(String key) throws IOException {
-        String releaseLockRequest = "RELEASE_LOCK " + key;
-        output.println(releaseLockRequest);
-        String releaseLockResponse = input.readLine();
+        if (isBinaryProtocol()) {
+            return sendRequest(Message.of(Opcode.RELEASE_LOCK, key, null, 0)).getOpcode() == Opcode.LOCK_RELEASED;
+        }
+
+        String releaseLockRequest = "RELEASE_LOCK " + TextProtocol.escape(key);
+        String releaseLockResponse = sendRequest(releaseLockRequest);
         return releaseLockResponse.equals("LOCK_RELEASED");
     }
 
+    // Returns the response line, "GET_SUCCESS <value> <version>" or "GET_FAILED", whatever the protocol, with the value
+    // escaped as on a text line
     public String get(String key) throws IOException {
-        String getRequest = "GET " + key;
-        output.println(getRequest);
-        return input.readLine();
+        if (isBinaryProtocol()) {
+            return TextProtocol.formatResponse(sendRequest(Message.of(Opcode.GET, key, null, 0)));
+        }
+
+        String getRequest = "GET " + TextProtocol.escape(key);
+        return sendRequest(getRequest);
+    }
+
+    // Read the key unless the replica holds the given version, returns the response line as get() does or
+    // "NOT_MODIFIED <version>"
+    public String getIfNewer(String key, int version) throws IOException {
+        if (isBinaryProtocol()) {
+            return TextProtocol.formatResponse(sendRequest(Message.of(Opcode.GET_IF_NEWER, key, null, version)));
+        }
+        return sendRequest("GET_IF_NEWER " + TextProtocol.escape(key) + " " + version);
     }
 
     public boolean put(String key, String value, int version) throws IOException {
-        String putRequest = "PUT " + key + " " + value + " " + version;
-        output.println(putRequest);
-        String putResponse = input.readLine();
+        if (isBinaryProtocol()) {
+            return sendRequest(Message.of(Opcode.PUT, key, value, version)).getOpcode() == Opcode.PUT_SUCCESS;
+        }
+
+        String putRequest = "PUT " + TextProtocol.escape(key) + " " + TextProtocol.escape(value) + " "
+                + version;
+        String putResponse = sendRequest(putRequest);
         return putResponse.equals("PUT_SUCCESS");
     }
 
+    // Write the value if the key is at the expected version on the replica, returns null once written or the
+    // current version of the key when it did not match
+    public Integer putIfVersion(String key, String value, int expectedVersion, int newVersion) throws IOException {
+        Message request = TextProtocol.conditionalPut(key, value, expectedVersion, newVersion);
+        Message response = isBinaryProtocol() ? sendRequest(request)
+                : TextProtocol.parseResponse(sendRequest(TextProtocol.formatRequest(request)));
+        if (response != null && response.getOpcode() == Opcode.PUT_SUCCESS) {
+            return null;
+        }
+        if (response != null && response.getOpcode() == Opcode.VERSION_CONFLICT) {
+            return response.getEntry().getVersion();
+        }
+        broken = true;
+        throw new IOException("Unexpected response to PUT_IF_VERSION from the replica " + this + ": " + response);
+    }
+
+    // Acquire the locks of many keys in one request, returns the version of every key
+    // or -1 for the keys whose lock was not acquired
+    public List<Integer> acquireLocks(List<String> keys) throws IOException {
+        Message lockResponse = sendBatch(batchOf(Opcode.MACQUIRE_LOCK, keys), Opcode.MLOCK_RESULT);
+        List<Integer> versions = new ArrayList<>(keys.size());
+        for (Message.Entry entry : lockResponse.getEntries()) {
+            versions.add(entry.getStatus() == Opcode.LOCK_ACQUIRED ? entry.getVersion() : -1);
+        }
+        return versions;
+    }
+
+    public boolean releaseLocks(List<String> keys) throws IOException {
+        Message request = batchOf(Opcode.MRELEASE_LOCK, keys);
+        Message releaseResponse = isBinaryProtocol() ? sendRequest(request)
+                : TextProtocol.parseResponse(sendRequest(TextProtocol.formatRequest(request)));
+        return releaseResponse != null && releaseResponse.getOpcode() == Opcode.LOCK_RELEASED;
+    }
+
+    // Read many keys in one request, returns the response line of every key as get() would
+    public List<String> getAll(List<String> keys) throws IOException {
+        Message getResponse = sendBatch(batchOf(Opcode.MGET, keys), Opcode.MGET_RESULT);
+        List<String> values = new ArrayList<>(keys.size());
+        for (Message.Entry entry : getResponse.getEntries()) {
+            values.add(entry.getStatus() == Opcode.GET_SUCCESS
+                    ? "GET_SUCCESS " + TextProtocol.escape(entry.getValue()) + " " + entry.getVersion()
+                    : Opcode.GET_FAILED.name());
+        }
+        return values;
+    }
+
+    // Write many keys in one request, returns whether the write of every entry succeeded
+    public List<Boolean> putAll(List<Message.Entry> entries) throws IOException {
+        Message putResponse = sendBatch(new Message(Opcode.MPUT, entries), Opcode.MPUT_RESULT);
+        List<Boolean> results = new ArrayList<>(entries.size());
+        for (Message.Entry entry : putResponse.getEntries()) {
+            results.add(entry.getStatus() == Opcode.PUT_SUCCESS);
+        }
+        return results;
+    }
+
+    // Write values read from other replicas, returns whether every entry was newer than the replica's and applied
+    public List<Boolean> repair(List<Message.Entry> entries) throws IOException {
+        Message repairResponse = sendBatch(new Message(Opcode.REPAIR, entries), Opcode.MPUT_RESULT);
+        List<Boolean> results = new ArrayList<>(entries.size());
+        for (Message.Entry entry : repairResponse.getEntries()) {
+            results.add(entry.getStatus() == Opcode.PUT_SUCCESS);
+        }
+        return results;
+    }
+
+    // Hashes of nodes of the Merkle tree of the replica, in request order
+    public List<Long> merkleHashes(List<Integer> nodes) throws IOException {
+        Message hashResponse = sendBatch(batchOf(Opcode.MERKLE_HASHES, toKeys(nodes)), Opcode.MERKLE_RESULT);
+        List<Long> hashes = new ArrayList<>(nodes.size());
+        for (Message.Entry entry : hashResponse.getEntries()) {
+            try {
+                hashes.add(Long.parseUnsignedLong(entry.getValue(), 16));
+            } catch (NumberFormatException e) {
+                broken = true;
+                throw new IOException("Malformed Merkle tree hash from the replica " + this, e);
+            }
+        }
+        return hashes;
+    }
+
+    // Keys, values and versions stored by the replica in leaves of its Merkle tree
+    public List<Message.Entry> leafEntries(List<Integer> leaves) throws IOException {
+        Message request = batchOf(Opcode.MERKLE_LEAF, toKeys(leaves));
+        Message response = isBinaryProtocol() ? sendRequest(request)
+                : TextProtocol.parseResponse(sendRequest(TextProtocol.formatRequest(request)));
+        if (response == null || response.getOpcode() != Opcode.LEAF_ENTRIES) {
+            broken = true;
+            throw new IOException("Unexpected response to MERKLE_LEAF from the replica " + this + ": " + response);
+        }
+        return response.getEntries();
+    }
+
+    // Metrics of the replica by name, as answered to the STATS command
+    public Map<String, Long> stats() throws IOException {
+        Message response = isBinaryProtocol() ? sendRequest(Message.of(Opcode.STATS))
+                : TextProtocol.parseResponse(sendRequest(Opcode.STATS.name()));
+        if (response == null || response.getOpcode() != Opcode.STATS_RESULT) {
+            broken = true;
+            throw new IOException("Unexpected response to STATS from the replica " + this + ": " + response);
+        }
+        Map<String, Long> stats = new LinkedHashMap<>();
+        try {
+            for (Message.Entry entry : response.getEntries()) {
+                stats.put(entry.getKey(), Long.parseLong(entry.getValue()));
+            }
+        } catch (NumberFormatException e) {
+            broken = true;
+            throw new IOException("Malformed STATS value from the replica " + this, e);
+        }
+        return stats;
+    }
+
+    private static List<String> toKeys(List<Integer> indexes) {
+        List<String> keys = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            keys.add(String.valueOf(index));
+        }
+        return keys;
+    }
+
+    private static Message batchOf(Opcode opcode, List<String> keys) {
+        List<Message.Entry> entries = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            entries.add(new Message.Entry(key, null, 0));
+        }
+        return new Message(opcode, entries);
+    }
+
+    // Send a batch request in either protocol, checking that the replica answered for every entry
+    private Message sendBatch(Message request, Opcode expectedResponse) throws IOException {
+        Message response = isBinaryProtocol() ? sendRequest(request)
+                : TextProtocol.parseResponse(sendRequest(TextProtocol.formatRequest(request)));
+        if (response == null || response.getOpcode() != expectedResponse
+                || response.getEntries().size() != request.getEntries().size()) {
+            broken = true;
+            throw new IOException("Unexpected response to " + request.getOpcode() + " from the replica " + this
+                    + ": " + response);
+        }
+        return response;
+    }
+
+    // Send a request and wait for its response, marking the connection as broken on failure
+    private String sendRequest(String request) throws IOException {
+        try {
+            output.println(request);
+            if (output.checkError()) {
+                throw new IOException("Failed to send the request to the replica " + this);
+            }
+
+            String response = input.readLine();
+            if (response == null) {
+                throw new IOException("Connection closed by the replica " + this);
+            }
+            return response;
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    // Send a binary request and wait for its response, marking the connection as broken on failure
+    private Message sendRequest(Message request) throws IOException {
+        try {
+            BinaryProtocol.write(binaryOutput, request);
+            binaryOutput.flush();
+
+            Message response = BinaryProtocol.read(binaryInput);
+            if (response == null) {
+                throw new IOException("Connection closed by the replica " + this);
+            }
+            if (response.getOpcode() == null) {
+                throw new IOException("Unknown response from the replica " + this);
+            }
+            return response;
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
     public String toString() {
         return clientSocket.getLocalAddress().toString() + ":" + clientSocket.getPort();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,193 @@
+package com.app.Client;
+
+import com.app.Common.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of persistent connections to a single replica.
+ * Connections are borrowed for the duration of one operation and handed back
+ * afterwards, so consecutive operations reuse the same socket instead of paying
+ * a new TCP handshake. Connections that failed are dropped and replaced by a
+ * fresh one on the next borrow, connections that have been idle for a while
+ * are checked with a PING before being reused, and connections idle for longer
+ * than the idle timeout are closed by {@link #evictIdle()}. A request whose
+ * response takes longer than the read timeout fails and breaks its connection,
+ * which is then dropped as well.
+ */
+public class ReplicaConnectionPool {
+    private final String serverAddress;
+    private final int serverPort;
+    private final long idleTimeoutMs;
+    private final long validateAfterMs;
+    private final boolean binaryProtocol;
+    private final int readTimeoutMs;
+
+    // One permit per connection that may be borrowed at the same time
+    private final Semaphore permits;
+
+    // Idle connections, most recently used first
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+
+    private volatile boolean closed;
+
+    public ReplicaConnectionPool(String serverAddress, int serverPort, int maxConnections, long idleTimeoutMs,
+            long validateAfterMs) {
+        this(serverAddress, serverPort, maxConnections, idleTimeoutMs, validateAfterMs, false);
+    }
+
+    public ReplicaConnectionPool(String serverAddress, int serverPort, int maxConnections, long idleTimeoutMs,
+            long validateAfterMs, boolean binaryProtocol) {
+        this(serverAddress, serverPort, maxConnections, idleTimeoutMs, validateAfterMs, binaryProtocol, 0);
+    }
+
+    // Pool whose connections fail a request once its response takes longer than the given time, 0 waits forever
+    public ReplicaConnectionPool(String serverAddress, int serverPort, int maxConnections, long idleTimeoutMs,
+            long validateAfterMs, boolean binaryProtocol, long readTimeoutMs) {
+        this.serverAddress = serverAddress;
+        this.serverPort = serverPort;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validateAfterMs = validateAfterMs;
+        this.binaryProtocol = binaryProtocol;
+        this.readTimeoutMs = (int) Math.min(Integer.MAX_VALUE, readTimeoutMs);
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    public ReplicaConnection borrow(long timeoutMs) throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool for replica " + this + " is closed");
+        }
+        try {
+            if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a connection to replica " + this);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to replica " + this);
+        }
+
+        try {
+            // Reuse the most recently used connection that is still healthy
+            IdleConnection idleConnection;
+            while ((idleConnection = pollIdleConnection()) != null) {
+                if (isHealthy(idleConnection)) {
+                    return idleConnection.connection;
+                }
+                closeQuietly(idleConnection.connection);
+            }
+            return new ReplicaConnection(serverAddress, serverPort, binaryProtocol, readTimeoutMs);
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(ReplicaConnection connection) {
+        try {
+            if (closed || connection.isBroken()) {
+                closeQuietly(connection);
+                return;
+            }
+            synchronized (idleConnections) {
+                idleConnections.addFirst(new IdleConnection(connection, System.nanoTime()));
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Close the connections that have not been used for longer than the idle timeout
+    public void evictIdle() {
+        long now = System.nanoTime();
+        List<ReplicaConnection> expired = new ArrayList<>();
+        synchronized (idleConnections) {
+            Iterator<IdleConnection> oldestFirst = idleConnections.descendingIterator();
+            while (oldestFirst.hasNext()) {
+                IdleConnection idleConnection = oldestFirst.next();
+                if (idleMillis(idleConnection, now) < idleTimeoutMs) {
+                    break;
+                }
+                oldestFirst.remove();
+                expired.add(idleConnection.connection);
+            }
+        }
+        expired.forEach(ReplicaConnectionPool::closeQuietly);
+    }
+
+    public void close() {
+        closed = true;
+        List<IdleConnection> remaining;
+        synchronized (idleConnections) {
+            remaining = new ArrayList<>(idleConnections);
+            idleConnections.clear();
+        }
+        for (IdleConnection idleConnection : remaining) {
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    public int getIdleCount() {
+        synchronized (idleConnections) {
+            return idleConnections.size();
+        }
+    }
+
+    private IdleConnection pollIdleConnection() {
+        synchronized (idleConnections) {
+            return idleConnections.pollFirst();
+        }
+    }
+
+    private boolean isHealthy(IdleConnection idleConnection) {
+        if (idleConnection.connection.isBroken()) {
+            return false;
+        }
+        long idleMillis = idleMillis(idleConnection, System.nanoTime());
+        if (idleMillis >= idleTimeoutMs) {
+            return false;
+        }
+        if (idleMillis < validateAfterMs) {
+            return true;
+        }
+        try {
+            return idleConnection.connection.ping();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static long idleMillis(IdleConnection idleConnection, long now) {
+        return TimeUnit.NANOSECONDS.toMillis(now - idleConnection.idleSince);
+    }
+
+    private static void closeQuietly(ReplicaConnection connection) {
+        try {
+            connection.closeConnection();
+        } catch (IOException e) {
+            Log.warn("Failed to close a connection to a replica", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return serverAddress + ":" + serverPort;
+    }
+
+    private static class IdleConnection {
+        private final ReplicaConnection connection;
+        private final long idleSince;
+
+        private IdleConnection(ReplicaConnection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+}
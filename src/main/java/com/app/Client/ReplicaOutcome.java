@@ -0,0 +1,22 @@
+package com.app.Client;
+
+/**
+ * What a replica did for one quorum operation, reported by {@link ReadResult}
+ * and {@link WriteResult}.
+ */
+public enum ReplicaOutcome {
+    // The replica returned a value, or applied the write
+    SUCCESS,
+    // The replica has no value for the key, or the key is locked by a write in progress
+    NO_VALUE,
+    // The replica holds another version than the conditional write expected
+    VERSION_CONFLICT,
+    // The write lock of the key is held by another client
+    LOCK_NOT_ACQUIRED,
+    // The replica could not be reached or answered with an error
+    FAILED,
+    // The replica did not answer before the request timeout
+    TIMED_OUT,
+    // The operation completed without waiting for the replica, the quorum had answered
+    CANCELLED
+}
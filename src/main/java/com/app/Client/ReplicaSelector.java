@@ -0,0 +1,128 @@
+package com.app.Client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the replicas of every quorum operation from how they have been
+ * answering, instead of using the same replicas for the lifetime of the client.
+ *
+ * Every replica has an exponentially weighted moving average of its latency and
+ * a count of the requests in flight to it. Replicas are ranked by their average
+ * latency multiplied by the requests they are already serving plus one, so a
+ * replica that gets slow or overloaded is avoided until it recovers, and load
+ * spreads over replicas that answer equally fast. A replica that failed is
+ * ranked last for a backoff period that doubles with every consecutive failure.
+ * It stays available as a spare, replicas are never excluded.
+ */
+public class ReplicaSelector {
+    // Weight of the latest latency in the moving average
+    private static final double ALPHA = 0.2;
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    // Randomness added to the scores so that equally good replicas share the load
+    private static final double JITTER = 0.1;
+
+    private final List<String> replicas;
+    private final Map<String, ReplicaStats> stats = new HashMap<>();
+
+    public ReplicaSelector(List<String> replicas) {
+        this.replicas = new ArrayList<>(replicas);
+        for (String replicaInfo : replicas) {
+            stats.put(replicaInfo, new ReplicaStats());
+        }
+    }
+
+    // All replicas from the best to the worst, the first ones form the quorum and the others are spares
+    public List<String> rank() {
+        long now = System.nanoTime();
+        Map<String, Double> scores = new HashMap<>();
+        for (String replicaInfo : replicas) {
+            scores.put(replicaInfo, stats.get(replicaInfo).score(now));
+        }
+        List<String> ranked = new ArrayList<>(replicas);
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        return ranked;
+    }
+
+    // Send a request to a replica, recording its latency and whether it failed
+    public <T> T track(String replicaInfo, ReplicaRequest<T> request) throws IOException {
+        long start = begin(replicaInfo);
+        boolean success = false;
+        try {
+            T response = request.send();
+            success = true;
+            return response;
+        } finally {
+            complete(replicaInfo, start, success);
+        }
+    }
+
+    // Record a request sent to the replica, returns its start time for complete()
+    public long begin(String replicaInfo) {
+        stats.get(replicaInfo).begin();
+        return System.nanoTime();
+    }
+
+    public void complete(String replicaInfo, long start, boolean success) {
+        stats.get(replicaInfo).complete(System.nanoTime(), System.nanoTime() - start, success);
+    }
+
+    // Record a replica that could not be reached at all
+    public void fail(String replicaInfo) {
+        complete(replicaInfo, begin(replicaInfo), false);
+    }
+
+    // Average latency of a replica in milliseconds, for diagnostics
+    public double getAverageLatencyMs(String replicaInfo) {
+        return stats.get(replicaInfo).averageLatencyNanos() / 1e6;
+    }
+
+    public interface ReplicaRequest<T> {
+        T send() throws IOException;
+    }
+
+    private static final class ReplicaStats {
+        private double averageLatencyNanos;
+        private int outstanding;
+        private int consecutiveFailures;
+        private long backoffUntil;
+
+        private synchronized void begin() {
+            outstanding++;
+        }
+
+        private synchronized void complete(long now, long latencyNanos, boolean success) {
+            outstanding--;
+            if (success) {
+                // The first answer sets the average, a replica never heard of ranks first so that it gets tried
+                averageLatencyNanos = averageLatencyNanos == 0 ? latencyNanos
+                        : ALPHA * latencyNanos + (1 - ALPHA) * averageLatencyNanos;
+                consecutiveFailures = 0;
+                backoffUntil = 0;
+            } else {
+                long backoff = Math.min(MAX_BACKOFF_NANOS, MIN_BACKOFF_NANOS << Math.min(consecutiveFailures, 16));
+                consecutiveFailures++;
+                backoffUntil = now + backoff;
+            }
+        }
+
+        private synchronized double averageLatencyNanos() {
+            return averageLatencyNanos;
+        }
+
+        private synchronized double score(long now) {
+            double score = (averageLatencyNanos + 1) * (outstanding + 1)
+                    * (1 + JITTER * ThreadLocalRandom.current().nextDouble());
+            // A replica that failed recently comes after all the others
+            return backoffUntil - now > 0 ? Double.MAX_VALUE / 2 + score : score;
+        }
+    }
+}
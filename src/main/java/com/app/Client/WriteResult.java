@@ -0,0 +1,46 @@
+package com.app.Client;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Result of a quorum write: whether the value was written on the write quorum,
+ * the version it was written at and what every replica contacted answered.
+ */
+public class WriteResult {
+    private final String key;
+    private final boolean success;
+    private final int version;
+    private final Map<String, ReplicaOutcome> replicaOutcomes;
+
+    public WriteResult(String key, boolean success, int version, Map<String, ReplicaOutcome> replicaOutcomes) {
+        this.key = key;
+        this.success = success;
+        this.version = version;
+        this.replicaOutcomes = Collections.unmodifiableMap(replicaOutcomes);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    // Version the value was written at, -1 if the write failed
+    public int getVersion() {
+        return version;
+    }
+
+    // Outcome of every replica contacted, keyed by "address:port", the latest attempt of a retried write
+    public Map<String, ReplicaOutcome> getReplicaOutcomes() {
+        return replicaOutcomes;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteResult{key=" + key + ", success=" + success + ", version=" + version + ", replicas="
+                + replicaOutcomes + "}";
+    }
+}
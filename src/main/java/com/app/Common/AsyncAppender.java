@@ -0,0 +1,98 @@
+package com.app.Common;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Appender handing the messages over to a background thread that writes them
+ * to the console, so that logging never waits for the console.
+ *
+ * Messages are queued in a bounded ring buffer. The writer drains whatever has
+ * been queued and writes it with one call to the stream, so a burst of messages
+ * costs one console write. When the buffer is full new messages are dropped
+ * rather than slowing down the logging threads, and the number of dropped
+ * messages is written once there is room again.
+ */
+public class AsyncAppender implements Log.Appender, Closeable {
+    // Messages written by the writer thread in one call to the stream
+    private static final int BATCH_SIZE = 256;
+
+    private final BlockingQueue<String> buffer;
+    private final LongAdder droppedMessages = new LongAdder();
+
+    // Stream written to, null for the current System.out
+    private final PrintStream output;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    public AsyncAppender(int capacity) {
+        this(capacity, null);
+    }
+
+    public AsyncAppender(int capacity, PrintStream output) {
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.output = output;
+        this.writer = ThreadMode.PLATFORM.threadFactory("log-writer").newThread(this::writeMessages);
+        writer.start();
+    }
+
+    @Override
+    public void append(Log.Level level, String message) {
+        if (!buffer.offer(message)) {
+            droppedMessages.increment();
+        }
+    }
+
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    // Write the messages still queued and stop the writer thread
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeMessages() {
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        StringBuilder text = new StringBuilder();
+        long reportedDrops = 0;
+        try {
+            while (!closed || !buffer.isEmpty()) {
+                String first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, BATCH_SIZE - 1);
+
+                long drops = droppedMessages.sum();
+                if (drops > reportedDrops) {
+                    text.append(drops - reportedDrops).append(" log messages dropped, the log buffer was full\n");
+                    reportedDrops = drops;
+                }
+                for (String message : batch) {
+                    text.append(message).append('\n');
+                }
+                PrintStream stream = output != null ? output : System.out;
+                stream.print(text);
+                stream.flush();
+                batch.clear();
+                text.setLength(0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.app.Common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Length-prefixed binary encoding of the replica protocol.
+ * A connection starts in the text protocol. The client switches it to the binary
+ * protocol by sending {@link #NEGOTIATION_REQUEST} as its first request and
+ * waiting for {@link #NEGOTIATION_ACCEPTED}; a replica that does not know the
+ * binary protocol answers INVALID_REQUEST and the connection stays in text mode.
+ *
+ * Frame:  int length of the rest | byte opcode | int entry count | entries
+ * Entry:  byte status | int key length | key bytes | int value length | value bytes | int version
+ *
+ * The status byte holds the outcome of the entry in batch responses and is 0
+ * everywhere else.
+ *
+ * Keys and values are UTF-8 encoded, so they may contain spaces and newlines.
+ * An unknown opcode is decoded as a message without opcode, which the replica
+ * answers with INVALID_REQUEST.
+ */
+public final class BinaryProtocol {
+    public static final String NEGOTIATION_REQUEST = "PROTOCOL BINARY";
+    public static final String NEGOTIATION_ACCEPTED = "PROTOCOL_OK BINARY";
+
+    // Length of the frame header after the length prefix: opcode and entry count
+    public static final int HEADER_LENGTH = 5;
+
+    // Frames longer than this are rejected
+    public static final int MAX_FRAME_LENGTH = 64 << 20;
+
+    private BinaryProtocol() {
+    }
+
+    // Encode a message, including its length prefix
+    public static byte[] encode(Message message) {
+        List<Message.Entry> entries = message.getEntries();
+        byte[][] keys = new byte[entries.size()][];
+        byte[][] values = new byte[entries.size()][];
+
+        int length = HEADER_LENGTH;
+        for (int i = 0; i < entries.size(); i++) {
+            keys[i] = entries.get(i).getKey().getBytes(StandardCharsets.UTF_8);
+            values[i] = entries.get(i).getValue().getBytes(StandardCharsets.UTF_8);
+            length += 1 + 4 + keys[i].length + 4 + values[i].length + 4;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length);
+        buffer.put(message.getOpcode().getCode());
+        buffer.putInt(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Opcode status = entries.get(i).getStatus();
+            buffer.put(status != null ? status.getCode() : 0);
+            buffer.putInt(keys[i].length).put(keys[i]);
+            buffer.putInt(values[i].length).put(values[i]);
+            buffer.putInt(entries.get(i).getVersion());
+        }
+        return buffer.array();
+    }
+
+    // Decode the frame stored at the given offset, without its length prefix
+    public static Message decode(byte[] frame, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(frame, offset, length);
+        try {
+            Opcode opcode = Opcode.fromCode(buffer.get());
+            int entryCount = buffer.getInt();
+            if (entryCount < 0 || entryCount > length) {
+                throw new IOException("Malformed frame: invalid entry count " + entryCount);
+            }
+
+            List<Message.Entry> entries = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                Opcode status = Opcode.fromCode(buffer.get());
+                String key = readString(buffer);
+                String value = readString(buffer);
+                entries.add(new Message.Entry(status, key, value, buffer.getInt()));
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Malformed frame: " + buffer.remaining() + " trailing bytes");
+            }
+            return new Message(opcode, entries);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Malformed frame: truncated", e);
+        }
+    }
+
+    // Returns the length announced by the prefix stored at the given offset
+    public static int readLength(byte[] bytes, int offset) throws IOException {
+        int length = ByteBuffer.wrap(bytes, offset, 4).getInt();
+        if (length < HEADER_LENGTH || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        return length;
+    }
+
+    public static void write(DataOutputStream output, Message message) throws IOException {
+        output.write(encode(message));
+    }
+
+    // Read one frame, returns null if the stream ended before a new frame
+    public static Message read(DataInputStream input) throws IOException {
+        byte[] prefix = new byte[4];
+        try {
+            input.readFully(prefix);
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] frame = new byte[readLength(prefix, 0)];
+        input.readFully(frame);
+        return decode(frame, 0, frame.length);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Malformed frame: invalid string length " + length);
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
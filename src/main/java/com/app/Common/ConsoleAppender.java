@@ -0,0 +1,27 @@
+package com.app.Common;
+
+import java.io.PrintStream;
+
+/**
+ * Appender writing every message to the console from the logging thread, one
+ * line per message. Threads logging at the same time wait for each other on the
+ * stream, so this appender is meant for messages that are not written for
+ * every request.
+ */
+public class ConsoleAppender implements Log.Appender {
+    // Stream written to, null for the current System.out
+    private final PrintStream output;
+
+    public ConsoleAppender() {
+        this(null);
+    }
+
+    public ConsoleAppender(PrintStream output) {
+        this.output = output;
+    }
+
+    @Override
+    public void append(Log.Level level, String message) {
+        (output != null ? output : System.out).println(message);
+    }
+}
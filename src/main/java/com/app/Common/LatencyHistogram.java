@@ -0,0 +1,86 @@
+package com.app.Common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies, recording in constant time and memory
+ * whatever the number of samples.
+ *
+ * Latencies are counted in microseconds, in buckets whose width grows with the
+ * latency: every power of two is split into {@link #SUB_BUCKETS} buckets, so a
+ * percentile is known within about 6% of its value from one microsecond to
+ * hours. Recording is lock free, a percentile read while samples are recorded
+ * may miss the latest ones. The exact sum of the latencies is kept as well, for
+ * the averages computed by metrics scrapers.
+ */
+public class LatencyHistogram {
+    // Buckets per power of two, the precision of the percentiles
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public void record(long latencyNanos) {
+        counts.incrementAndGet(bucketOf(Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos))));
+        totalCount.increment();
+        totalNanos.add(Math.max(0, latencyNanos));
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    // Sum of all the recorded latencies, in nanoseconds
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    // Latency under which the given percentage of the samples fall, in nanoseconds, 0 without samples
+    public long getPercentileNanos(double percentile) {
+        long count = totalCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length(); bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return TimeUnit.MICROSECONDS.toNanos(upperBoundOf(bucket));
+            }
+        }
+        return TimeUnit.MICROSECONDS.toNanos(upperBoundOf(counts.length() - 1));
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < counts.length(); bucket++) {
+            counts.set(bucket, 0);
+        }
+        totalCount.reset();
+        totalNanos.reset();
+    }
+
+    // Values below SUB_BUCKETS have a bucket each, larger ones share a bucket with the values that have the same
+    // highest bits
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS - 1;
+        return (shift + 1) * SUB_BUCKETS + (int) ((micros >>> shift) - SUB_BUCKETS);
+    }
+
+    // Largest value, in microseconds, counted in a bucket
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,116 @@
+package com.app.Common;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logging of the replicas and clients, with levels and a pluggable
+ * {@link Appender}.
+ *
+ * Messages below the current level are dropped before they are formatted, by
+ * checking {@link #isEnabled(Level)} or, for the traces written for every
+ * request, {@link #isTraced()}. Traces are DEBUG messages of which only a
+ * sampled fraction is written, so that they can be turned on under load.
+ * Messages go to the console by default, synchronously; {@link AsyncAppender}
+ * moves the console writes off the calling threads.
+ */
+public final class Log {
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        OFF;
+
+        public static Level fromName(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    // Destination of the messages that passed the level check, called concurrently by the logging threads
+    public interface Appender {
+        void append(Level level, String message);
+    }
+
+    private static volatile Level level = Level.INFO;
+
+    // Fraction of the request traces written when DEBUG is enabled
+    private static volatile double traceSampleRate = 1;
+
+    private static volatile Appender appender = new ConsoleAppender();
+
+    private Log() {
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static void setTraceSampleRate(double sampleRate) {
+        traceSampleRate = sampleRate;
+    }
+
+    // Replace the appender, returns the previous one so that it can be closed
+    public static Appender setAppender(Appender newAppender) {
+        Appender previous = appender;
+        appender = newAppender;
+        return previous;
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0 && messageLevel != Level.OFF;
+    }
+
+    // Whether the trace of the current request is written: DEBUG is enabled and the request is sampled
+    public static boolean isTraced() {
+        if (level != Level.DEBUG) {
+            return false;
+        }
+        double sampleRate = traceSampleRate;
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void warn(String message, Throwable cause) {
+        log(Level.WARN, message, cause);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    public static void error(String message, Throwable cause) {
+        log(Level.ERROR, message, cause);
+    }
+
+    public static void log(Level messageLevel, String message) {
+        if (isEnabled(messageLevel)) {
+            appender.append(messageLevel, message);
+        }
+    }
+
+    // Log a message followed by the stack trace of its cause, only formatted if the level is enabled
+    public static void log(Level messageLevel, String message, Throwable cause) {
+        if (isEnabled(messageLevel)) {
+            StringWriter trace = new StringWriter();
+            cause.printStackTrace(new PrintWriter(trace));
+            appender.append(messageLevel, message + System.lineSeparator() + trace.toString().trim());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.app.Common;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Request or response of the replica protocol, independent of how it is encoded
+ * on the wire. A message is an opcode followed by entries made of a key, a value
+ * and a version. Single-key commands carry one entry, PING and the responses
+ * without payload carry none, and batch commands carry one entry per key. The
+ * entries of a batch response also carry the outcome for their key.
+ * PUT_IF_VERSION carries the write followed by a second entry for the same key
+ * whose version is the one the write expects to replace.
+ */
+public class Message {
+    private final Opcode opcode;
+    private final List<Entry> entries;
+
+    public Message(Opcode opcode, List<Entry> entries) {
+        this.opcode = opcode;
+        this.entries = entries;
+    }
+
+    public static Message of(Opcode opcode) {
+        return new Message(opcode, Collections.<Entry>emptyList());
+    }
+
+    public static Message of(Opcode opcode, String key, String value, int version) {
+        return new Message(opcode, Collections.singletonList(new Entry(key, value, version)));
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    // Entry of a single-key message
+    public Entry getEntry() {
+        return entries.get(0);
+    }
+
+    @Override
+    public String toString() {
+        return "Message [opcode=" + opcode + ", entries=" + entries + "]";
+    }
+
+    public static class Entry {
+        private final Opcode status;
+        private final String key;
+        private final String value;
+        private final int version;
+
+        public Entry(String key, String value, int version) {
+            this(null, key, value, version);
+        }
+
+        public Entry(Opcode status, String key, String value, int version) {
+            this.status = status;
+            this.key = key != null ? key : "";
+            this.value = value != null ? value : "";
+            this.version = version;
+        }
+
+        // Outcome for this key in a batch response, null otherwise
+        public Opcode getStatus() {
+            return status;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry [status=" + status + ", key=" + key + ", value=" + value + ", version=" + version + "]";
+        }
+    }
+}
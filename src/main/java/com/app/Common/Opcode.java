@@ -0,0 +1,90 @@
+package com.app.Common;
+
+/**
+ * Commands of the replica protocol and the statuses of their responses.
+ * The text protocol uses the names, the binary protocol the one-byte codes.
+ */
+public enum Opcode {
+    // Requests sent by the clients
+    GET(1),
+    PUT(2),
+    ACQUIRE_LOCK(3),
+    RELEASE_LOCK(4),
+    PING(5),
+    MGET(6),
+    MPUT(7),
+    MACQUIRE_LOCK(8),
+    MRELEASE_LOCK(9),
+    PUT_IF_VERSION(10),
+    RENEW_LOCK(11),
+    REPAIR(12),
+    MERKLE_HASHES(13),
+    MERKLE_LEAF(14),
+    GET_IF_NEWER(15),
+    STATS(16),
+
+    // Responses sent by the replicas
+    GET_SUCCESS(65),
+    GET_FAILED(66),
+    PUT_SUCCESS(67),
+    PUT_FAILED(68),
+    LOCK_ACQUIRED(69),
+    LOCK_NOT_ACQUIRED(70),
+    LOCK_RELEASED(71),
+    PONG(72),
+    INVALID_REQUEST(73),
+    MGET_RESULT(74),
+    MPUT_RESULT(75),
+    MLOCK_RESULT(76),
+    VERSION_CONFLICT(77),
+    MERKLE_RESULT(78),
+    LEAF_ENTRIES(79),
+    NOT_MODIFIED(80),
+    STATS_RESULT(81);
+
+    // Codes from this value onwards are responses
+    private static final int FIRST_RESPONSE_CODE = 64;
+
+    private static final Opcode[] BY_CODE = new Opcode[256];
+
+    static {
+        for (Opcode opcode : values()) {
+            BY_CODE[opcode.code & 0xFF] = opcode;
+        }
+    }
+
+    private final byte code;
+
+    Opcode(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public boolean isRequest() {
+        return (code & 0xFF) < FIRST_RESPONSE_CODE;
+    }
+
+    // Whether the opcode carries one entry per key of a batch
+    public boolean isBatch() {
+        return this == MGET || this == MPUT || this == MACQUIRE_LOCK || this == MRELEASE_LOCK || this == REPAIR
+                || this == MERKLE_HASHES || this == MERKLE_LEAF || this == MGET_RESULT || this == MPUT_RESULT
+                || this == MLOCK_RESULT || this == MERKLE_RESULT || this == LEAF_ENTRIES;
+    }
+
+    // Returns null for an unknown code
+    public static Opcode fromCode(byte code) {
+        return BY_CODE[code & 0xFF];
+    }
+
+    // Returns null for an unknown name
+    public static Opcode fromName(String name) {
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
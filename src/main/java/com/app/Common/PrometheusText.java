@@ -0,0 +1,75 @@
+package com.app.Common;
+
+/**
+ * Writer of metrics in the Prometheus text exposition format, shared by the
+ * replicas and the clients.
+ *
+ * Every metric is written with its HELP and TYPE lines the first time it is
+ * seen, followed by one sample line per label value: "name{label="value"} 42".
+ * Latency histograms are written as summaries, in seconds, with the 50th, 99th
+ * and 99.9th percentiles and the sum and count of the samples.
+ */
+public class PrometheusText {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final StringBuilder text = new StringBuilder();
+    private String lastMetric;
+
+    public void counter(String name, String help, String label, String labelValue, long value) {
+        header(name, "counter", help);
+        sample(name, label, labelValue, null, String.valueOf(value));
+    }
+
+    public void gauge(String name, String help, String label, String labelValue, long value) {
+        header(name, "gauge", help);
+        sample(name, label, labelValue, null, String.valueOf(value));
+    }
+
+    public void summary(String name, String help, String label, String labelValue, LatencyHistogram histogram) {
+        header(name, "summary", help);
+        for (double quantile : QUANTILES) {
+            sample(name, label, labelValue, String.valueOf(quantile),
+                    seconds(histogram.getPercentileNanos(quantile * 100)));
+        }
+        sample(name + "_sum", label, labelValue, null, seconds(histogram.getTotalNanos()));
+        sample(name + "_count", label, labelValue, null, String.valueOf(histogram.getCount()));
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    private void header(String name, String type, String help) {
+        if (name.equals(lastMetric)) {
+            return;
+        }
+        lastMetric = name;
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    // A null label writes the sample without labels
+    private void sample(String name, String label, String labelValue, String quantile, String value) {
+        text.append(name);
+        if (label != null || quantile != null) {
+            text.append('{');
+            if (label != null) {
+                text.append(label).append("=\"").append(escape(labelValue)).append('"');
+            }
+            if (quantile != null) {
+                text.append(label != null ? "," : "").append("quantile=\"").append(quantile).append('"');
+            }
+            text.append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.valueOf(nanos / 1e9);
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,334 @@
+package com.app.Common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line-based text encoding of the replica protocol.
+ * A request is the opcode name followed by its space-separated arguments, for
+ * example "PUT key value 3", and the replica answers with one line per request.
+ * Keys and values are escaped so that they fit on the line whatever protocol
+ * wrote them: a backslash is sent as "\\", a space as "\s", and line breaks as
+ * "\n" and "\r". A backslash followed by any other character is taken as is.
+ *
+ * Batch requests list their keys, or key, value and version triples for MPUT:
+ * "MGET k1 k2", "MPUT k1 v1 3 k2 v2 5". The response gives the outcome of every
+ * key in request order: "MGET_RESULT GET_SUCCESS v1 3 GET_FAILED  0",
+ * "MLOCK_RESULT LOCK_ACQUIRED 3 LOCK_NOT_ACQUIRED 0" and
+ * "MPUT_RESULT PUT_SUCCESS PUT_FAILED". A failed read has an empty value.
+ *
+ * A conditional write gives the version it expects to replace and the new one,
+ * "PUT_IF_VERSION key value 3 4", and is answered with PUT_SUCCESS or with the
+ * current version of the key, "VERSION_CONFLICT 5".
+ *
+ * A conditional read gives the version the client already has,
+ * "GET_IF_NEWER key 3", and is answered with "NOT_MODIFIED 3" if the replica
+ * holds that version, or like a GET otherwise.
+ *
+ * A repair has the form of MPUT, "REPAIR k1 v1 3", and is answered like it. The
+ * replica applies the entries that are newer than its own versions.
+ *
+ * Replicas compare their Merkle trees with "MERKLE_HASHES 1 2 3", answered with
+ * the hexadecimal hash of every node, "MERKLE_RESULT 9f2c 0 41ab", and fetch the
+ * keys of leaves with "MERKLE_LEAF 17 42", answered with key, value and version
+ * triples, "LEAF_ENTRIES k1 v1 3 k2 v2 5".
+ *
+ * "STATS" asks for the metrics of the replica, answered with name and value
+ * pairs, "STATS_RESULT keys 1200 GET.count 5310 GET.p99_us 410".
+ *
+ * A client that sends {@link #PIPELINING_REQUEST} as its first request and gets
+ * {@link #PIPELINING_ACCEPTED} back may keep many requests in flight on the
+ * connection: every request line is then prefixed with an identifier chosen by
+ * the client, "17 GET key", and the response carries the same identifier,
+ * "17 GET_SUCCESS value 3". Responses may arrive in any order.
+ */
+public final class TextProtocol {
+    public static final String PIPELINING_REQUEST = "PROTOCOL PIPELINED";
+    public static final String PIPELINING_ACCEPTED = "PROTOCOL_OK PIPELINED";
+
+    private TextProtocol() {
+    }
+
+    // Parse a request line, returns null if the request is malformed
+    public static Message parseRequest(String request) {
+        String[] parts = request.split(" ");
+        Opcode opcode = Opcode.fromName(parts[0]);
+        if (opcode == null || !opcode.isRequest()) {
+            return null;
+        }
+
+        try {
+            switch (opcode) {
+                case GET:
+                case ACQUIRE_LOCK:
+                case RELEASE_LOCK:
+                case RENEW_LOCK:
+                    return parts.length == 2 ? Message.of(opcode, unescape(parts[1]), null, 0) : null;
+                case PUT:
+                    return parts.length == 4
+                            ? Message.of(opcode, unescape(parts[1]), unescape(parts[2]), Integer.parseInt(parts[3]))
+                            : null;
+                case PING:
+                case STATS:
+                    return parts.length == 1 ? Message.of(opcode) : null;
+                case GET_IF_NEWER:
+                    return parts.length == 3
+                            ? Message.of(opcode, unescape(parts[1]), null, Integer.parseInt(parts[2]))
+                            : null;
+                case PUT_IF_VERSION:
+                    return parts.length == 5 ? conditionalPut(unescape(parts[1]), unescape(parts[2]),
+                            Integer.parseInt(parts[3]), Integer.parseInt(parts[4])) : null;
+                case MGET:
+                case MACQUIRE_LOCK:
+                case MRELEASE_LOCK:
+                case MERKLE_HASHES:
+                case MERKLE_LEAF: {
+                    if (parts.length < 2) {
+                        return null;
+                    }
+                    List<Message.Entry> entries = new ArrayList<>(parts.length - 1);
+                    for (int i = 1; i < parts.length; i++) {
+                        entries.add(new Message.Entry(unescape(parts[i]), null, 0));
+                    }
+                    return new Message(opcode, entries);
+                }
+                case MPUT:
+                case REPAIR: {
+                    if (parts.length < 4 || (parts.length - 1) % 3 != 0) {
+                        return null;
+                    }
+                    List<Message.Entry> entries = new ArrayList<>((parts.length - 1) / 3);
+                    for (int i = 1; i < parts.length; i += 3) {
+                        entries.add(new Message.Entry(unescape(parts[i]), unescape(parts[i + 1]),
+                                Integer.parseInt(parts[i + 2])));
+                    }
+                    return new Message(opcode, entries);
+                }
+                default:
+                    return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Conditional write of a value with a new version, applied only if the key is at the expected version
+    public static Message conditionalPut(String key, String value, int expectedVersion, int newVersion) {
+        return new Message(Opcode.PUT_IF_VERSION, Arrays.asList(new Message.Entry(key, value, newVersion),
+                new Message.Entry(key, null, expectedVersion)));
+    }
+
+    public static String formatRequest(Message request) {
+        Opcode opcode = request.getOpcode();
+        if (opcode == Opcode.PUT_IF_VERSION) {
+            Message.Entry write = request.getEntries().get(0);
+            return opcode.name() + " " + escape(write.getKey()) + " " + escape(write.getValue()) + " "
+                    + request.getEntries().get(1).getVersion() + " " + write.getVersion();
+        }
+        StringBuilder line = new StringBuilder(opcode.name());
+        for (Message.Entry entry : request.getEntries()) {
+            line.append(' ').append(escape(entry.getKey()));
+            if (opcode == Opcode.PUT || opcode == Opcode.MPUT || opcode == Opcode.REPAIR) {
+                line.append(' ').append(escape(entry.getValue())).append(' ').append(entry.getVersion());
+            } else if (opcode == Opcode.GET_IF_NEWER) {
+                line.append(' ').append(entry.getVersion());
+            }
+        }
+        return line.toString();
+    }
+
+    public static String formatResponse(Message response) {
+        Opcode opcode = response.getOpcode();
+        switch (opcode) {
+            case GET_SUCCESS:
+                return "GET_SUCCESS " + escape(response.getEntry().getValue()) + " "
+                        + response.getEntry().getVersion();
+            case LOCK_ACQUIRED:
+            case VERSION_CONFLICT:
+            case NOT_MODIFIED:
+                return opcode.name() + " " + response.getEntry().getVersion();
+            case MGET_RESULT:
+            case MLOCK_RESULT:
+            case MPUT_RESULT: {
+                StringBuilder line = new StringBuilder(opcode.name());
+                for (Message.Entry entry : response.getEntries()) {
+                    line.append(' ').append(entry.getStatus().name());
+                    if (opcode == Opcode.MGET_RESULT) {
+                        line.append(' ').append(escape(entry.getValue()));
+                    }
+                    if (opcode != Opcode.MPUT_RESULT) {
+                        line.append(' ').append(entry.getVersion());
+                    }
+                }
+                return line.toString();
+            }
+            case MERKLE_RESULT:
+            case LEAF_ENTRIES:
+            case STATS_RESULT: {
+                StringBuilder line = new StringBuilder(opcode.name());
+                for (Message.Entry entry : response.getEntries()) {
+                    if (opcode != Opcode.MERKLE_RESULT) {
+                        line.append(' ').append(escape(entry.getKey()));
+                    }
+                    line.append(' ').append(escape(entry.getValue()));
+                    if (opcode == Opcode.LEAF_ENTRIES) {
+                        line.append(' ').append(entry.getVersion());
+                    }
+                }
+                return line.toString();
+            }
+            default:
+                return opcode.name();
+        }
+    }
+
+    // Parse a response line, returns null if the response is malformed
+    public static Message parseResponse(String response) {
+        int separator = response.indexOf(' ');
+        Opcode opcode = Opcode.fromName(separator < 0 ? response : response.substring(0, separator));
+        if (opcode == null || opcode.isRequest()) {
+            return null;
+        }
+
+        try {
+            switch (opcode) {
+                case GET_SUCCESS: {
+                    // The value is everything up to the version, which comes last
+                    int versionSeparator = response.lastIndexOf(' ');
+                    if (separator < 0 || versionSeparator == separator) {
+                        return null;
+                    }
+                    return Message.of(opcode, "", unescape(response.substring(separator + 1, versionSeparator)),
+                            Integer.parseInt(response.substring(versionSeparator + 1)));
+                }
+                case LOCK_ACQUIRED:
+                case VERSION_CONFLICT:
+                case NOT_MODIFIED:
+                    return separator < 0 ? null
+                            : Message.of(opcode, "", null, Integer.parseInt(response.substring(separator + 1)));
+                case MGET_RESULT:
+                case MLOCK_RESULT:
+                case MPUT_RESULT:
+                    return parseBatchResponse(opcode, response.split(" ", -1));
+                case MERKLE_RESULT:
+                case LEAF_ENTRIES:
+                case STATS_RESULT:
+                    return parseTreeResponse(opcode, separator < 0 ? new String[0]
+                            : response.substring(separator + 1).split(" ", -1));
+                default:
+                    return separator < 0 ? Message.of(opcode) : null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Message parseTreeResponse(Opcode opcode, String[] arguments) {
+        int width = opcode == Opcode.LEAF_ENTRIES ? 3 : opcode == Opcode.STATS_RESULT ? 2 : 1;
+        if (arguments.length % width != 0) {
+            return null;
+        }
+
+        List<Message.Entry> entries = new ArrayList<>(arguments.length / width);
+        for (int i = 0; i < arguments.length; i += width) {
+            entries.add(width == 1 ? new Message.Entry("", arguments[i], 0)
+                    : new Message.Entry(unescape(arguments[i]), unescape(arguments[i + 1]),
+                            width == 3 ? Integer.parseInt(arguments[i + 2]) : 0));
+        }
+        return new Message(opcode, entries);
+    }
+
+    private static Message parseBatchResponse(Opcode opcode, String[] parts) {
+        int width = opcode == Opcode.MGET_RESULT ? 3 : opcode == Opcode.MLOCK_RESULT ? 2 : 1;
+        if ((parts.length - 1) % width != 0) {
+            return null;
+        }
+
+        List<Message.Entry> entries = new ArrayList<>((parts.length - 1) / width);
+        for (int i = 1; i < parts.length; i += width) {
+            Opcode status = Opcode.fromName(parts[i]);
+            if (status == null || status.isRequest()) {
+                return null;
+            }
+            String value = opcode == Opcode.MGET_RESULT ? unescape(parts[i + 1]) : null;
+            int version = width > 1 ? Integer.parseInt(parts[i + width - 1]) : 0;
+            entries.add(new Message.Entry(status, "", value, version));
+        }
+        return new Message(opcode, entries);
+    }
+
+    // Escape a key or value to send it as one field of a line
+    public static String escape(String field) {
+        if (field == null) {
+            return null;
+        }
+        int i = 0;
+        while (i < field.length() && !isEscaped(field.charAt(i))) {
+            i++;
+        }
+        if (i == field.length()) {
+            return field;
+        }
+
+        StringBuilder escaped = new StringBuilder(field.length() + 8).append(field, 0, i);
+        for (; i < field.length(); i++) {
+            char c = field.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case ' ':
+                    escaped.append("\\s");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    // Restore a key or value received as one field of a line
+    public static String unescape(String field) {
+        if (field == null || field.indexOf('\\') < 0) {
+            return field;
+        }
+
+        StringBuilder unescaped = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c != '\\' || i + 1 == field.length()) {
+                unescaped.append(c);
+                continue;
+            }
+            char escape = field.charAt(++i);
+            switch (escape) {
+                case '\\':
+                    unescaped.append('\\');
+                    break;
+                case 's':
+                    unescaped.append(' ');
+                    break;
+                case 'n':
+                    unescaped.append('\n');
+                    break;
+                case 'r':
+                    unescaped.append('\r');
+                    break;
+                default:
+                    unescaped.append(c).append(escape);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    private static boolean isEscaped(char c) {
+        return c == '\\' || c == ' ' || c == '\n' || c == '\r';
+    }
+}
@@ -0,0 +1,89 @@
+package com.app.Common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Kind of threads used to run blocking work, one thread per connection on the
+ * replica and one thread per replica request in the client.
+ * Virtual threads need Java 21 or newer. The project still compiles for Java 8,
+ * so they are created through reflection and {@link #isSupported()} tells
+ * whether the running JVM provides them.
+ */
+public enum ThreadMode {
+    PLATFORM,
+    VIRTUAL;
+
+    public static ThreadMode fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    public boolean isSupported() {
+        return this == PLATFORM || VirtualThreads.FACTORY_BUILDER != null;
+    }
+
+    // Create a factory for threads named "<name>-<n>", platform threads are daemons
+    public ThreadFactory threadFactory(String name) {
+        if (this == VIRTUAL) {
+            return VirtualThreads.newFactory(name);
+        }
+        AtomicLong counter = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Create an executor running every task on its own thread of this kind, reusing idle platform threads
+    public ExecutorService newExecutor(String name) {
+        if (this == VIRTUAL) {
+            return VirtualThreads.newExecutor(threadFactory(name));
+        }
+        return Executors.newCachedThreadPool(threadFactory(name));
+    }
+
+    // Reflective access to the Java 21 virtual thread API
+    private static class VirtualThreads {
+        private static final Method FACTORY_BUILDER = findMethod(Thread.class, "ofVirtual");
+
+        private static ThreadFactory newFactory(String name) {
+            checkSupported();
+            try {
+                Object builder = FACTORY_BUILDER.invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to create a virtual thread factory", e);
+            }
+        }
+
+        private static ExecutorService newExecutor(ThreadFactory factory) {
+            checkSupported();
+            try {
+                Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return (ExecutorService) newExecutor.invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to create a virtual thread executor", e);
+            }
+        }
+
+        private static void checkSupported() {
+            if (FACTORY_BUILDER == null) {
+                throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+            }
+        }
+
+        private static Method findMethod(Class<?> type, String name) {
+            try {
+                return type.getMethod(name);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.app.Replica;
+
+import com.app.Client.ReplicaConnection;
+import com.app.Common.Log;
+import com.app.Common.Message;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Background synchronization of a replica with the other replicas, so that the
+ * keys a replica missed converge even if they are never written or read again.
+ *
+ * Every run synchronizes with the next peer in turn. The two replicas first
+ * compare their {@link MerkleTree}s level by level, asking only for the
+ * children of the nodes whose hashes differ, which finds the differing leaves
+ * in {@link MerkleTree#DEPTH} round trips. Only the keys of those leaves are
+ * then exchanged: the replica applies the newer values of the peer and sends
+ * its own newer values back with REPAIR. Both sides apply a value only if it
+ * is newer than theirs and the key is not locked, so the exchange never
+ * overwrites a write in progress. Two values with the same version are left
+ * alone, there is no way to tell which one is the right one.
+ */
+public class AntiEntropy implements Runnable {
+    // Leaves whose keys are fetched in one request, bounding the size of the responses
+    private static final int LEAVES_PER_REQUEST = 64;
+
+    private final Storage storage;
+    private final List<String> peers;
+    private final int timeoutMs;
+    private int nextPeer;
+
+    public AntiEntropy(Storage storage, List<String> peers, int timeoutMs) {
+        this.storage = storage;
+        this.peers = peers;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public void run() {
+        if (peers.isEmpty()) {
+            return;
+        }
+        String peer = peers.get(nextPeer);
+        nextPeer = (nextPeer + 1) % peers.size();
+        try {
+            synchronize(peer);
+        } catch (IOException e) {
+            Log.warn("Anti-entropy with replica " + peer + " failed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Keep the periodic task alive
+            Log.error("Anti-entropy with replica " + peer + " failed", e);
+        }
+    }
+
+    // Exchange the keys on which this replica and the peer, given as "address:port", disagree. Returns the number of
+    // keys that differed.
+    public int synchronize(String peer) throws IOException {
+        String[] parts = peer.split(":");
+        ReplicaConnection connection = new ReplicaConnection(parts[0], Integer.parseInt(parts[1]), true);
+        try {
+            connection.setReadTimeout(timeoutMs);
+            List<Integer> leaves = findDifferingLeaves(connection);
+            if (leaves.isEmpty()) {
+                return 0;
+            }
+
+            InetSocketAddress peerAddress = InetSocketAddress.createUnresolved(parts[0], Integer.parseInt(parts[1]));
+            int pulled = 0;
+            int pushed = 0;
+            for (int start = 0; start < leaves.size(); start += LEAVES_PER_REQUEST) {
+                List<Integer> batch = leaves.subList(start, Math.min(leaves.size(), start + LEAVES_PER_REQUEST));
+                Map<String, Storage.VersionedValue> localEntries = new HashMap<>();
+                for (int leaf : batch) {
+                    localEntries.putAll(storage.getLeafEntries(leaf));
+                }
+
+                // Take the newer values of the peer, and keep the keys the peer is behind on
+                for (Message.Entry remote : connection.leafEntries(batch)) {
+                    Storage.VersionedValue local = localEntries.get(remote.getKey());
+                    if (local == null || local.getVersion() < remote.getVersion()) {
+                        if (storage.putIfNewer(remote.getKey(), remote.getValue(), peerAddress,
+                                remote.getVersion())) {
+                            pulled++;
+                        }
+                    }
+                    if (local != null && local.getVersion() <= remote.getVersion()) {
+                        localEntries.remove(remote.getKey());
+                    }
+                }
+
+                List<Message.Entry> repairs = new ArrayList<>(localEntries.size());
+                localEntries.forEach((key, local) -> repairs.add(
+                        new Message.Entry(key, local.getValue(), local.getVersion())));
+                if (!repairs.isEmpty()) {
+                    pushed += Collections.frequency(connection.repair(repairs), true);
+                }
+            }
+            Log.info("Anti-entropy with replica " + peer + ": " + leaves.size() + " leaves differed, pulled "
+                    + pulled + " keys, pushed " + pushed + " keys");
+            return pulled + pushed;
+        } finally {
+            connection.closeConnection();
+        }
+    }
+
+    // Walk down both trees from the root, following only the nodes whose hashes differ
+    private List<Integer> findDifferingLeaves(ReplicaConnection connection) throws IOException {
+        List<Integer> nodes = Collections.singletonList(MerkleTree.ROOT);
+        while (true) {
+            List<Long> remoteHashes = connection.merkleHashes(nodes);
+            List<Integer> differing = new ArrayList<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                if (storage.getMerkleHash(nodes.get(i)) != remoteHashes.get(i)) {
+                    differing.add(nodes.get(i));
+                }
+            }
+            if (differing.isEmpty() || MerkleTree.isLeaf(differing.get(0))) {
+                List<Integer> leaves = new ArrayList<>(differing.size());
+                for (int node : differing) {
+                    leaves.add(node - MerkleTree.LEAVES);
+                }
+                return leaves;
+            }
+
+            nodes = new ArrayList<>(differing.size() * 2);
+            for (int node : differing) {
+                nodes.add(2 * node);
+                nodes.add(2 * node + 1);
+            }
+        }
+    }
+}
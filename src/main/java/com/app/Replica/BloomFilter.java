@@ -0,0 +1,91 @@
+package com.app.Replica;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Set of keys answering whether a key may be in it, with no false negatives
+ * and about 1% of false positives, used by an {@link SSTable} to skip the
+ * tables that do not hold a key without reading them.
+ *
+ * The filter uses 10 bits per key and 7 bit positions per key, derived from
+ * one 64-bit hash of the key by double hashing.
+ */
+public class BloomFilter {
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+
+    private final long[] bits;
+
+    public BloomFilter(long expectedKeys) {
+        long bitCount = Math.max(64, expectedKeys * BITS_PER_KEY);
+        this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (bitCount + 63) / 64)];
+    }
+
+    private BloomFilter(long[] bits) {
+        this.bits = bits;
+    }
+
+    public void add(String key) {
+        long hash = hash(key);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        long bitCount = (long) bits.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((first + i * second) & 0x7fffffffL) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        long bitCount = (long) bits.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((first + i * second) & 0x7fffffffL) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Bytes written by writeTo()
+    public int getSerializedLength() {
+        return 4 + bits.length * 8;
+    }
+
+    public void writeTo(DataOutputStream output) throws IOException {
+        output.writeInt(bits.length);
+        for (long word : bits) {
+            output.writeLong(word);
+        }
+    }
+
+    public static BloomFilter readFrom(ByteBuffer input) throws IOException {
+        int length = input.getInt();
+        if (length < 0 || length * 8L > input.remaining()) {
+            throw new IOException("Malformed Bloom filter");
+        }
+        long[] bits = new long[length];
+        input.asLongBuffer().get(bits);
+        input.position(input.position() + length * 8);
+        return new BloomFilter(bits);
+    }
+
+    // FNV-1a hash of the key, mixed so that both halves are usable on their own
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
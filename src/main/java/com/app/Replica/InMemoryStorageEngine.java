@@ -0,0 +1,238 @@
+package com.app.Replica;
+
+import com.app.Common.Log;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link StorageEngine} keeping every key in memory, split by Merkle tree leaf
+ * so that the keys of one leaf can be listed without going through all of
+ * them.
+ *
+ * A key has one entry holding its value, version and write lock, replaced as a
+ * whole so that a read finds all three in one lookup and never sees a value
+ * with the lock or version of another write. Values are kept on the heap, or
+ * in a {@link SlabArena} when one is given. An off-heap value is copied out
+ * without locking, so a read only returns it if the entry it was copied from
+ * was still the one of the key afterwards: its chunk may have been freed and
+ * reused otherwise.
+ */
+public class InMemoryStorageEngine implements StorageEngine {
+    private final SlabArena arena;
+    private ConcurrentHashMap<String, Entry>[] segments = newSegments(16);
+
+    public InMemoryStorageEngine() {
+        this(null);
+    }
+
+    // Engine keeping its values in the given off-heap arena, or on the heap if it is null
+    public InMemoryStorageEngine(SlabArena arena) {
+        this.arena = arena;
+    }
+
+    // Off-heap memory used by the values, null when the values are kept on the heap
+    public SlabArena getArena() {
+        return arena;
+    }
+
+    @Override
+    public Storage.VersionedValue get(String key) {
+        ConcurrentHashMap<String, Entry> segment = segment(key);
+        while (true) {
+            Entry entry = segment.get(key);
+            if (entry == null || !entry.hasValue()) {
+                return null;
+            }
+            if (entry.value != null) {
+                return new Storage.VersionedValue(entry.value, entry.version);
+            }
+            String value = arena.read(entry.valueRef);
+            if (value != null && segment.get(key) == entry) {
+                return new Storage.VersionedValue(value, entry.version);
+            }
+        }
+    }
+
+    @Override
+    public Storage.VersionedValue read(String key, long now) {
+        Entry entry = segment(key).get(key);
+        if (entry != null && entry.lock != null && entry.lock.isLocked(now)) {
+            // A write is in progress on the key
+            return null;
+        }
+        if (entry == null || !entry.hasValue()) {
+            return new Storage.VersionedValue("", -1);
+        }
+        if (entry.value != null) {
+            return new Storage.VersionedValue(entry.value, entry.version);
+        }
+        Storage.VersionedValue value = get(key);
+        return value != null ? value : new Storage.VersionedValue("", -1);
+    }
+
+    @Override
+    public void put(String key, String value, int version) {
+        Entry written = newEntry(value, version);
+        Entry[] replaced = new Entry[1];
+        segment(key).compute(key, (k, current) -> {
+            replaced[0] = current;
+            return current == null || current.lock == null ? written : written.withLock(current.lock);
+        });
+        // The replaced value is freed once readers can no longer find its entry
+        freeValue(replaced[0]);
+    }
+
+    @Override
+    public boolean putAndUnlock(String key, String value, int version, InetSocketAddress holder, long now,
+            Consumer<Storage.VersionedValue> replaced) {
+        Entry written = newEntry(value, version);
+        Entry[] previous = new Entry[1];
+        boolean applied = segment(key).computeIfPresent(key, (k, current) -> {
+            if (current.lock == null || !current.lock.isHeldBy(holder, now)) {
+                return current;
+            }
+            // The current entry cannot be freed while it is in the table, so its value is read here
+            replaced.accept(current.hasValue() ? new Storage.VersionedValue(valueOf(current), current.version)
+                    : null);
+            previous[0] = current;
+            return written;
+        }) == written;
+
+        freeValue(applied ? previous[0] : written);
+        return applied;
+    }
+
+    @Override
+    public Storage.WriteLock getLock(String key) {
+        Entry entry = segment(key).get(key);
+        return entry == null ? null : entry.lock;
+    }
+
+    // An entry is created for a key without value while it is locked, and dropped when its lock goes
+    @Override
+    public Storage.WriteLock updateLock(String key, UnaryOperator<Storage.WriteLock> update) {
+        Storage.WriteLock[] lock = new Storage.WriteLock[1];
+        segment(key).compute(key, (k, current) -> {
+            lock[0] = update.apply(current == null ? null : current.lock);
+            if (current == null) {
+                return lock[0] == null ? null : new Entry(null, SlabArena.NO_REF, 0, lock[0]);
+            }
+            if (lock[0] == current.lock) {
+                return current;
+            }
+            return lock[0] == null && !current.hasValue() ? null : current.withLock(lock[0]);
+        });
+        return lock[0];
+    }
+
+    @Override
+    public void forEachLock(BiConsumer<String, Storage.WriteLock> action) {
+        for (ConcurrentHashMap<String, Entry> segment : segments) {
+            segment.forEach((key, entry) -> {
+                if (entry.lock != null) {
+                    action.accept(key, entry.lock);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void forEachInLeaf(int leaf, WriteAheadLog.RecordHandler handler) {
+        for (String key : segments[leaf].keySet()) {
+            Storage.VersionedValue value = get(key);
+            if (value != null) {
+                handler.apply(key, value.getValue(), value.getVersion());
+            }
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    @Override
+    public long getCheckpoint() {
+        return 0;
+    }
+
+    @Override
+    public void checkpoint(long logSegment) {
+    }
+
+    // Size the tables up front instead of growing them while loading, only called before the engine is used
+    @Override
+    public void reserve(long keyCount) {
+        segments = newSegments((int) Math.min(Integer.MAX_VALUE / 2, keyCount / MerkleTree.LEAVES));
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentHashMap<String, Entry>[] newSegments(int segmentCapacity) {
+        ConcurrentHashMap<String, Entry>[] segments =
+                (ConcurrentHashMap<String, Entry>[]) new ConcurrentHashMap<?, ?>[MerkleTree.LEAVES];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new ConcurrentHashMap<>(segmentCapacity);
+        }
+        return segments;
+    }
+
+    private ConcurrentHashMap<String, Entry> segment(String key) {
+        return segments[MerkleTree.leafOf(key)];
+    }
+
+    // Entry holding a value, in the arena if there is one and the value fits in it
+    private Entry newEntry(String value, int version) {
+        if (arena != null) {
+            long valueRef = arena.store(value);
+            if (valueRef != SlabArena.NO_REF) {
+                return new Entry(null, valueRef, version, null);
+            }
+            Log.warn("Off-heap arena full or value of " + value.length() + " characters too large, keeping it on the"
+                    + " heap");
+        }
+        return new Entry(value, SlabArena.NO_REF, version, null);
+    }
+
+    private String valueOf(Entry entry) {
+        return entry.value != null ? entry.value : arena.read(entry.valueRef);
+    }
+
+    // Return the off-heap value of an entry that is not the current one of its key anymore
+    private void freeValue(Entry entry) {
+        if (entry != null && entry.valueRef != SlabArena.NO_REF) {
+            arena.free(entry.valueRef);
+        }
+    }
+
+    // State of one key, the value kept on the heap or as a reference in the off-heap arena. An entry without either
+    // only exists while its key is locked, until a value is written.
+    private static final class Entry {
+        private final String value;
+        private final long valueRef;
+        private final int version;
+        private final Storage.WriteLock lock;
+
+        private Entry(String value, long valueRef, int version, Storage.WriteLock lock) {
+            this.value = value;
+            this.valueRef = valueRef;
+            this.version = version;
+            this.lock = lock;
+        }
+
+        private Entry withLock(Storage.WriteLock newLock) {
+            return new Entry(value, valueRef, version, newLock);
+        }
+
+        private boolean hasValue() {
+            return value != null || valueRef != SlabArena.NO_REF;
+        }
+    }
+}
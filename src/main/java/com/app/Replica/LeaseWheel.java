@@ -0,0 +1,87 @@
+package com.app.Replica;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel holding the write lock leases of a {@link Storage} until
+ * they expire. The wheel has a fixed number of slots, each covering one tick
+ * of time, and a lease goes into the slot of the tick its deadline falls in.
+ * Scheduling a lease and expiring it cost O(1), a tick only visits the leases
+ * of its slot.
+ *
+ * A lease whose deadline is more than one revolution away is visited once per
+ * revolution until it is due. A lease is never removed from the wheel: a
+ * renewed or released lease is left in its slot, and the handler is expected
+ * to ignore a lease that no longer matches the key.
+ */
+public class LeaseWheel {
+    private final long tickMs;
+    private final ConcurrentLinkedQueue<Lease>[] slots;
+
+    // First tick not processed yet, only advanced by the reaper
+    private volatile long nextTick;
+
+    @SuppressWarnings("unchecked")
+    public LeaseWheel(long tickMs, int slotCount, long nowMs) {
+        this.tickMs = tickMs;
+        this.slots = (ConcurrentLinkedQueue<Lease>[]) new ConcurrentLinkedQueue<?>[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.nextTick = nowMs / tickMs;
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    // Add the lease of a key, it is handed to the reaper once its deadline has passed
+    public void schedule(String key, long deadlineMs) {
+        // A deadline in a tick already processed expires on the next one
+        long tick = Math.max(deadlineMs / tickMs, nextTick);
+        slots[(int) (tick % slots.length)].add(new Lease(key, deadlineMs));
+    }
+
+    // Process every tick that ended before the given time and hand the leases due to the handler
+    public void advance(long nowMs, Consumer<Lease> expired) {
+        long currentTick = nowMs / tickMs;
+        // A reaper that fell behind by more than a revolution visits every slot only once
+        long firstTick = Math.max(nextTick, currentTick - slots.length);
+        for (long tick = firstTick; tick < currentTick; tick++) {
+            ConcurrentLinkedQueue<Lease> slot = slots[(int) (tick % slots.length)];
+            List<Lease> later = new ArrayList<>();
+            Lease lease;
+            while ((lease = slot.poll()) != null) {
+                if (lease.deadlineMs / tickMs <= tick || lease.deadlineMs < nowMs) {
+                    expired.accept(lease);
+                } else {
+                    later.add(lease);
+                }
+            }
+            slot.addAll(later);
+        }
+        nextTick = Math.max(nextTick, currentTick);
+    }
+
+    // Deadline of the lease of a key at the time it was scheduled
+    public static final class Lease {
+        private final String key;
+        private final long deadlineMs;
+
+        private Lease(String key, long deadlineMs) {
+            this.key = key;
+            this.deadlineMs = deadlineMs;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getDeadlineMs() {
+            return deadlineMs;
+        }
+    }
+}
@@ -0,0 +1,775 @@
+package com.app.Replica;
+
+import com.app.Common.Log;
+import com.app.Common.ThreadMode;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Log-structured merge {@link StorageEngine}, keeping the data in files so that
+ * a replica can hold many times more data than its memory.
+ *
+ * Writes go to a memtable, sorted maps of the recent writes. A memtable that
+ * reached its size is frozen, replaced by an empty one, and written to disk as
+ * an {@link SSTable} by the flush thread. A lookup goes through the memtables
+ * and then the tables from the newest to the oldest, and stops at the first one
+ * holding the key. The Bloom filter of a table answers for it without reading
+ * the disk when it does not hold the key, so a lookup reads about one block
+ * whatever the size of the data.
+ *
+ * The compaction thread keeps the number of tables low by merging runs of
+ * {@link #COMPACTION_TRIGGER} consecutive tables of about the same size into
+ * one, the newest value of every key winning. Tables are only merged with
+ * their neighbours, so a lookup can still stop at the first table holding the
+ * key. Writers wait when {@link #MAX_FROZEN_MEMTABLES} memtables are waiting
+ * for the disk, rather than letting memory grow.
+ *
+ * The manifest lists the tables, newest first, and the log segment the
+ * tables cover. It is rewritten and renamed atomically every time the tables
+ * change, and table files it does not list are deleted on startup.
+ *
+ * The write locks are only kept in memory, in a table of the locked keys
+ * looked up before the data. A write pins the lock of its key, writes to the
+ * memtable outside of the lock table, where it may wait for a flush, and only
+ * then releases the lock, so readers never see the key unlocked before its
+ * value is written.
+ */
+public class LsmStorageEngine implements StorageEngine {
+    private static final String MANIFEST = "MANIFEST";
+    private static final String SUFFIX = ".sst";
+
+    // Consecutive tables of a size tier that are merged together, the most tables merged at once
+    private static final int COMPACTION_TRIGGER = 4;
+    private static final int MAX_COMPACTED_TABLES = 8;
+
+    private static final int MAX_FROZEN_MEMTABLES = 2;
+
+    // Delay before retrying a flush or a compaction that failed
+    private static final long RETRY_DELAY_S = 1;
+
+    private final Path directory;
+    private final long memtableBytes;
+
+    // Held by the writers while they add to the active memtable, and exclusively to freeze it
+    private final ReentrantReadWriteLock memtableLock = new ReentrantReadWriteLock();
+
+    // Write locks of the keys, a key only has one while it is locked or its expired lease has not been reaped yet
+    private final ConcurrentHashMap<String, Storage.WriteLock> locks = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher;
+    private final ScheduledExecutorService compactor;
+    private final LongAdder compactions = new LongAdder();
+
+    // Memtables and tables in use, replaced as a whole under the lock of the engine
+    private volatile View view;
+
+    // Guarded by the lock of the engine
+    private long nextTableId;
+    private long checkpoint;
+    private boolean compactionScheduled;
+    private boolean closed;
+
+    public LsmStorageEngine(Path directory, long memtableBytes) throws IOException {
+        this.directory = directory;
+        this.memtableBytes = memtableBytes;
+        Files.createDirectories(directory);
+        this.view = new View(new Memtable(), Collections.<Memtable>emptyList(), openTables());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(ThreadMode.PLATFORM.threadFactory("lsm-flush"));
+        this.compactor = Executors.newSingleThreadScheduledExecutor(
+                ThreadMode.PLATFORM.threadFactory("lsm-compaction"));
+        Log.info("Opened " + view.tables.size() + " tables from " + directory);
+        scheduleCompaction();
+    }
+
+    @Override
+    public Storage.VersionedValue get(String key) throws IOException {
+        while (true) {
+            View current = view;
+            try {
+                return current.get(key);
+            } catch (ClosedChannelException e) {
+                // A table released by a compaction since the view was read, its data is in the newer view
+                if (view == current || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Storage.VersionedValue read(String key, long now) throws IOException {
+        Storage.WriteLock lock = locks.get(key);
+        if (lock != null && lock.isLocked(now)) {
+            // A write is in progress on the key
+            return null;
+        }
+        Storage.VersionedValue value = get(key);
+        return value != null ? value : new Storage.VersionedValue("", -1);
+    }
+
+    @Override
+    public boolean putAndUnlock(String key, String value, int version, InetSocketAddress holder, long now,
+            Consumer<Storage.VersionedValue> replaced) throws IOException {
+        Storage.WriteLock pinned = locks.computeIfPresent(key, (k, current) -> current.isHeldBy(holder, now)
+                ? current.pinned()
+                : current);
+        if (pinned == null || !pinned.isHeldBy(holder, now)) {
+            return false;
+        }
+        // Nobody else writes the key until the pinned lock is removed
+        Storage.VersionedValue previous = get(key);
+        put(key, value, version);
+        replaced.accept(previous);
+        locks.remove(key, pinned);
+        return true;
+    }
+
+    @Override
+    public Storage.WriteLock getLock(String key) {
+        return locks.get(key);
+    }
+
+    @Override
+    public Storage.WriteLock updateLock(String key, UnaryOperator<Storage.WriteLock> update) {
+        return locks.compute(key, (k, current) -> update.apply(current));
+    }
+
+    @Override
+    public void forEachLock(BiConsumer<String, Storage.WriteLock> action) {
+        locks.forEach(action);
+    }
+
+    @Override
+    public void put(String key, String value, int version) {
+        awaitFlushes();
+        Memtable full = null;
+        memtableLock.readLock().lock();
+        try {
+            Memtable memtable = view.active;
+            memtable.put(key, value, version);
+            if (memtable.getBytes() >= memtableBytes) {
+                full = memtable;
+            }
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+        if (full != null) {
+            freeze(full);
+        }
+    }
+
+    @Override
+    public void forEachInLeaf(int leaf, WriteAheadLog.RecordHandler handler) throws IOException {
+        forEachInLeaves(leaf, leaf + 1, handler);
+    }
+
+    // Read the tables once from start to end rather than looking up every leaf
+    @Override
+    public void forEach(WriteAheadLog.RecordHandler handler) throws IOException {
+        forEachInLeaves(0, MerkleTree.LEAVES, handler);
+    }
+
+    // A scan whose tables are released by a compaction goes on in the newer view after the last key it handled, so
+    // that every key is still handled once
+    private void forEachInLeaves(int firstLeaf, int endLeaf, WriteAheadLog.RecordHandler handler) throws IOException {
+        String[] lastKey = new String[1];
+        WriteAheadLog.RecordHandler tracking = (key, value, version) -> {
+            if (lastKey[0] == null || SSTable.compareKeys(key, lastKey[0]) > 0) {
+                lastKey[0] = key;
+                handler.apply(key, value, version);
+            }
+        };
+        while (true) {
+            View current = view;
+            try {
+                current.forEachInLeaves(lastKey[0] == null ? firstLeaf : MerkleTree.leafOf(lastKey[0]), endLeaf,
+                        tracking);
+                return;
+            } catch (ClosedChannelException e) {
+                if (view == current || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public synchronized long getCheckpoint() {
+        return checkpoint;
+    }
+
+    // Write the memtables to disk and wait for them, then record the log segment they cover
+    @Override
+    public void checkpoint(long logSegment) throws IOException {
+        flushAll();
+        synchronized (this) {
+            checkpoint = logSegment;
+            writeManifest();
+        }
+    }
+
+    // Flush what is in memory and stop the background threads
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flushAll();
+        flusher.shutdown();
+        compactor.shutdown();
+        try {
+            // A compaction in progress is finished, the next ones are not started
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SSTable table : view.tables) {
+            table.close();
+        }
+    }
+
+    public int getTableCount() {
+        return view.tables.size();
+    }
+
+    // Size of the tables on disk
+    public long getDiskBytes() {
+        long bytes = 0;
+        for (SSTable table : view.tables) {
+            bytes += table.getSize();
+        }
+        return bytes;
+    }
+
+    // Estimated size of the memtables, frozen ones included
+    public long getMemtableBytes() {
+        View current = view;
+        long bytes = current.active.getBytes();
+        for (Memtable memtable : current.frozen) {
+            bytes += memtable.getBytes();
+        }
+        return bytes;
+    }
+
+    public long getCompactions() {
+        return compactions.sum();
+    }
+
+    // Replace the active memtable by an empty one and hand it over to the flush thread
+    private void freeze(Memtable memtable) {
+        memtableLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                View current = view;
+                if (current.active != memtable) {
+                    // Frozen by another writer already
+                    return;
+                }
+                List<Memtable> frozen = new ArrayList<>(current.frozen.size() + 1);
+                frozen.add(memtable);
+                frozen.addAll(current.frozen);
+                view = new View(new Memtable(), frozen, current.tables);
+            }
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+        flusher.execute(this::flushOldest);
+    }
+
+    // Write the oldest frozen memtable to a table. Every freeze queues one flush, but the memtables are flushed in the
+    // order they were frozen whatever the order of the flushes, so that the table of a newer memtable always comes in
+    // front of the one of an older memtable.
+    private void flushOldest() {
+        Memtable memtable;
+        synchronized (this) {
+            List<Memtable> frozen = view.frozen;
+            if (frozen.isEmpty()) {
+                // Flushed by an earlier flush after it was retried
+                return;
+            }
+            memtable = frozen.get(frozen.size() - 1);
+        }
+        try {
+            long start = System.nanoTime();
+            SSTable table = writeTable(memtable.getKeyCount(), new MemtableCursor(memtable, 0, MerkleTree.LEAVES));
+            synchronized (this) {
+                View current = view;
+                List<Memtable> frozen = new ArrayList<>(current.frozen);
+                frozen.remove(memtable);
+                List<SSTable> tables = new ArrayList<>(current.tables.size() + 1);
+                if (table != null) {
+                    tables.add(table);
+                }
+                tables.addAll(current.tables);
+                view = new View(current.active, frozen, tables);
+                writeManifest();
+                notifyAll();
+            }
+            Log.info("Flushed a memtable of " + memtable.getKeyCount() + " keys in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            scheduleCompaction();
+        } catch (IOException e) {
+            Log.error("Failed to flush a memtable to " + directory + ", retrying", e);
+            // The memtable stays readable while frozen, and writers wait once too many of them are
+            synchronized (this) {
+                if (!flusher.isShutdown()) {
+                    flusher.schedule(this::flushOldest, RETRY_DELAY_S, TimeUnit.SECONDS);
+                }
+            }
+        }
+    }
+
+    private synchronized void scheduleCompaction() {
+        if (!compactionScheduled && !closed) {
+            compactionScheduled = true;
+            compactor.execute(this::compact);
+        }
+    }
+
+    // Merge runs of tables of the same size tier until there is none left
+    private void compact() {
+        synchronized (this) {
+            compactionScheduled = false;
+        }
+        try {
+            List<SSTable> run;
+            while (!isClosed() && (run = findCompactionRun(view.tables)) != null) {
+                long start = System.nanoTime();
+                long keyCount = 0;
+                List<Cursor> cursors = new ArrayList<>(run.size());
+                for (SSTable table : run) {
+                    keyCount += table.getKeyCount();
+                    cursors.add(new TableCursor(table.scan(0), MerkleTree.LEAVES));
+                }
+                SSTable merged = writeTable(keyCount, new MergingCursor(cursors));
+                synchronized (this) {
+                    // Flushes only add tables in front, so the run is still in one piece
+                    List<SSTable> tables = new ArrayList<>(view.tables);
+                    int position = tables.indexOf(run.get(0));
+                    tables.subList(position, position + run.size()).clear();
+                    if (merged != null) {
+                        tables.add(position, merged);
+                    }
+                    view = new View(view.active, view.frozen, tables);
+                    writeManifest();
+                }
+                for (SSTable table : run) {
+                    table.release();
+                    Files.deleteIfExists(table.getFile());
+                }
+                compactions.increment();
+                Log.info("Compacted " + run.size() + " tables into one of " + (merged == null ? 0 : merged.getSize())
+                        + " bytes in " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        } catch (IOException e) {
+            Log.error("Failed to compact the tables of " + directory + ", retrying", e);
+            synchronized (this) {
+                if (!closed) {
+                    compactor.schedule(this::scheduleCompaction, RETRY_DELAY_S, TimeUnit.SECONDS);
+                }
+            }
+        }
+    }
+
+    // First run of consecutive tables in the same size tier long enough to be merged, null if there is none
+    private List<SSTable> findCompactionRun(List<SSTable> tables) {
+        int runStart = 0;
+        for (int i = 1; i <= tables.size(); i++) {
+            if (i == tables.size() || tierOf(tables.get(i)) != tierOf(tables.get(runStart))) {
+                if (i - runStart >= COMPACTION_TRIGGER) {
+                    return new ArrayList<>(tables.subList(runStart, Math.min(i, runStart + MAX_COMPACTED_TABLES)));
+                }
+                runStart = i;
+            }
+        }
+        return null;
+    }
+
+    // Tables of one tier are up to COMPACTION_TRIGGER times larger than those of the tier below
+    private int tierOf(SSTable table) {
+        int tier = 0;
+        for (long size = table.getSize(); size >= memtableBytes; size /= COMPACTION_TRIGGER) {
+            tier++;
+        }
+        return tier;
+    }
+
+    // Write the entries of a cursor to a new table, returns null if there were none
+    private SSTable writeTable(long expectedKeys, Cursor cursor) throws IOException {
+        long id;
+        synchronized (this) {
+            id = nextTableId++;
+        }
+        Path file = directory.resolve(String.format("%020d%s", id, SUFFIX));
+        try (SSTable.Writer writer = new SSTable.Writer(file, expectedKeys)) {
+            while (cursor.next()) {
+                writer.add(cursor.getKey(), cursor.getValue(), cursor.getVersion());
+            }
+            if (writer.getKeyCount() == 0) {
+                return null;
+            }
+            writer.commit();
+        }
+        return SSTable.open(file, id);
+    }
+
+    // Writers wait while too many memtables are waiting for the disk
+    private synchronized void awaitFlushes() {
+        boolean interrupted = false;
+        while (view.frozen.size() >= MAX_FROZEN_MEMTABLES) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    // Freeze the active memtable and wait until it and the memtables frozen before it are on disk
+    private void flushAll() throws IOException {
+        Memtable active = view.active;
+        if (!active.isEmpty()) {
+            freeze(active);
+        }
+        awaitFlushed(view.frozen);
+    }
+
+    private synchronized void awaitFlushed(List<Memtable> memtables) throws IOException {
+        while (!Collections.disjoint(view.frozen, memtables)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a memtable to be written", e);
+            }
+        }
+    }
+
+    // Open the tables of the manifest and delete the files it does not list, left behind by a crash
+    private List<SSTable> openTables() throws IOException {
+        List<SSTable> tables = new ArrayList<>();
+        Set<Path> listed = new HashSet<>();
+        Path manifest = directory.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(" ");
+                if (fields.length != 2) {
+                    throw new IOException("Malformed line in " + manifest + ": " + line);
+                }
+                long number = Long.parseLong(fields[1]);
+                if ("checkpoint".equals(fields[0])) {
+                    checkpoint = number;
+                } else if ("next-table".equals(fields[0])) {
+                    nextTableId = number;
+                } else if ("table".equals(fields[0])) {
+                    Path file = directory.resolve(String.format("%020d%s", number, SUFFIX));
+                    tables.add(SSTable.open(file, number));
+                    listed.add(file);
+                }
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX + "*")) {
+            for (Path file : files) {
+                if (!listed.contains(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        return tables;
+    }
+
+    private void writeManifest() throws IOException {
+        Path manifest = directory.resolve(MANIFEST);
+        Path temporaryFile = directory.resolve(MANIFEST + ".tmp");
+        try (FileOutputStream fileOutput = new FileOutputStream(temporaryFile.toFile());
+                Writer output = new BufferedWriter(new OutputStreamWriter(fileOutput, StandardCharsets.UTF_8))) {
+            output.write("checkpoint " + checkpoint + "\n");
+            output.write("next-table " + nextTableId + "\n");
+            for (SSTable table : view.tables) {
+                output.write("table " + table.getId() + "\n");
+            }
+            output.flush();
+            fileOutput.getChannel().force(true);
+        }
+        Files.move(temporaryFile, manifest, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Memtables and tables read by a lookup, newest first
+    private static final class View {
+        private final Memtable active;
+        private final List<Memtable> frozen;
+        private final List<SSTable> tables;
+
+        private View(Memtable active, List<Memtable> frozen, List<SSTable> tables) {
+            this.active = active;
+            this.frozen = frozen;
+            this.tables = tables;
+        }
+
+        private Storage.VersionedValue get(String key) throws IOException {
+            Storage.VersionedValue value = active.get(key);
+            for (int i = 0; value == null && i < frozen.size(); i++) {
+                value = frozen.get(i).get(key);
+            }
+            for (int i = 0; value == null && i < tables.size(); i++) {
+                value = tables.get(i).get(key);
+            }
+            return value;
+        }
+
+        private void forEachInLeaves(int firstLeaf, int endLeaf, WriteAheadLog.RecordHandler handler)
+                throws IOException {
+            List<Cursor> cursors = new ArrayList<>(1 + frozen.size() + tables.size());
+            cursors.add(new MemtableCursor(active, firstLeaf, endLeaf));
+            for (Memtable memtable : frozen) {
+                cursors.add(new MemtableCursor(memtable, firstLeaf, endLeaf));
+            }
+            for (SSTable table : tables) {
+                cursors.add(new TableCursor(table.scan(firstLeaf), endLeaf));
+            }
+            MergingCursor merged = new MergingCursor(cursors);
+            while (merged.next()) {
+                handler.apply(merged.getKey(), merged.getValue(), merged.getVersion());
+            }
+        }
+    }
+
+    // Recent writes, one sorted map per Merkle tree leaf so that they are read in the order of the tables
+    private static final class Memtable {
+        // Estimated memory taken by an entry besides its key and value
+        private static final int ENTRY_OVERHEAD = 96;
+
+        private final ConcurrentSkipListMap<String, Storage.VersionedValue>[] leaves = newLeaves();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder keyCount = new LongAdder();
+
+        @SuppressWarnings("unchecked")
+        private static ConcurrentSkipListMap<String, Storage.VersionedValue>[] newLeaves() {
+            ConcurrentSkipListMap<String, Storage.VersionedValue>[] leaves =
+                    (ConcurrentSkipListMap<String, Storage.VersionedValue>[]) new ConcurrentSkipListMap<?, ?>[
+                            MerkleTree.LEAVES];
+            for (int i = 0; i < leaves.length; i++) {
+                leaves[i] = new ConcurrentSkipListMap<>();
+            }
+            return leaves;
+        }
+
+        private void put(String key, String value, int version) {
+            if (leaves[MerkleTree.leafOf(key)].put(key, new Storage.VersionedValue(value, version)) == null) {
+                keyCount.increment();
+            }
+            bytes.add(2L * (key.length() + value.length()) + ENTRY_OVERHEAD);
+        }
+
+        private Storage.VersionedValue get(String key) {
+            return leaves[MerkleTree.leafOf(key)].get(key);
+        }
+
+        private long getBytes() {
+            return bytes.sum();
+        }
+
+        private long getKeyCount() {
+            return keyCount.sum();
+        }
+
+        private boolean isEmpty() {
+            return keyCount.sum() == 0;
+        }
+    }
+
+    // Entries of a memtable or a table in the order of the tables
+    private interface Cursor {
+        // Move to the next entry, returns false once there is none
+        boolean next() throws IOException;
+
+        String getKey();
+
+        String getValue();
+
+        int getVersion();
+    }
+
+    // Entries of the leaves of a memtable from the first leaf up to the end leaf, excluded
+    private static final class MemtableCursor implements Cursor {
+        private final Memtable memtable;
+        private final int endLeaf;
+        private int leaf;
+        private Iterator<Map.Entry<String, Storage.VersionedValue>> entries;
+        private Map.Entry<String, Storage.VersionedValue> entry;
+
+        private MemtableCursor(Memtable memtable, int firstLeaf, int endLeaf) {
+            this.memtable = memtable;
+            this.leaf = firstLeaf;
+            this.endLeaf = endLeaf;
+            this.entries = Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean next() {
+            while (!entries.hasNext()) {
+                if (leaf == endLeaf) {
+                    return false;
+                }
+                entries = memtable.leaves[leaf++].entrySet().iterator();
+            }
+            entry = entries.next();
+            return true;
+        }
+
+        @Override
+        public String getKey() {
+            return entry.getKey();
+        }
+
+        @Override
+        public String getValue() {
+            return entry.getValue().getValue();
+        }
+
+        @Override
+        public int getVersion() {
+            return entry.getValue().getVersion();
+        }
+    }
+
+    // Entries of a table from where its scanner starts up to the end leaf, excluded
+    private static final class TableCursor implements Cursor {
+        private final SSTable.Scanner scanner;
+        private final int endLeaf;
+
+        private TableCursor(SSTable.Scanner scanner, int endLeaf) {
+            this.scanner = scanner;
+            this.endLeaf = endLeaf;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            return scanner.next() && MerkleTree.leafOf(scanner.getKey()) < endLeaf;
+        }
+
+        @Override
+        public String getKey() {
+            return scanner.getKey();
+        }
+
+        @Override
+        public String getValue() {
+            return scanner.getValue();
+        }
+
+        @Override
+        public int getVersion() {
+            return scanner.getVersion();
+        }
+    }
+
+    // Merge of cursors given newest first, a key appearing in several of them takes the entry of the newest
+    private static final class MergingCursor implements Cursor {
+        private final PriorityQueue<Source> sources = new PriorityQueue<>();
+        private final List<Source> pending = new ArrayList<>();
+        private Source current;
+
+        private MergingCursor(List<Cursor> cursors) {
+            for (int i = 0; i < cursors.size(); i++) {
+                pending.add(new Source(cursors.get(i), i));
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            // Advance the sources whose entry was consumed or shadowed by a newer one
+            for (Source source : pending) {
+                if (source.cursor.next()) {
+                    sources.add(source);
+                }
+            }
+            pending.clear();
+            current = sources.poll();
+            if (current == null) {
+                return false;
+            }
+            pending.add(current);
+            while (!sources.isEmpty() && sources.peek().cursor.getKey().equals(current.cursor.getKey())) {
+                pending.add(sources.poll());
+            }
+            return true;
+        }
+
+        @Override
+        public String getKey() {
+            return current.cursor.getKey();
+        }
+
+        @Override
+        public String getValue() {
+            return current.cursor.getValue();
+        }
+
+        @Override
+        public int getVersion() {
+            return current.cursor.getVersion();
+        }
+
+        private static final class Source implements Comparable<Source> {
+            private final Cursor cursor;
+            // Position of the cursor in the list, lower is newer
+            private final int age;
+
+            private Source(Cursor cursor, int age) {
+                this.cursor = cursor;
+                this.age = age;
+            }
+
+            @Override
+            public int compareTo(Source other) {
+                int order = SSTable.compareKeys(cursor.getKey(), other.cursor.getKey());
+                return order != 0 ? order : Integer.compare(age, other.age);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.app.Replica;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hash tree over the keys of a {@link Storage}, used by {@link AntiEntropy} to
+ * find the keys two replicas disagree on without comparing every key.
+ *
+ * Keys are spread over a fixed number of leaves by the hash of the key. The
+ * hash of a leaf is the XOR of the hashes of its key, value and version
+ * triples, and the hash of an inner node the XOR of its children. XOR lets a
+ * write update the tree incrementally, in any order and without locking: the
+ * old triple is removed and the new one added along the path from the leaf to
+ * the root. Two replicas holding the same values have the same tree, whatever
+ * the order in which they applied the writes.
+ *
+ * Nodes are numbered as in a binary heap: the root is 1, the children of node
+ * n are 2n and 2n + 1, and the leaves are the nodes from {@link #LEAVES} to
+ * 2 * {@link #LEAVES} - 1.
+ */
+public class MerkleTree {
+    public static final int DEPTH = 12;
+    public static final int LEAVES = 1 << DEPTH;
+    public static final int ROOT = 1;
+
+    private final AtomicLongArray nodes = new AtomicLongArray(2 * LEAVES);
+
+    // Leaf holding a key, the same on every replica
+    public static int leafOf(String key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return hash >>> (32 - DEPTH);
+    }
+
+    public static boolean isLeaf(int node) {
+        return node >= LEAVES;
+    }
+
+    // FNV-1a hash of a key, value and version triple
+    public static long hashEntry(String key, String value, int version) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hashChars(hash, key);
+        hash = (hash ^ 0xff) * 0x100000001b3L;
+        hash = hashChars(hash, value);
+        hash = (hash ^ version) * 0x100000001b3L;
+        // Finish with a mix so that close triples do not cancel out in the XOR of a leaf
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long hashChars(long hash, String chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            hash = (hash ^ chars.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // Replace the entry hash of a key, 0 standing for no entry
+    public void update(String key, long oldEntryHash, long newEntryHash) {
+        long delta = oldEntryHash ^ newEntryHash;
+        if (delta == 0) {
+            return;
+        }
+        for (int node = LEAVES + leafOf(key); node >= ROOT; node >>>= 1) {
+            nodes.accumulateAndGet(node, delta, (current, change) -> current ^ change);
+        }
+    }
+
+    public long getHash(int node) {
+        return nodes.get(node);
+    }
+}
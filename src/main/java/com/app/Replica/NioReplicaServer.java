@@ -0,0 +1,355 @@
+package com.app.Replica;
+
+import com.app.Common.BinaryProtocol;
+import com.app.Common.Log;
+import com.app.Common.Message;
+import com.app.Common.Opcode;
+import com.app.Common.TextProtocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Replica server engine built on non-blocking channels.
+ * The calling thread accepts the client connections and hands them round-robin
+ * to a fixed number of event loops. Each event loop multiplexes its connections
+ * on one {@link Selector}, splits the incoming bytes into request lines or
+ * binary frames, runs them through the shared {@link RequestProcessor} and
+ * queues the responses until the socket accepts them. The requests appending
+ * to the write-ahead log may wait for the disk, they run on the write workers
+ * and the event loop sends their responses once they complete. No thread is
+ * ever dedicated to a connection, so the number of clients is bounded by file
+ * descriptors, not by threads.
+ */
+public class NioReplicaServer {
+    // Request lines longer than this are rejected by closing the connection
+    private static final int MAX_REQUEST_LENGTH = 1 << 20;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final int serverPort;
+    private final RequestProcessor processor;
+    private final EventLoop[] eventLoops;
+
+    // Runs the requests that append to the write-ahead log, so that no event loop waits for the disk
+    private final Executor writeWorkers;
+
+    public NioReplicaServer(int serverPort, RequestProcessor processor, int eventLoopCount, Executor writeWorkers)
+            throws IOException {
+        this.serverPort = serverPort;
+        this.processor = processor;
+        this.writeWorkers = writeWorkers;
+        this.eventLoops = new EventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) {
+            eventLoops[i] = new EventLoop(Selector.open());
+        }
+    }
+
+    // Accept client connections until the process is stopped
+    public void run() throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(serverPort));
+            for (int i = 0; i < eventLoops.length; i++) {
+                Thread thread = new Thread(eventLoops[i], "replica-event-loop-" + i);
+                thread.start();
+            }
+            Log.info("Replica listening on port " + serverPort + " with " + eventLoops.length
+                    + " event loops");
+
+            int nextEventLoop = 0;
+            while (true) {
+                // Wait for a client connection
+                SocketChannel clientChannel = serverChannel.accept();
+                Log.debug("Client connected.");
+
+                clientChannel.configureBlocking(false);
+                clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                eventLoops[nextEventLoop].register(clientChannel);
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+            }
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+
+        // Channels accepted by the server thread and not yet registered with the selector
+        private final Queue<SocketChannel> acceptedChannels = new ConcurrentLinkedQueue<>();
+
+        // Connections with a response completed by a write worker, their responses are sent by the event loop
+        private final Queue<Connection> completedConnections = new ConcurrentLinkedQueue<>();
+
+        private EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        private void register(SocketChannel clientChannel) {
+            acceptedChannels.add(clientChannel);
+            selector.wakeup();
+        }
+
+        private void responseCompleted(Connection connection) {
+            completedConnections.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    registerAcceptedChannels();
+                    writeCompletedResponses();
+
+                    Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                    while (selectedKeys.hasNext()) {
+                        SelectionKey key = selectedKeys.next();
+                        selectedKeys.remove();
+
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.error("Selector of the NIO server failed", e);
+                }
+            }
+        }
+
+        private void registerAcceptedChannels() throws IOException {
+            SocketChannel clientChannel;
+            while ((clientChannel = acceptedChannels.poll()) != null) {
+                SelectionKey key = clientChannel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(clientChannel, key, this));
+                processor.getMetrics().connectionOpened();
+            }
+        }
+
+        private void writeCompletedResponses() {
+            Connection connection;
+            while ((connection = completedConnections.poll()) != null) {
+                try {
+                    connection.write();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    // Response of a request, set by the event loop or later by a write worker
+    private static class Response {
+        private volatile ByteBuffer buffer;
+
+        private Response(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final EventLoop eventLoop;
+        private final InetSocketAddress clientAddress;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        // Received bytes that do not form a complete request yet
+        private byte[] pendingRequests = new byte[READ_BUFFER_SIZE];
+        private int pendingLength;
+
+        // Responses in request order, waiting for a write worker or for the socket to accept them
+        private final Deque<Response> pendingResponses = new ArrayDeque<>();
+
+        // Requests of the connection handed to the write workers, the requests after them run on the workers too
+        private CompletableFuture<Void> workerRequests = CompletableFuture.completedFuture(null);
+        private volatile boolean workerFailed;
+
+        private boolean firstRequest = true;
+        private boolean binaryProtocol;
+        private boolean pipelined;
+
+        private Connection(SocketChannel channel, SelectionKey key, EventLoop eventLoop) throws IOException {
+            this.channel = channel;
+            this.key = key;
+            this.eventLoop = eventLoop;
+            this.clientAddress = (InetSocketAddress) channel.getRemoteAddress();
+        }
+
+        private void read() throws IOException {
+            int bytesRead = channel.read(readBuffer);
+            if (bytesRead == -1) {
+                close();
+                return;
+            }
+
+            appendPendingRequests(readBuffer.array(), readBuffer.position());
+            readBuffer.clear();
+
+            int consumed = binaryProtocol ? handleFrames(0) : handleLines();
+            System.arraycopy(pendingRequests, consumed, pendingRequests, 0, pendingLength - consumed);
+            pendingLength -= consumed;
+            if (!binaryProtocol && pendingLength > MAX_REQUEST_LENGTH) {
+                throw new IOException("Request from " + clientAddress + " is too long");
+            }
+
+            write();
+        }
+
+        private void appendPendingRequests(byte[] bytes, int length) {
+            if (pendingLength + length > pendingRequests.length) {
+                pendingRequests = Arrays.copyOf(pendingRequests,
+                        Math.max(pendingRequests.length * 2, pendingLength + length));
+            }
+            System.arraycopy(bytes, 0, pendingRequests, pendingLength, length);
+            pendingLength += length;
+        }
+
+        // Handle the complete request lines, returns the number of bytes consumed
+        private int handleLines() throws IOException {
+            int lineStart = 0;
+            for (int i = 0; i < pendingLength; i++) {
+                if (pendingRequests[i] != '\n') {
+                    continue;
+                }
+
+                // Accept "\r\n" line endings like BufferedReader.readLine does
+                int lineEnd = i > lineStart && pendingRequests[i - 1] == '\r' ? i - 1 : i;
+                String request = new String(pendingRequests, lineStart, lineEnd - lineStart,
+                        Charset.defaultCharset());
+                lineStart = i + 1;
+
+                if (firstRequest && BinaryProtocol.NEGOTIATION_REQUEST.equals(request)) {
+                    addResponse(BinaryProtocol.NEGOTIATION_ACCEPTED);
+                    binaryProtocol = true;
+                    return handleFrames(lineStart);
+                }
+                if (firstRequest && TextProtocol.PIPELINING_REQUEST.equals(request)) {
+                    // Tagged requests are answered in order, which is one of the orders the client accepts
+                    addResponse(TextProtocol.PIPELINING_ACCEPTED);
+                    pipelined = true;
+                    firstRequest = false;
+                    continue;
+                }
+                firstRequest = false;
+                boolean tagged = pipelined;
+                submit(opcodeOf(request, tagged), () -> encode(tagged ? processor.processTagged(request, clientAddress)
+                        : processor.process(request, clientAddress)));
+            }
+            return lineStart;
+        }
+
+        // Handle the complete binary frames from the given offset, returns the offset after the last one
+        private int handleFrames(int offset) throws IOException {
+            while (pendingLength - offset >= 4) {
+                int frameLength = BinaryProtocol.readLength(pendingRequests, offset);
+                if (pendingLength - offset - 4 < frameLength) {
+                    break;
+                }
+                Message request = BinaryProtocol.decode(pendingRequests, offset + 4, frameLength);
+                offset += 4 + frameLength;
+                submit(request.getOpcode(),
+                        () -> ByteBuffer.wrap(BinaryProtocol.encode(processor.process(request, clientAddress))));
+            }
+            return offset;
+        }
+
+        private void addResponse(String response) {
+            pendingResponses.add(new Response(encode(response)));
+        }
+
+        // Process a request on the event loop, unless it appends to the write-ahead log or follows a request that
+        // does: those run on a write worker in the order of the connection and their response is sent when done
+        private void submit(Opcode opcode, Supplier<ByteBuffer> request) {
+            if (workerRequests.isDone() && !RequestProcessor.appendsToLog(opcode)) {
+                pendingResponses.add(new Response(request.get()));
+                return;
+            }
+            Response response = new Response(null);
+            pendingResponses.add(response);
+            workerRequests = workerRequests.thenRunAsync(() -> {
+                try {
+                    response.buffer = request.get();
+                } catch (RuntimeException e) {
+                    Log.error("Failed to process a request from " + clientAddress, e);
+                    workerFailed = true;
+                }
+                eventLoop.responseCompleted(this);
+            }, writeWorkers);
+        }
+
+        private void write() throws IOException {
+            if (!key.isValid()) {
+                // Closed while a write worker was running one of its requests
+                return;
+            }
+            if (workerFailed) {
+                throw new IOException("Request from " + clientAddress + " failed");
+            }
+
+            Response response;
+            while ((response = pendingResponses.peek()) != null && response.buffer != null) {
+                channel.write(response.buffer);
+                if (response.buffer.hasRemaining()) {
+                    break;
+                }
+                pendingResponses.poll();
+            }
+
+            // Stop reading new requests while responses are still waiting for a write worker or for the client,
+            // and wait for the socket only when the next response is ready
+            int interestOps = SelectionKey.OP_READ;
+            if (response != null) {
+                interestOps = response.buffer != null ? SelectionKey.OP_WRITE : 0;
+            }
+            key.interestOps(interestOps);
+        }
+
+        // Name of the request operation, the tag of a pipelined request comes first
+        private Opcode opcodeOf(String request, boolean tagged) {
+            int start = tagged ? request.indexOf(' ') + 1 : 0;
+            int end = request.indexOf(' ', start);
+            return Opcode.fromName(end < 0 ? request.substring(start) : request.substring(start, end));
+        }
+
+        private void close() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            processor.getMetrics().connectionClosed();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.warn("Failed to close a client connection", e);
+            }
+        }
+    }
+
+    private static ByteBuffer encode(String response) {
+        return ByteBuffer.wrap((response + "\n").getBytes(Charset.defaultCharset()));
+    }
+}
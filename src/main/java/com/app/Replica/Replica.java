@@ -1,13 +1,101 @@
 package com.app.Replica;
 
+import com.app.Common.AsyncAppender;
+import com.app.Common.Log;
+import com.app.Common.ThreadMode;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class Replica implements Closeable {
+    private static final String USAGE = "Usage: java Replica <serverPort> [--server=blocking|nio]"
+            + " [--event-loops=<count>] [--threads=platform|virtual] [--data-dir=<directory>]"
+            + " [--fsync=always|group|never] [--group-commit-ms=<ms>] [--group-commit-records=<count>]"
+            + " [--snapshot-interval-s=<seconds>] [--lock-ttl-ms=<ms>] [--anti-entropy-interval-s=<seconds>]"
+            + " [--metrics-port=<port>] [--log-level=debug|info|warn|error|off] [--log-sample-rate=<fraction>]"
+            + " [--log-async=true|false] [--value-store=heap|offheap] [--offheap-max-mb=<mb>]"
+            + " [--engine=memory|lsm] [--memtable-mb=<mb>]";
+
+    // Options accepted after the server port, in the form --name=value
+    private static final Set<String> OPTIONS = new HashSet<>(Arrays.asList("server", "event-loops", "threads",
+            "data-dir", "fsync", "group-commit-ms", "group-commit-records", "snapshot-interval-s",
+            "lock-ttl-ms", "anti-entropy-interval-s", "metrics-port", "log-level", "log-sample-rate", "log-async",
+            "value-store", "offheap-max-mb", "engine", "memtable-mb"));
+
+    // Size of the slabs of off-heap memory the values are stored in
+    private static final int SLAB_SIZE = 1024 * 1024;
+
+    // Log messages waiting for the console before new ones are dropped
+    private static final int LOG_BUFFER_CAPACITY = 8192;
+
+    // Blocking server engine: a thread per client connection, and workers for the pipelined requests
+    private final ServerSocket serverSocket;
+    private final RequestProcessor processor;
+    private final ThreadFactory handlerThreads;
+    private final ExecutorService pipelineWorkers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), ThreadMode.PLATFORM.threadFactory("replica-pipeline"));
+
+    // Releases the expired write locks of a replica started in process, null if its locks never expire
+    private ScheduledExecutorService leaseReaper;
+
+    private Replica(ServerSocket serverSocket, RequestProcessor processor, ThreadMode threadMode) {
+        this.serverSocket = serverSocket;
+        this.processor = processor;
+        this.handlerThreads = threadMode.threadFactory("replica-handler");
+    }
+
+    // Start a replica in the current process with its data in memory and without anti-entropy, serving clients from
+    // a background thread until close(). Port 0 picks a free port, see getPort(). Used to run a whole cluster in one
+    // process, for benchmarks and tests.
+    public static Replica start(int serverPort, ThreadMode threadMode, long lockTtlMs) throws IOException {
+        Storage storage = new Storage(lockTtlMs);
+        Replica replica = new Replica(new ServerSocket(serverPort), new RequestProcessor(storage), threadMode);
+        replica.leaseReaper = startLeaseReaper(storage);
+        Thread acceptor = ThreadMode.PLATFORM.threadFactory("replica-acceptor-" + replica.getPort())
+                .newThread(replica::acceptClients);
+        acceptor.start();
+        return replica;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public ReplicaMetrics getMetrics() {
+        return processor.getMetrics();
+    }
+
+    // Stop accepting clients, the connections already open are served until the clients close them
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        pipelineWorkers.shutdown();
+        if (leaseReaper != null) {
+            leaseReaper.shutdownNow();
+        }
+    }
 
-public class Replica {
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java Replica <serverPort>");
+        if (args.length < 1) {
+            System.out.println(USAGE);
             return;
         }
 
@@ -19,24 +107,231 @@ public class Replica {
             return;
         }
 
+        Map<String, String> options = parseOptions(Arrays.copyOfRange(args, 1, args.length));
+        if (options == null) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        try {
+            // Request traces are written at the debug level, for the given fraction of the requests
+            Log.setLevel(Log.Level.fromName(options.getOrDefault("log-level", "info")));
+            Log.setTraceSampleRate(Double.parseDouble(options.getOrDefault("log-sample-rate", "1")));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid log settings. Please use 'debug', 'info', 'warn', 'error' or 'off',"
+                    + " and a sample rate between 0 and 1.");
+            return;
+        }
+        if (Boolean.parseBoolean(options.getOrDefault("log-async", "true"))) {
+            // Write the log from a background thread, the request threads never wait for the console
+            AsyncAppender appender = new AsyncAppender(LOG_BUFFER_CAPACITY);
+            Log.setAppender(appender);
+            Runtime.getRuntime().addShutdownHook(new Thread(appender::close));
+        }
+
+        String serverEngine = options.getOrDefault("server", "blocking");
+        int eventLoops;
+        try {
+            eventLoops = Integer.parseInt(options.getOrDefault("event-loops",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number of event loops. Please provide a valid integer.");
+            return;
+        }
+
+        ThreadMode threadMode;
+        try {
+            threadMode = ThreadMode.fromName(options.getOrDefault("threads", "platform"));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid thread mode. Please use 'platform' or 'virtual'.");
+            return;
+        }
+        if (!threadMode.isSupported()) {
+            System.out.println("Virtual threads require Java 21 or newer.");
+            return;
+        }
+
+        WriteAheadLog.FsyncPolicy fsyncPolicy;
+        long groupCommitIntervalMs;
+        int groupCommitRecords;
+        long snapshotIntervalS;
+        long lockTtlMs;
+        long antiEntropyIntervalS;
+        int metricsPort;
+        long offHeapMaxMb;
+        long memtableMb;
+        try {
+            fsyncPolicy = WriteAheadLog.FsyncPolicy.fromName(options.getOrDefault("fsync", "group"));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid fsync policy. Please use 'always', 'group' or 'never'.");
+            return;
+        }
+        try {
+            groupCommitIntervalMs = Long.parseLong(options.getOrDefault("group-commit-ms", "5"));
+            groupCommitRecords = Integer.parseInt(options.getOrDefault("group-commit-records", "128"));
+            snapshotIntervalS = Long.parseLong(options.getOrDefault("snapshot-interval-s", "300"));
+            lockTtlMs = Long.parseLong(options.getOrDefault("lock-ttl-ms", "10000"));
+            antiEntropyIntervalS = Long.parseLong(options.getOrDefault("anti-entropy-interval-s", "30"));
+            metricsPort = Integer.parseInt(options.getOrDefault("metrics-port", "-1"));
+            offHeapMaxMb = Long.parseLong(options.getOrDefault("offheap-max-mb", "1024"));
+            memtableMb = Long.parseLong(options.getOrDefault("memtable-mb", "64"));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid durability, lock, metrics or memory settings. Please provide valid integers.");
+            return;
+        }
+
+        String valueStore = options.getOrDefault("value-store", "heap");
+        if (!"heap".equals(valueStore) && !"offheap".equals(valueStore)) {
+            System.out.println("Invalid value store. Please use 'heap' or 'offheap'.");
+            return;
+        }
+        String engineName = options.getOrDefault("engine", "memory");
+        if (!"memory".equals(engineName) && !"lsm".equals(engineName)) {
+            System.out.println("Invalid storage engine. Please use 'memory' or 'lsm'.");
+            return;
+        }
+        if ("lsm".equals(engineName) && (!options.containsKey("data-dir") || "offheap".equals(valueStore))) {
+            System.out.println("The lsm engine needs a --data-dir and keeps its values on disk, not off-heap.");
+            return;
+        }
+        // Keep the values in direct memory, out of reach of the garbage collector
+        SlabArena arena = "offheap".equals(valueStore) ? new SlabArena(offHeapMaxMb * 1024 * 1024, SLAB_SIZE) : null;
+
         try {
-            Storage replica = new Storage();
+            Storage replica;
+            if (options.containsKey("data-dir")) {
+                // Keep the data across restarts in a log and periodic snapshots, or checkpoints of the lsm engine
+                Path dataDirectory = Paths.get(options.get("data-dir"));
+                WriteAheadLog writeAheadLog = new WriteAheadLog(dataDirectory, fsyncPolicy, groupCommitIntervalMs,
+                        groupCommitRecords);
+                StorageEngine engine = "lsm".equals(engineName)
+                        ? new LsmStorageEngine(dataDirectory.resolve("sstables"), memtableMb * 1024 * 1024)
+                        : new InMemoryStorageEngine(arena);
+                Storage storage = new Storage(writeAheadLog, lockTtlMs, engine);
+                replica = storage;
+                if (snapshotIntervalS > 0) {
+                    ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(
+                            ThreadMode.PLATFORM.threadFactory("replica-snapshot"));
+                    snapshots.scheduleWithFixedDelay(() -> {
+                        try {
+                            storage.snapshot();
+                        } catch (IOException e) {
+                            Log.error("Failed to write a snapshot", e);
+                        }
+                    }, snapshotIntervalS, snapshotIntervalS, TimeUnit.SECONDS);
+                }
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        writeAheadLog.close();
+                        storage.close();
+                    } catch (IOException e) {
+                        Log.error("Failed to close the storage", e);
+                    }
+                }));
+            } else {
+                replica = new Storage(lockTtlMs, arena);
+            }
+            startLeaseReaper(replica);
+            if (antiEntropyIntervalS > 0) {
+                // Converge with the other replicas of config.properties in the background
+                List<String> peers = loadPeers(serverPort);
+                ScheduledExecutorService antiEntropy = Executors.newSingleThreadScheduledExecutor(
+                        ThreadMode.PLATFORM.threadFactory("replica-anti-entropy"));
+                antiEntropy.scheduleWithFixedDelay(new AntiEntropy(replica, peers, 30000), antiEntropyIntervalS,
+                        antiEntropyIntervalS, TimeUnit.SECONDS);
+            }
+            RequestProcessor processor = new RequestProcessor(replica);
+            if (metricsPort >= 0) {
+                // Serve the metrics in the Prometheus format on the loopback interface
+                new MetricsEndpoint(metricsPort, processor.getMetrics());
+            }
+
+            if ("nio".equals(serverEngine)) {
+                // Serve all clients from a few selector threads, the writes wait for the log on their own threads
+                new NioReplicaServer(serverPort, processor, eventLoops, threadMode.newExecutor("replica-writer"))
+                        .run();
+                return;
+            } else if (!"blocking".equals(serverEngine)) {
+                System.out.println("Unknown server engine: " + serverEngine);
+                return;
+            }
 
-            ServerSocket serverSocket = new ServerSocket(serverPort);
-            System.out.println("Replica listening on port " + serverPort);
+            new Replica(new ServerSocket(serverPort), processor, threadMode).acceptClients();
+        } catch (IOException e) {
+            Log.error("Failed to start the replica on port " + serverPort, e);
+        }
+    }
+
+    // Release the write locks of the clients that stopped renewing them, returns null if locks never expire
+    private static ScheduledExecutorService startLeaseReaper(Storage storage) {
+        if (storage.getLeaseTickMs() <= 0) {
+            return null;
+        }
+        ScheduledExecutorService leaseReaper = Executors.newSingleThreadScheduledExecutor(
+                ThreadMode.PLATFORM.threadFactory("replica-lease-reaper"));
+        leaseReaper.scheduleAtFixedRate(storage::reapExpiredLeases, storage.getLeaseTickMs(),
+                storage.getLeaseTickMs(), TimeUnit.MILLISECONDS);
+        return leaseReaper;
+    }
 
+    // Accept client connections until the server socket is closed
+    private void acceptClients() {
+        Log.info("Replica listening on port " + getPort());
+        try {
             while (true) {
                 // Wait for a client connection
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("Client connected.");
+                Log.debug("Client connected.");
 
                 // Create a new thread to handle the client request
-                StorageHandler requestHandler = new StorageHandler(clientSocket, replica);
-                Thread thread = new Thread(requestHandler);
+                StorageHandler requestHandler = new StorageHandler(clientSocket, processor, pipelineWorkers);
+                Thread thread = handlerThreads.newThread(requestHandler);
                 thread.start();
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            if (!serverSocket.isClosed()) {
+                Log.error("Failed to accept client connections", e);
+            }
+        }
+    }
+
+    // The replicas of config.properties other than this one, the one listening on the same port
+    private static List<String> loadPeers(int serverPort) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream inputStream = Replica.class.getClassLoader().getResourceAsStream("config.properties")) {
+            if (inputStream == null) {
+                Log.warn("No config.properties found, anti-entropy has no peers.");
+                return new ArrayList<>();
+            }
+            properties.load(inputStream);
+        }
+        List<String> peers = new ArrayList<>();
+        int numReplicas = Integer.parseInt(properties.getProperty("numReplicas", "0"));
+        for (int i = 1; i <= numReplicas; i++) {
+            String replicaInfo = properties.getProperty("replica" + i);
+            if (replicaInfo != null && !replicaInfo.endsWith(":" + serverPort)) {
+                peers.add(replicaInfo);
+            }
+        }
+        return peers;
+    }
+
+    // Parse the --name=value options, returns null if one of them is malformed or unknown
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                System.out.println("Invalid option: " + arg);
+                return null;
+            }
+            String name = arg.substring(2, separator);
+            if (!OPTIONS.contains(name)) {
+                System.out.println("Unknown option: " + arg);
+                return null;
+            }
+            options.put(name, arg.substring(separator + 1));
         }
+        return options;
     }
 }
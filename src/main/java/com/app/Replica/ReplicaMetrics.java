@@ -0,0 +1,171 @@
+package com.app.Replica;
+
+import com.app.Common.LatencyHistogram;
+import com.app.Common.Opcode;
+import com.app.Common.PrometheusText;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the requests served by a replica.
+ *
+ * Every request command has its own {@link LatencyHistogram}, recording the
+ * time spent executing it, and the replica counts the write locks it refused
+ * and the client connections open. Everything is recorded without locks, so the
+ * metrics can stay enabled on the request path. They are read through the STATS
+ * command and, in the Prometheus text format, through the metrics endpoint.
+ * When the storage keeps its values off the heap, the memory of every slab
+ * size class is reported as well, and the tables and compactions of the
+ * storage engine when it is an {@link LsmStorageEngine}.
+ */
+public class ReplicaMetrics {
+    private final Storage storage;
+    private final Map<Opcode, LatencyHistogram> latencies = new EnumMap<>(Opcode.class);
+    private final LongAdder lockAcquireFailures = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+
+    public ReplicaMetrics(Storage storage) {
+        this.storage = storage;
+        // Created up front, so the map is only read by the request threads
+        for (Opcode opcode : Opcode.values()) {
+            if (opcode.isRequest()) {
+                latencies.put(opcode, new LatencyHistogram());
+            }
+        }
+    }
+
+    // Record a request that has been executed, with the number of write locks it could not acquire
+    public void recordRequest(Opcode opcode, long latencyNanos, int refusedLocks) {
+        LatencyHistogram histogram = latencies.get(opcode);
+        if (histogram != null) {
+            histogram.record(latencyNanos);
+        }
+        if (refusedLocks > 0) {
+            lockAcquireFailures.add(refusedLocks);
+        }
+    }
+
+    public void connectionOpened() {
+        activeConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    public LatencyHistogram getLatencies(Opcode opcode) {
+        return latencies.get(opcode);
+    }
+
+    public long getLockAcquireFailures() {
+        return lockAcquireFailures.sum();
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    public long getKeyCount() {
+        return storage.getEntryCount();
+    }
+
+    // Metrics answered to the STATS command, by name. Latencies are in microseconds, and only the commands received
+    // at least once are listed.
+    public Map<String, Long> snapshot() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("keys", getKeyCount());
+        stats.put("active_connections", getActiveConnections());
+        stats.put("lock_acquire_failures", getLockAcquireFailures());
+        for (Map.Entry<Opcode, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            long count = histogram.getCount();
+            if (count == 0) {
+                continue;
+            }
+            String command = entry.getKey().name();
+            stats.put(command + ".count", count);
+            stats.put(command + ".p50_us", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentileNanos(50)));
+            stats.put(command + ".p99_us", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentileNanos(99)));
+            stats.put(command + ".p999_us", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentileNanos(99.9)));
+        }
+        for (SlabArena.ClassStats slabClass : getSlabClassStats()) {
+            String prefix = "slab." + slabClass.getChunkSize();
+            stats.put(prefix + ".reserved_bytes", reservedBytes(slabClass));
+            stats.put(prefix + ".used_bytes", usedBytes(slabClass));
+            stats.put(prefix + ".stored_bytes", slabClass.getStoredBytes());
+        }
+        LsmStorageEngine lsm = getLsmEngine();
+        if (lsm != null) {
+            stats.put("lsm.tables", (long) lsm.getTableCount());
+            stats.put("lsm.disk_bytes", lsm.getDiskBytes());
+            stats.put("lsm.memtable_bytes", lsm.getMemtableBytes());
+            stats.put("lsm.compactions", lsm.getCompactions());
+        }
+        return stats;
+    }
+
+    // All the metrics in the Prometheus text format
+    public String toPrometheus() {
+        PrometheusText text = new PrometheusText();
+        for (Map.Entry<Opcode, LatencyHistogram> entry : latencies.entrySet()) {
+            text.counter("replica_requests_total", "Requests executed by the replica.", "command",
+                    entry.getKey().name(), entry.getValue().getCount());
+        }
+        for (Map.Entry<Opcode, LatencyHistogram> entry : latencies.entrySet()) {
+            text.summary("replica_request_latency_seconds", "Time spent executing the requests.", "command",
+                    entry.getKey().name(), entry.getValue());
+        }
+        text.counter("replica_lock_acquire_failures_total", "Write locks refused because another client held them.",
+                null, null, getLockAcquireFailures());
+        text.gauge("replica_active_connections", "Client connections open.", null, null, getActiveConnections());
+        text.gauge("replica_keys", "Keys stored by the replica.", null, null, getKeyCount());
+        for (SlabArena.ClassStats slabClass : getSlabClassStats()) {
+            text.gauge("replica_slab_reserved_bytes", "Off-heap memory reserved by the slab size class.",
+                    "size_class", String.valueOf(slabClass.getChunkSize()), reservedBytes(slabClass));
+        }
+        for (SlabArena.ClassStats slabClass : getSlabClassStats()) {
+            text.gauge("replica_slab_used_bytes", "Off-heap memory of the chunks holding a value.", "size_class",
+                    String.valueOf(slabClass.getChunkSize()), usedBytes(slabClass));
+        }
+        for (SlabArena.ClassStats slabClass : getSlabClassStats()) {
+            text.gauge("replica_slab_stored_bytes", "Bytes of the values stored in the slab size class.",
+                    "size_class", String.valueOf(slabClass.getChunkSize()), slabClass.getStoredBytes());
+        }
+        LsmStorageEngine lsm = getLsmEngine();
+        if (lsm != null) {
+            text.gauge("replica_lsm_tables", "Tables of the storage engine.", null, null, lsm.getTableCount());
+            text.gauge("replica_lsm_disk_bytes", "Size of the tables of the storage engine.", null, null,
+                    lsm.getDiskBytes());
+            text.gauge("replica_lsm_memtable_bytes", "Estimated size of the memtables of the storage engine.", null,
+                    null, lsm.getMemtableBytes());
+            text.counter("replica_lsm_compactions_total", "Compactions of tables of the storage engine.", null, null,
+                    lsm.getCompactions());
+        }
+        return text.toString();
+    }
+
+    private LsmStorageEngine getLsmEngine() {
+        StorageEngine engine = storage.getEngine();
+        return engine instanceof LsmStorageEngine ? (LsmStorageEngine) engine : null;
+    }
+
+    // Memory of the slab size classes of the storage, empty when its values are kept on the heap
+    public List<SlabArena.ClassStats> getSlabClassStats() {
+        SlabArena arena = storage.getArena();
+        return arena == null ? Collections.<SlabArena.ClassStats>emptyList() : arena.getClassStats();
+    }
+
+    private long reservedBytes(SlabArena.ClassStats slabClass) {
+        return (long) slabClass.getSlabs() * storage.getArena().getSlabSize();
+    }
+
+    private static long usedBytes(SlabArena.ClassStats slabClass) {
+        return slabClass.getUsedChunks() * slabClass.getChunkSize();
+    }
+}
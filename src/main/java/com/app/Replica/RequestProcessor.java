@@ -0,0 +1,300 @@
+package com.app.Replica;
+
+import com.app.Common.Log;
+import com.app.Common.Message;
+import com.app.Common.Opcode;
+import com.app.Common.TextProtocol;
+
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Executes the requests of the replica protocol against a {@link Storage}.
+ * The processor is shared by the server engines and by both wire protocols: it
+ * turns one request into one response, reading and writing them is left to the
+ * caller. The time spent on every request is recorded in the
+ * {@link ReplicaMetrics} of the replica.
+ */
+public class RequestProcessor {
+    private Storage replica;
+    private final ReplicaMetrics metrics;
+
+    public RequestProcessor(Storage replica) {
+        this.replica = replica;
+        this.metrics = new ReplicaMetrics(replica);
+    }
+
+    public ReplicaMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Process a request line of the text protocol
+    public String process(String request, InetSocketAddress clientAddress) {
+        Message message = TextProtocol.parseRequest(request);
+        if (message == null) {
+            return Opcode.INVALID_REQUEST.name();
+        }
+        return TextProtocol.formatResponse(process(message, clientAddress));
+    }
+
+    // Process a request line of the pipelined text protocol, "<id> <request>", answering "<id> <response>"
+    public String processTagged(String taggedRequest, InetSocketAddress clientAddress) {
+        int separator = taggedRequest.indexOf(' ');
+        if (separator < 0) {
+            return taggedRequest + " " + Opcode.INVALID_REQUEST.name();
+        }
+        return taggedRequest.substring(0, separator + 1)
+                + process(taggedRequest.substring(separator + 1), clientAddress);
+    }
+
+    // Whether a pipelined request must run on the connection thread: the requests touching write locks are executed
+    // in the order the client sent them, so that a PUT never overtakes the ACQUIRE_LOCK before it
+    public static boolean touchesWriteLocks(String taggedRequest) {
+        int separator = taggedRequest.indexOf(' ');
+        return !taggedRequest.startsWith("GET ", separator + 1) && !taggedRequest.startsWith("MGET ", separator + 1)
+                && !taggedRequest.startsWith("GET_IF_NEWER ", separator + 1)
+                && !taggedRequest.startsWith("PING", separator + 1)
+                && !taggedRequest.startsWith("STATS", separator + 1);
+    }
+
+    // Whether a request appends to the write-ahead log, it may then wait for the log to reach the disk
+    public static boolean appendsToLog(Opcode opcode) {
+        return opcode == Opcode.PUT || opcode == Opcode.PUT_IF_VERSION || opcode == Opcode.MPUT
+                || opcode == Opcode.REPAIR;
+    }
+
+    public Message process(Message request, InetSocketAddress clientAddress) {
+        Opcode opcode = request.getOpcode();
+        if (opcode == null || !hasValidEntryCount(request)) {
+            return Message.of(Opcode.INVALID_REQUEST);
+        }
+
+        long start = System.nanoTime();
+        Message response = execute(opcode, request, clientAddress);
+        metrics.recordRequest(opcode, System.nanoTime() - start, refusedLocks(opcode, response));
+        return response;
+    }
+
+    private Message execute(Opcode opcode, Message request, InetSocketAddress clientAddress) {
+        switch (opcode) {
+            case ACQUIRE_LOCK: {
+                String key = request.getEntry().getKey();
+                if (Log.isTraced()) {
+                    Log.debug("Acquiring write lock for key: " + key);
+                }
+                Storage.WriteLockResult lockResult = replica.acquireWriteLock(key, clientAddress);
+                return lockResult.isSuccess()
+                        ? Message.of(Opcode.LOCK_ACQUIRED, key, null, lockResult.getCurrentVersion())
+                        : Message.of(Opcode.LOCK_NOT_ACQUIRED);
+            }
+            case RENEW_LOCK: {
+                String key = request.getEntry().getKey();
+                if (Log.isTraced()) {
+                    Log.debug("Renewing write lock for key: " + key);
+                }
+                Storage.WriteLockResult lockResult = replica.renewWriteLock(key, clientAddress);
+                return lockResult.isSuccess()
+                        ? Message.of(Opcode.LOCK_ACQUIRED, key, null, lockResult.getCurrentVersion())
+                        : Message.of(Opcode.LOCK_NOT_ACQUIRED);
+            }
+            case RELEASE_LOCK: {
+                String key = request.getEntry().getKey();
+                if (Log.isTraced()) {
+                    Log.debug("Releasing lock for key " + key);
+                }
+                replica.releaseWriteLock(key, clientAddress);
+                return Message.of(Opcode.LOCK_RELEASED);
+            }
+            case GET: {
+                String key = request.getEntry().getKey();
+                if (Log.isTraced()) {
+                    Log.debug("Getting value for key " + key);
+                }
+                Storage.VersionedValue value = replica.getVersioned(key);
+                return (value != null) ? Message.of(Opcode.GET_SUCCESS, key, value.getValue(), value.getVersion())
+                        : Message.of(Opcode.GET_FAILED);
+            }
+            case GET_IF_NEWER: {
+                // The value is only sent if the client does not have the version the replica holds
+                Message.Entry entry = request.getEntry();
+                if (Log.isTraced()) {
+                    Log.debug("Getting value for key " + entry.getKey() + " unless at version "
+                            + entry.getVersion());
+                }
+                Storage.VersionedValue value = replica.getVersioned(entry.getKey());
+                if (value == null) {
+                    return Message.of(Opcode.GET_FAILED);
+                }
+                return value.getVersion() == entry.getVersion()
+                        ? Message.of(Opcode.NOT_MODIFIED, entry.getKey(), null, value.getVersion())
+                        : Message.of(Opcode.GET_SUCCESS, entry.getKey(), value.getValue(), value.getVersion());
+            }
+            case PUT: {
+                Message.Entry entry = request.getEntry();
+                if (Log.isTraced()) {
+                    Log.debug("Putting value for key " + entry.getKey());
+                }
+                boolean success = replica.put(entry.getKey(), entry.getValue(), clientAddress, entry.getVersion());
+                return Message.of(success ? Opcode.PUT_SUCCESS : Opcode.PUT_FAILED);
+            }
+            case PING:
+                // Health check used by the client connection pools
+                return Message.of(Opcode.PONG);
+            case STATS: {
+                List<Message.Entry> results = new ArrayList<>();
+                metrics.snapshot().forEach((name, value) -> results.add(
+                        new Message.Entry(name, String.valueOf(value), 0)));
+                return new Message(Opcode.STATS_RESULT, results);
+            }
+            case PUT_IF_VERSION: {
+                Message.Entry write = request.getEntries().get(0);
+                int expectedVersion = request.getEntries().get(1).getVersion();
+                if (Log.isTraced()) {
+                    Log.debug("Putting value for key " + write.getKey() + " if at version " + expectedVersion);
+                }
+                Storage.ConditionalPutResult result = replica.putIfVersion(write.getKey(), write.getValue(),
+                        clientAddress, expectedVersion, write.getVersion());
+                return result.isSuccess() ? Message.of(Opcode.PUT_SUCCESS)
+                        : Message.of(Opcode.VERSION_CONFLICT, write.getKey(), null, result.getCurrentVersion());
+            }
+            case MACQUIRE_LOCK: {
+                if (Log.isTraced()) {
+                    Log.debug("Acquiring write locks for " + request.getEntries().size() + " keys");
+                }
+                List<Message.Entry> results = new ArrayList<>(request.getEntries().size());
+                for (Message.Entry entry : request.getEntries()) {
+                    Storage.WriteLockResult lockResult = replica.acquireWriteLock(entry.getKey(), clientAddress);
+                    results.add(new Message.Entry(lockResult.isSuccess() ? Opcode.LOCK_ACQUIRED : Opcode.LOCK_NOT_ACQUIRED,
+                            entry.getKey(), null, lockResult.isSuccess() ? lockResult.getCurrentVersion() : 0));
+                }
+                return new Message(Opcode.MLOCK_RESULT, results);
+            }
+            case MRELEASE_LOCK: {
+                if (Log.isTraced()) {
+                    Log.debug("Releasing locks for " + request.getEntries().size() + " keys");
+                }
+                for (Message.Entry entry : request.getEntries()) {
+                    replica.releaseWriteLock(entry.getKey(), clientAddress);
+                }
+                return Message.of(Opcode.LOCK_RELEASED);
+            }
+            case MGET: {
+                if (Log.isTraced()) {
+                    Log.debug("Getting values for " + request.getEntries().size() + " keys");
+                }
+                List<Message.Entry> results = new ArrayList<>(request.getEntries().size());
+                for (Message.Entry entry : request.getEntries()) {
+                    Storage.VersionedValue value = replica.getVersioned(entry.getKey());
+                    results.add(value != null
+                            ? new Message.Entry(Opcode.GET_SUCCESS, entry.getKey(), value.getValue(),
+                                    value.getVersion())
+                            : new Message.Entry(Opcode.GET_FAILED, entry.getKey(), null, 0));
+                }
+                return new Message(Opcode.MGET_RESULT, results);
+            }
+            case MPUT: {
+                if (Log.isTraced()) {
+                    Log.debug("Putting values for " + request.getEntries().size() + " keys");
+                }
+                List<Message.Entry> results = new ArrayList<>(request.getEntries().size());
+                for (Message.Entry entry : request.getEntries()) {
+                    boolean success = replica.put(entry.getKey(), entry.getValue(), clientAddress, entry.getVersion());
+                    results.add(new Message.Entry(success ? Opcode.PUT_SUCCESS : Opcode.PUT_FAILED, entry.getKey(),
+                            null, entry.getVersion()));
+                }
+                return new Message(Opcode.MPUT_RESULT, results);
+            }
+            case REPAIR: {
+                if (Log.isTraced()) {
+                    Log.debug("Repairing values for " + request.getEntries().size() + " keys");
+                }
+                List<Message.Entry> results = new ArrayList<>(request.getEntries().size());
+                for (Message.Entry entry : request.getEntries()) {
+                    boolean success = replica.putIfNewer(entry.getKey(), entry.getValue(), clientAddress,
+                            entry.getVersion());
+                    results.add(new Message.Entry(success ? Opcode.PUT_SUCCESS : Opcode.PUT_FAILED, entry.getKey(),
+                            null, entry.getVersion()));
+                }
+                return new Message(Opcode.MPUT_RESULT, results);
+            }
+            case MERKLE_HASHES: {
+                if (Log.isTraced()) {
+                    Log.debug("Comparing " + request.getEntries().size() + " Merkle tree nodes");
+                }
+                List<Message.Entry> results = new ArrayList<>(request.getEntries().size());
+                for (Message.Entry entry : request.getEntries()) {
+                    int node = parseTreeIndex(entry.getKey(), MerkleTree.ROOT, 2 * MerkleTree.LEAVES);
+                    if (node < 0) {
+                        return Message.of(Opcode.INVALID_REQUEST);
+                    }
+                    results.add(new Message.Entry(entry.getKey(), Long.toHexString(replica.getMerkleHash(node)), 0));
+                }
+                return new Message(Opcode.MERKLE_RESULT, results);
+            }
+            case MERKLE_LEAF: {
+                if (Log.isTraced()) {
+                    Log.debug("Listing the keys of " + request.getEntries().size() + " Merkle tree leaves");
+                }
+                List<Message.Entry> results = new ArrayList<>();
+                for (Message.Entry entry : request.getEntries()) {
+                    int leaf = parseTreeIndex(entry.getKey(), 0, MerkleTree.LEAVES);
+                    if (leaf < 0) {
+                        return Message.of(Opcode.INVALID_REQUEST);
+                    }
+                    try {
+                        replica.getLeafEntries(leaf).forEach((key, value) -> results.add(
+                                new Message.Entry(key, value.getValue(), value.getVersion())));
+                    } catch (UncheckedIOException e) {
+                        // The peer compares the leaf again on its next round
+                        Log.warn("Failed to list the keys of Merkle tree leaf " + leaf, e.getCause());
+                        return Message.of(Opcode.INVALID_REQUEST);
+                    }
+                }
+                return new Message(Opcode.LEAF_ENTRIES, results);
+            }
+            default:
+                return Message.of(Opcode.INVALID_REQUEST);
+        }
+    }
+
+    // Number of write locks an acquire request could not take because another client held them
+    private static int refusedLocks(Opcode opcode, Message response) {
+        if (opcode == Opcode.ACQUIRE_LOCK) {
+            return response.getOpcode() == Opcode.LOCK_NOT_ACQUIRED ? 1 : 0;
+        }
+        if (opcode != Opcode.MACQUIRE_LOCK) {
+            return 0;
+        }
+        int refused = 0;
+        for (Message.Entry entry : response.getEntries()) {
+            if (entry.getStatus() == Opcode.LOCK_NOT_ACQUIRED) {
+                refused++;
+            }
+        }
+        return refused;
+    }
+
+    // Node or leaf number sent as the key of an entry, -1 if it is not a number in [min, max)
+    private static int parseTreeIndex(String index, int min, int max) {
+        try {
+            int value = Integer.parseInt(index);
+            return value >= min && value < max ? value : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // PING and STATS carry no entry, PUT_IF_VERSION two, batches at least one and every other request exactly one
+    private static boolean hasValidEntryCount(Message request) {
+        int entryCount = request.getEntries().size();
+        if (request.getOpcode() == Opcode.PING || request.getOpcode() == Opcode.STATS) {
+            return entryCount == 0;
+        }
+        if (request.getOpcode() == Opcode.PUT_IF_VERSION) {
+            return entryCount == 2;
+        }
+        return request.getOpcode().isBatch() ? entryCount > 0 : entryCount == 1;
+    }
+}
@@ -0,0 +1,417 @@
+package com.app.Replica;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Immutable sorted file of keys, values and versions written by the
+ * {@link LsmStorageEngine}, either from a memtable or by merging other tables.
+ *
+ * Keys are sorted by Merkle tree leaf, then by key, so that the keys of a leaf
+ * are contiguous. They are grouped in blocks of about {@link #BLOCK_SIZE}
+ * bytes. The first key of every block is kept in memory with a Bloom filter of
+ * the keys, so a lookup reads at most one block, and usually none when the key
+ * is not in the table.
+ *
+ * File:   int magic | int format version | blocks | index | Bloom filter | footer
+ * Block:  entries, as in a {@link Snapshot}: int key length | key bytes | int value length | value bytes | int version
+ * Index:  int block count | for every block: int first key length | first key bytes | long offset | int length
+ *         | int CRC32 of the block
+ * Footer: long index offset | long key count | int CRC32 of the index and Bloom filter | int magic
+ *
+ * Tables are written to a temporary file and renamed once complete. Reads use
+ * positional reads of the file, so they need no locking.
+ */
+public class SSTable implements Closeable {
+    private static final int MAGIC = 0x5353544c;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int FOOTER_LENGTH = 24;
+
+    // Target size of a block: one read of the disk per lookup, and a block index small enough to stay in memory
+    private static final int BLOCK_SIZE = 4 * 1024;
+
+    private final Path file;
+    private final long id;
+    private final long size;
+    private final long keyCount;
+    private final String[] firstKeys;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] blockChecksums;
+    private final BloomFilter bloomFilter;
+
+    private volatile FileChannel channel;
+    // Set once the table is not used anymore, its file may be deleted
+    private volatile boolean released;
+
+    private SSTable(Path file, long id) throws IOException {
+        this.file = file;
+        this.id = id;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            size = channel.size();
+            if (size < HEADER_LENGTH + FOOTER_LENGTH) {
+                throw new IOException("Table " + file + " is truncated");
+            }
+            ByteBuffer header = read(0, HEADER_LENGTH);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Table " + file + " has an unknown format");
+            }
+            ByteBuffer footer = read(size - FOOTER_LENGTH, FOOTER_LENGTH);
+            long indexOffset = footer.getLong();
+            keyCount = footer.getLong();
+            int checksum = footer.getInt();
+            if (footer.getInt() != MAGIC || indexOffset < HEADER_LENGTH || indexOffset > size - FOOTER_LENGTH) {
+                throw new IOException("Table " + file + " is corrupted");
+            }
+            ByteBuffer metadata = read(indexOffset, (int) (size - FOOTER_LENGTH - indexOffset));
+            CRC32 crc = new CRC32();
+            crc.update(metadata.array(), 0, metadata.limit());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Table " + file + " is corrupted");
+            }
+
+            int blockCount = metadata.getInt();
+            firstKeys = new String[blockCount];
+            blockOffsets = new long[blockCount];
+            blockLengths = new int[blockCount];
+            blockChecksums = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                firstKeys[i] = readString(metadata);
+                blockOffsets[i] = metadata.getLong();
+                blockLengths[i] = metadata.getInt();
+                blockChecksums[i] = metadata.getInt();
+            }
+            bloomFilter = BloomFilter.readFrom(metadata);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Table " + file + " is corrupted", e);
+        }
+    }
+
+    public static SSTable open(Path file, long id) throws IOException {
+        return new SSTable(file, id);
+    }
+
+    // Order of the keys in the tables: by Merkle tree leaf, then by key
+    public static int compareKeys(String first, String second) {
+        int leafOrder = Integer.compare(MerkleTree.leafOf(first), MerkleTree.leafOf(second));
+        return leafOrder != 0 ? leafOrder : first.compareTo(second);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getKeyCount() {
+        return keyCount;
+    }
+
+    // Value and version of a key, null if the table does not hold the key
+    public Storage.VersionedValue get(String key) throws IOException {
+        if (!bloomFilter.mightContain(key)) {
+            return null;
+        }
+        int block = findBlock(key);
+        if (block < 0) {
+            return null;
+        }
+        ByteBuffer entries = readBlock(block);
+        while (entries.hasRemaining()) {
+            String entryKey = readString(entries);
+            int order = compareKeys(entryKey, key);
+            if (order > 0) {
+                return null;
+            }
+            if (order == 0) {
+                String value = readString(entries);
+                return new Storage.VersionedValue(value, entries.getInt());
+            }
+            // Skip the value and the version
+            int valueLength = entries.getInt();
+            entries.position(entries.position() + valueLength + 4);
+        }
+        return null;
+    }
+
+    // Iterate over the keys from the first one of a leaf to the end of the table
+    public Scanner scan(int fromLeaf) {
+        // Last block starting before the leaf, the leaf may begin in it
+        int low = 0;
+        int high = firstKeys.length - 1;
+        int block = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (MerkleTree.leafOf(firstKeys[middle]) < fromLeaf) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return new Scanner(block, fromLeaf);
+    }
+
+    // Stop using the table, readers holding it get a ClosedChannelException
+    public void release() throws IOException {
+        released = true;
+        channel.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        release();
+    }
+
+    // Last block whose first key is not after the key, -1 if the key is before the first block
+    private int findBlock(String key) {
+        int low = 0;
+        int high = firstKeys.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (compareKeys(firstKeys[middle], key) <= 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return block;
+    }
+
+    private ByteBuffer readBlock(int block) throws IOException {
+        ByteBuffer entries = read(blockOffsets[block], blockLengths[block]);
+        CRC32 crc = new CRC32();
+        crc.update(entries.array(), 0, entries.limit());
+        if ((int) crc.getValue() != blockChecksums[block]) {
+            throw new IOException("Block at " + blockOffsets[block] + " of table " + file + " is corrupted");
+        }
+        return entries;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (true) {
+            FileChannel current = channel;
+            try {
+                while (buffer.hasRemaining()) {
+                    if (current.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("Table " + file + " is truncated");
+                    }
+                }
+                buffer.flip();
+                return buffer;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                if (released) {
+                    throw e;
+                }
+                // The channel of a table still in use was closed by the interrupt of another reader
+                reopen(current);
+                buffer.clear();
+            }
+        }
+    }
+
+    private synchronized void reopen(FileChannel closed) throws IOException {
+        if (channel == closed && !released) {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Malformed entry in a table");
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    // Reads the entries of the table in order, block by block
+    public class Scanner {
+        private final int fromLeaf;
+        private int nextBlock;
+        private ByteBuffer entries = ByteBuffer.allocate(0);
+
+        private String key;
+        private String value;
+        private int version;
+
+        private Scanner(int firstBlock, int fromLeaf) {
+            this.nextBlock = firstBlock;
+            this.fromLeaf = fromLeaf;
+        }
+
+        // Move to the next entry, returns false at the end of the table
+        public boolean next() throws IOException {
+            while (true) {
+                while (!entries.hasRemaining()) {
+                    if (nextBlock == firstKeys.length) {
+                        key = null;
+                        return false;
+                    }
+                    entries = readBlock(nextBlock++);
+                }
+                key = readString(entries);
+                value = readString(entries);
+                version = entries.getInt();
+                if (MerkleTree.leafOf(key) >= fromLeaf) {
+                    return true;
+                }
+            }
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+    }
+
+    // Writes the entries of a table, in order, to a temporary file which becomes the table once committed
+    public static class Writer implements AutoCloseable {
+        private final Path file;
+        private final Path temporaryFile;
+        private final FileOutputStream fileOutput;
+        private final DataOutputStream output;
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+        private final DataOutputStream blockOutput = new DataOutputStream(block);
+        private final BloomFilter bloomFilter;
+
+        private final List<String> firstKeys = new ArrayList<>();
+        private final List<long[]> blockPositions = new ArrayList<>();
+        private String blockFirstKey;
+        private String lastKey;
+        private long position = HEADER_LENGTH;
+        private long keyCount;
+        private boolean committed;
+
+        public Writer(Path file, long expectedKeys) throws IOException {
+            this.file = file;
+            this.temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+            this.fileOutput = new FileOutputStream(temporaryFile.toFile());
+            this.output = new DataOutputStream(new BufferedOutputStream(fileOutput, 1 << 20));
+            this.bloomFilter = new BloomFilter(expectedKeys);
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+        }
+
+        // Add an entry, the keys must be added in the order of compareKeys()
+        public void add(String key, String value, int version) throws IOException {
+            if (lastKey != null && compareKeys(lastKey, key) >= 0) {
+                throw new IllegalArgumentException("Key " + key + " added out of order");
+            }
+            if (blockFirstKey == null) {
+                blockFirstKey = key;
+            }
+            writeString(blockOutput, key);
+            writeString(blockOutput, value);
+            blockOutput.writeInt(version);
+            bloomFilter.add(key);
+            lastKey = key;
+            keyCount++;
+            if (block.size() >= BLOCK_SIZE) {
+                finishBlock();
+            }
+        }
+
+        public long getKeyCount() {
+            return keyCount;
+        }
+
+        // Force the table to disk and give it its final name
+        public void commit() throws IOException {
+            finishBlock();
+            long indexOffset = position;
+            ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+            DataOutputStream metadataOutput = new DataOutputStream(metadata);
+            metadataOutput.writeInt(firstKeys.size());
+            for (int i = 0; i < firstKeys.size(); i++) {
+                writeString(metadataOutput, firstKeys.get(i));
+                long[] block = blockPositions.get(i);
+                metadataOutput.writeLong(block[0]);
+                metadataOutput.writeInt((int) block[1]);
+                metadataOutput.writeInt((int) block[2]);
+            }
+            bloomFilter.writeTo(metadataOutput);
+            metadataOutput.flush();
+            CRC32 crc = new CRC32();
+            crc.update(metadata.toByteArray());
+            metadata.writeTo(output);
+            output.writeLong(indexOffset);
+            output.writeLong(keyCount);
+            output.writeInt((int) crc.getValue());
+            output.writeInt(MAGIC);
+            output.flush();
+            fileOutput.getChannel().force(true);
+            fileOutput.close();
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        // Discard the table unless it was committed
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                fileOutput.close();
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+
+        private void finishBlock() throws IOException {
+            if (block.size() == 0) {
+                return;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(block.toByteArray());
+            firstKeys.add(blockFirstKey);
+            blockPositions.add(new long[] {position, block.size(), (int) crc.getValue()});
+            block.writeTo(output);
+            position += block.size();
+            block.reset();
+            blockFirstKey = null;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.app.Replica;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Off-heap memory holding the values of a {@link Storage}, so that the heap
+ * only holds the index of the keys and the garbage collector never scans or
+ * copies the values.
+ *
+ * Memory is reserved in slabs, direct buffers of {@link #getSlabSize()} bytes,
+ * up to a maximum. Every slab is cut into chunks of one size class, the classes
+ * growing by a factor of 1.25 from 32 bytes up to the slab size. A value goes
+ * into a chunk of the smallest class it fits in, with its length in front of
+ * it, and is referred to by a long holding its slab and its offset. Freed
+ * chunks go to the free list of their class and are reused before the class
+ * takes a new slab; slabs are never given back.
+ *
+ * Reads are not synchronized with frees: a chunk read while it is freed and
+ * reused returns garbage, so the caller must make sure the value it read was
+ * still the one of its key afterwards, as {@link Storage} does.
+ */
+public class SlabArena {
+    // Reference of no value, returned when the arena cannot store a value
+    public static final long NO_REF = -1;
+
+    private static final int MIN_CHUNK_SIZE = 32;
+    private static final double GROWTH_FACTOR = 1.25;
+
+    // Length stored in front of every value
+    private static final int LENGTH_BYTES = 4;
+
+    private final int slabSize;
+    private final ByteBuffer[] slabs;
+    private final SlabClass[] slabOwners;
+    private final SlabClass[] classes;
+
+    // Buffer values are copied into before being decoded, so that a read only allocates the string it returns
+    private final ThreadLocal<byte[]> readBuffers = ThreadLocal.withInitial(() -> new byte[256]);
+
+    // Slabs handed out so far, only grows
+    private int slabCount;
+
+    public SlabArena(long maxBytes, int slabSize) {
+        this.slabSize = slabSize;
+        this.slabs = new ByteBuffer[(int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, maxBytes / slabSize))];
+        this.slabOwners = new SlabClass[slabs.length];
+
+        List<SlabClass> sizeClasses = new ArrayList<>();
+        int chunkSize = MIN_CHUNK_SIZE;
+        while (chunkSize < slabSize) {
+            sizeClasses.add(new SlabClass(chunkSize));
+            // Chunks stay aligned on 8 bytes
+            chunkSize = Math.min(slabSize, (int) Math.ceil(chunkSize * GROWTH_FACTOR / 8) * 8);
+        }
+        sizeClasses.add(new SlabClass(slabSize));
+        this.classes = sizeClasses.toArray(new SlabClass[0]);
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    // Largest value, in bytes, the arena can store
+    public int getMaxValueBytes() {
+        return slabSize - LENGTH_BYTES;
+    }
+
+    // Copy a value into the arena, returns its reference or NO_REF if it is too large or the arena is full
+    public long store(byte[] value) {
+        SlabClass slabClass = classFor(LENGTH_BYTES + value.length);
+        if (slabClass == null) {
+            return NO_REF;
+        }
+        long ref = slabClass.allocate();
+        if (ref == NO_REF) {
+            return NO_REF;
+        }
+        ByteBuffer chunk = slabs[slabOf(ref)].duplicate();
+        chunk.position(offsetOf(ref));
+        chunk.putInt(value.length).put(value);
+        slabClass.addStoredBytes(value.length);
+        return ref;
+    }
+
+    public long store(String value) {
+        return store(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Copy a value out of the arena, null if the chunk does not hold a value anymore
+    public String read(long ref) {
+        ByteBuffer slab = slabs[slabOf(ref)];
+        int offset = offsetOf(ref);
+        int length = slab.getInt(offset);
+        // A chunk reused by a larger class may hold any length
+        if (length < 0 || length > slab.capacity() - offset - LENGTH_BYTES) {
+            return null;
+        }
+        byte[] buffer = readBuffers.get();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+            readBuffers.set(buffer);
+        }
+        ByteBuffer chunk = slab.duplicate();
+        chunk.position(offset + LENGTH_BYTES);
+        chunk.get(buffer, 0, length);
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Return the chunk of a value to its class, the reference must not be used afterwards
+    public void free(long ref) {
+        SlabClass slabClass = slabOwners[slabOf(ref)];
+        slabClass.release(ref, slabs[slabOf(ref)].getInt(offsetOf(ref)));
+    }
+
+    // Memory used by every size class that holds at least one slab
+    public List<ClassStats> getClassStats() {
+        List<ClassStats> stats = new ArrayList<>();
+        for (SlabClass slabClass : classes) {
+            ClassStats classStats = slabClass.stats();
+            if (classStats.getSlabs() > 0) {
+                stats.add(classStats);
+            }
+        }
+        return stats;
+    }
+
+    public long getReservedBytes() {
+        synchronized (slabs) {
+            return (long) slabCount * slabSize;
+        }
+    }
+
+    private SlabClass classFor(int size) {
+        if (size > slabSize) {
+            return null;
+        }
+        int low = 0;
+        int high = classes.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (classes[middle].chunkSize < size) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return classes[low];
+    }
+
+    // Reserve a new slab for a class, returns its index or -1 once the arena reached its maximum size
+    private int newSlab(SlabClass owner) {
+        synchronized (slabs) {
+            if (slabCount == slabs.length) {
+                return -1;
+            }
+            slabs[slabCount] = ByteBuffer.allocateDirect(slabSize);
+            slabOwners[slabCount] = owner;
+            return slabCount++;
+        }
+    }
+
+    private static int slabOf(long ref) {
+        return (int) (ref >>> 32);
+    }
+
+    private static int offsetOf(long ref) {
+        return (int) ref;
+    }
+
+    // Chunks of one size, with the slabs they are cut from and the chunks freed
+    private final class SlabClass {
+        private final int chunkSize;
+        private final int chunksPerSlab;
+        private int ownedSlabs;
+
+        // Newest slab of the class and its next chunk never used, -1 before the class has a slab
+        private int currentSlab = -1;
+        private int nextChunk;
+
+        private long[] freeChunks = new long[64];
+        private int freeChunkCount;
+        private long usedChunks;
+        private long storedBytes;
+
+        private SlabClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = slabSize / chunkSize;
+        }
+
+        private synchronized long allocate() {
+            long ref;
+            if (freeChunkCount > 0) {
+                ref = freeChunks[--freeChunkCount];
+            } else {
+                if (currentSlab < 0 || nextChunk == chunksPerSlab) {
+                    int slab = newSlab(this);
+                    if (slab < 0) {
+                        return NO_REF;
+                    }
+                    currentSlab = slab;
+                    ownedSlabs++;
+                    nextChunk = 0;
+                }
+                ref = ((long) currentSlab << 32) | ((long) nextChunk++ * chunkSize);
+            }
+            usedChunks++;
+            return ref;
+        }
+
+        private synchronized void release(long ref, int valueBytes) {
+            if (freeChunkCount == freeChunks.length) {
+                freeChunks = Arrays.copyOf(freeChunks, freeChunkCount * 2);
+            }
+            freeChunks[freeChunkCount++] = ref;
+            usedChunks--;
+            storedBytes -= valueBytes;
+        }
+
+        private synchronized void addStoredBytes(long bytes) {
+            storedBytes += bytes;
+        }
+
+        private synchronized ClassStats stats() {
+            return new ClassStats(chunkSize, ownedSlabs, (long) ownedSlabs * chunksPerSlab, usedChunks, storedBytes);
+        }
+    }
+
+    // Memory used by one size class
+    public static final class ClassStats {
+        private final int chunkSize;
+        private final int slabs;
+        private final long chunks;
+        private final long usedChunks;
+        private final long storedBytes;
+
+        private ClassStats(int chunkSize, int slabs, long chunks, long usedChunks, long storedBytes) {
+            this.chunkSize = chunkSize;
+            this.slabs = slabs;
+            this.chunks = chunks;
+            this.usedChunks = usedChunks;
+            this.storedBytes = storedBytes;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public int getSlabs() {
+            return slabs;
+        }
+
+        public long getChunks() {
+            return chunks;
+        }
+
+        public long getUsedChunks() {
+            return usedChunks;
+        }
+
+        // Bytes of the values stored in the class, the rest of its used chunks is lost to rounding up
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "ClassStats [chunkSize=" + chunkSize + ", slabs=" + slabs + ", chunks=" + chunks + ", usedChunks="
+                    + usedChunks + ", storedBytes=" + storedBytes + "]";
+        }
+    }
+}
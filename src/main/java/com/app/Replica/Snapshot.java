@@ -0,0 +1,266 @@
+package com.app.Replica;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point-in-time copy of the keys, values and versions of a {@link Storage},
+ * written next to the {@link WriteAheadLog} so that a restart loads the
+ * snapshot and replays only the log segments written after it.
+ *
+ * A snapshot is named after the first log segment it does not cover. It is
+ * written while the replica keeps accepting writes. The copy may include some
+ * writes of the later segments, and replaying those segments applies them
+ * again, in order, which gives the same result.
+ *
+ * File:   int magic | int format version | entries | long entry count | int CRC32 of everything before
+ * Entry:  int key length | key bytes | int value length | value bytes | int version
+ *
+ * Snapshots are written to a temporary file and renamed once complete. They
+ * are loaded through memory-mapped windows of the file.
+ */
+public class Snapshot implements AutoCloseable {
+    private static final int MAGIC = 0x51534e50;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int FOOTER_LENGTH = 12;
+
+    // Size of the regions of the file mapped at once, an entry must fit in one of them
+    private static final long MAPPING_WINDOW = 1L << 30;
+
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    private final Path file;
+    private final long segment;
+    private final FileChannel channel;
+    private final long entryCount;
+
+    private Snapshot(Path file, long segment) throws IOException {
+        this.file = file;
+        this.segment = segment;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_LENGTH + FOOTER_LENGTH) {
+                throw new IOException("Snapshot " + file + " is truncated");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Snapshot " + file + " has an unknown format");
+            }
+            MappedByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - FOOTER_LENGTH,
+                    FOOTER_LENGTH);
+            entryCount = footer.getLong();
+            // The checksum covers everything before it, the entry count included
+            if (footer.getInt() != (int) checksum(size - 4)) {
+                throw new IOException("Snapshot " + file + " is corrupted");
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Open the most recent snapshot in the directory, returns null if there is none
+    public static Snapshot openLatest(Path directory) throws IOException {
+        long latest = -1;
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+                for (Path candidate : files) {
+                    long segment = segmentOf(candidate);
+                    latest = Math.max(latest, segment);
+                }
+            }
+        }
+        return latest < 0 ? null : new Snapshot(getFile(directory, latest), latest);
+    }
+
+    public static Path getFile(Path directory, long segment) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, segment, SUFFIX));
+    }
+
+    // First log segment whose records are not in the snapshot
+    public long getSegment() {
+        return segment;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Apply every entry of the snapshot
+    public void load(WriteAheadLog.RecordHandler handler) throws IOException {
+        MappedReader reader = new MappedReader(channel, HEADER_LENGTH, channel.size() - FOOTER_LENGTH);
+        for (long i = 0; i < entryCount; i++) {
+            String key = reader.readString();
+            String value = reader.readString();
+            handler.apply(key, value, reader.readInt());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Start writing the snapshot named after the first log segment it does not cover
+    public static Writer create(Path directory, long segment) throws IOException {
+        return new Writer(getFile(directory, segment));
+    }
+
+    // Delete the snapshots older than the given one
+    public static void deleteBefore(Path directory, long segment) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for (Path candidate : files) {
+                if (segmentOf(candidate) < segment) {
+                    Files.deleteIfExists(candidate);
+                }
+            }
+        }
+    }
+
+    // Segment number in the name of a snapshot file, -1 if the name is not one of a snapshot
+    private static long segmentOf(Path file) {
+        String name = file.getFileName().toString();
+        int end = name.indexOf('.', PREFIX.length());
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), end < 0 ? name.length() : end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long checksum(long length) throws IOException {
+        CRC32 crc = new CRC32();
+        for (long position = 0; position < length; position += MAPPING_WINDOW) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAPPING_WINDOW, length - position)));
+        }
+        return crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    // Writes the entries of a snapshot to a temporary file, which becomes the snapshot once committed
+    public static class Writer implements AutoCloseable {
+        private final Path file;
+        private final Path temporaryFile;
+        private final FileOutputStream fileOutput;
+        private final CheckedOutputStream checkedOutput;
+        private final DataOutputStream output;
+        private long entries;
+        private boolean committed;
+
+        private Writer(Path file) throws IOException {
+            this.file = file;
+            this.temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+            this.fileOutput = new FileOutputStream(temporaryFile.toFile());
+            this.checkedOutput = new CheckedOutputStream(new BufferedOutputStream(fileOutput, 1 << 20), new CRC32());
+            this.output = new DataOutputStream(checkedOutput);
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+        }
+
+        public void add(String key, String value, int version) throws IOException {
+            writeString(output, key);
+            writeString(output, value);
+            output.writeInt(version);
+            entries++;
+        }
+
+        // Force the snapshot to disk under its final name, returns the number of entries
+        public long commit() throws IOException {
+            output.writeLong(entries);
+            output.flush();
+            output.writeInt((int) checkedOutput.getChecksum().getValue());
+            output.flush();
+            fileOutput.getChannel().force(true);
+            fileOutput.close();
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+            // The rename is durable only once the directory is, the log must not be truncated before that
+            try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+                directory.force(true);
+            }
+            committed = true;
+            return entries;
+        }
+
+        // Discard the snapshot unless it was committed
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                fileOutput.close();
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+    }
+
+    // Reads the entries through a window of the file that moves forward as they are consumed
+    private static class MappedReader {
+        private final FileChannel channel;
+        private final long end;
+        private ByteBuffer window;
+        private long windowStart;
+        private byte[] scratch = new byte[256];
+
+        private MappedReader(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.end = end;
+            this.windowStart = start;
+            this.window = ByteBuffer.allocate(0);
+        }
+
+        private int readInt() throws IOException {
+            ensureAvailable(4);
+            return window.getInt();
+        }
+
+        private String readString() throws IOException {
+            int length = readInt();
+            if (length < 0) {
+                throw new IOException("Malformed entry in the snapshot");
+            }
+            ensureAvailable(length);
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            window.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        // Map the next region of the file if the current one has fewer than the given number of bytes left
+        private void ensureAvailable(int length) throws IOException {
+            if (window.remaining() >= length) {
+                return;
+            }
+            long position = windowStart + window.position();
+            if (position + length > end) {
+                throw new IOException("Unexpected end of the snapshot");
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_WINDOW, end - position));
+            windowStart = position;
+        }
+    }
+}
@@ -1,118 +1,504 @@
 package com.app.Replica;
 
+import com.app.Common.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class Storage {
-    // Data structure to store key-value pairs
-    private ConcurrentHashMap<String, String> store = new ConcurrentHashMap<>();
+/**
+ * Keys of a replica with their values, versions and write locks.
+ *
+ * The values, versions and write locks are kept by a {@link StorageEngine},
+ * in memory by default. The storage runs the locking protocol over it: it
+ * grants the write locks and their leases, makes sure only the holder of the
+ * lock on a key writes it, logs the writes, and keeps the Merkle tree of the
+ * values.
+ */
+public class Storage implements Closeable {
+    // Values, versions and write locks of the keys, a key only has a lock while it is locked or its expired lease
+    // has not been reaped yet
+    private final StorageEngine engine;
 
-    // Data structure to store version numbers for keys
-    private ConcurrentHashMap<String, Integer> versions = new ConcurrentHashMap<>();
+    // Keys with a value
+    private final LongAdder keyCount = new LongAdder();
 
-    // Data structure to store write lock holders
-    private ConcurrentHashMap<String, InetSocketAddress> writeLockHolders = new ConcurrentHashMap<>();
+    // Hashes of the values of the keys, compared with other replicas by the anti-entropy service
+    private final MerkleTree merkleTree = new MerkleTree();
 
-    // Data structure to store read-write locks for keys
-    private ConcurrentHashMap<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+    // Log of the writes replayed on startup, null when the storage only lives in memory
+    private final WriteAheadLog writeAheadLog;
 
-    public WriteLockResult acquireWriteLock(String key, InetSocketAddress holder) {
-        // Acquire the write lock on the key
-        ReentrantReadWriteLock lock = locks.computeIfAbsent(key, k -> new ReentrantReadWriteLock());
-
-        InetSocketAddress currentHolder = writeLockHolders.get(key);
-
-        if (currentHolder == null) {
-            // No lock on the key
-            try {
-                if (lock.writeLock().tryLock(0, java.util.concurrent.TimeUnit.MILLISECONDS)) {
-                    writeLockHolders.put(key, holder);
-                    int currentVersion = versions.getOrDefault(key, 0);
-                    return new WriteLockResult(true, currentVersion); // Lock acquired
-                } else {
-                    return new WriteLockResult(false, 0); // Lock not acquired
+    // Held by the writes between logging and applying them, and exclusively to rotate the log for a snapshot
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    // First log segment not covered by the latest snapshot
+    private long snapshotSegment;
+
+    // Time a write lock is held unless its holder renews it, 0 when locks never expire
+    private final long lockTtlMs;
+
+    // Leases of the write locks ordered by deadline, null when locks never expire
+    private final LeaseWheel leaseWheel;
+
+    // Deadline of a lease that does not expire, such as the one of a write being logged
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    // Slots of the lease wheel, a lease further away than a revolution is visited once per revolution
+    private static final int LEASE_WHEEL_SLOTS = 512;
+
+    public Storage() {
+        this(0);
+    }
+
+    public Storage(long lockTtlMs) {
+        this(lockTtlMs, (SlabArena) null);
+    }
+
+    // Storage keeping its values in the given off-heap arena, or on the heap if it is null
+    public Storage(long lockTtlMs, SlabArena arena) {
+        this(new InMemoryStorageEngine(arena), lockTtlMs);
+    }
+
+    // Storage keeping its values in the given engine, the data already in a persistent engine is loaded
+    public Storage(StorageEngine engine, long lockTtlMs) {
+        this.engine = engine;
+        this.writeAheadLog = null;
+        this.lockTtlMs = lockTtlMs;
+        this.leaseWheel = newLeaseWheel(lockTtlMs);
+        try {
+            loadEngine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Storage(WriteAheadLog writeAheadLog) throws IOException {
+        this(writeAheadLog, 0);
+    }
+
+    public Storage(WriteAheadLog writeAheadLog, long lockTtlMs) throws IOException {
+        this(writeAheadLog, lockTtlMs, (SlabArena) null);
+    }
+
+    public Storage(WriteAheadLog writeAheadLog, long lockTtlMs, SlabArena arena) throws IOException {
+        this(writeAheadLog, lockTtlMs, new InMemoryStorageEngine(arena));
+    }
+
+    // Restore the data of the engine and the writes logged after it, and record the next writes in the log. An engine
+    // that is not persistent is restored from the latest snapshot.
+    public Storage(WriteAheadLog writeAheadLog, long lockTtlMs, StorageEngine engine) throws IOException {
+        this.engine = engine;
+        this.writeAheadLog = writeAheadLog;
+        this.lockTtlMs = lockTtlMs;
+        this.leaseWheel = newLeaseWheel(lockTtlMs);
+        WriteAheadLog.RecordHandler restore = this::restore;
+
+        long firstSegment = 0;
+        try {
+            if (engine.isPersistent()) {
+                loadEngine();
+                firstSegment = engine.getCheckpoint();
+            } else {
+                try (Snapshot snapshot = Snapshot.openLatest(writeAheadLog.getDirectory())) {
+                    if (snapshot != null) {
+                        long start = System.nanoTime();
+                        engine.reserve(snapshot.getEntryCount());
+                        snapshot.load(restore);
+                        firstSegment = snapshot.getSegment();
+                        Log.info("Loaded " + snapshot.getEntryCount() + " keys from " + snapshot.getFile() + " in "
+                                + (System.nanoTime() - start) / 1000000 + " ms");
+                    }
                 }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
             }
-        } else if (currentHolder.equals(holder)) {
-            // Clients already holds the lock
-            int currentVersion = versions.getOrDefault(key, 0);
-            return new WriteLockResult(true, currentVersion);
+            snapshotSegment = firstSegment;
+            int records = writeAheadLog.replay(firstSegment, restore);
+            Log.info("Replayed " + records + " records from " + writeAheadLog.getDirectory());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+    }
 
-        return new WriteLockResult(false, 0);
+    // Count the keys of a persistent engine and rebuild their Merkle tree
+    private void loadEngine() throws IOException {
+        if (!engine.isPersistent()) {
+            return;
+        }
+        long start = System.nanoTime();
+        engine.forEach((key, value, version) -> {
+            merkleTree.update(key, 0, MerkleTree.hashEntry(key, value, version));
+            keyCount.increment();
+        });
+        Log.info("Indexed " + keyCount.sum() + " keys of the storage engine in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
 
+    // Apply a write read from a snapshot or the log
+    private void restore(String key, String value, int version) {
+        try {
+            VersionedValue previous = engine.get(key);
+            engine.put(key, value, version);
+            merkleTree.update(key, hashOf(key, previous), MerkleTree.hashEntry(key, value, version));
+            if (previous == null) {
+                keyCount.increment();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    public void releaseWriteLock(String key, InetSocketAddress holder) {
-        // Release the write lock on the key if held by the specified holder
-        ReentrantReadWriteLock lock = locks.get(key);
-        if (lock != null) {
-            try {
-                InetSocketAddress currentHolder = writeLockHolders.get(key);
-                if (currentHolder != null && currentHolder.equals(holder)) {
-                    writeLockHolders.remove(key);
-                    // Release the write lock on the key
-                    lock.writeLock().unlock();
+    // Write a snapshot of the storage while it keeps accepting writes, then delete the log segments it covers. A
+    // persistent engine writes its own data to disk instead.
+    public synchronized void snapshot() throws IOException {
+        if (writeAheadLog == null) {
+            return;
+        }
+        if (snapshotSegment == writeAheadLog.getActiveSegment() && writeAheadLog.isActiveSegmentEmpty()) {
+            // Nothing was written since the latest snapshot
+            return;
+        }
+
+        // Wait for the writes already logged to be applied, so the snapshot sees every write of the older segments
+        long segment;
+        checkpointLock.writeLock().lock();
+        try {
+            segment = writeAheadLog.rotate();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+
+        long start = System.nanoTime();
+        if (engine.isPersistent()) {
+            engine.checkpoint(segment);
+            Log.info("Checkpoint of the storage engine written in " + (System.nanoTime() - start) / 1000000 + " ms");
+        } else {
+            long written;
+            try (Snapshot.Writer writer = Snapshot.create(writeAheadLog.getDirectory(), segment)) {
+                for (int leaf = 0; leaf < MerkleTree.LEAVES; leaf++) {
+                    for (Map.Entry<String, VersionedValue> entry : getLeafEntries(leaf).entrySet()) {
+                        writer.add(entry.getKey(), entry.getValue().getValue(), entry.getValue().getVersion());
+                    }
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+                written = writer.commit();
             }
-
+            Snapshot.deleteBefore(writeAheadLog.getDirectory(), segment);
+            Log.info("Snapshot of " + written + " keys written in " + (System.nanoTime() - start) / 1000000
+                    + " ms");
         }
+        writeAheadLog.deleteSegmentsBefore(segment);
+        snapshotSegment = segment;
     }
 
-    public String get(String key) {
-        // Acquire read lock on the key
-        ReentrantReadWriteLock lock = locks.computeIfAbsent(key, k -> new ReentrantReadWriteLock());
+    // Write what the engine holds in memory to disk and release its resources
+    @Override
+    public void close() throws IOException {
+        engine.close();
+    }
 
-        // Try to acquire the read lock without blocking the thread
-        boolean lockAcquired = lock.readLock().tryLock();
+    public StorageEngine getEngine() {
+        return engine;
+    }
 
-        if (!lockAcquired) {
-            // Failed to acquire the lock, return null or handle the case as needed
-            System.out.println("Failed to acquire read lock for key: " + key);
+    // Off-heap memory used by the values, null when the values are kept on the heap or by a disk engine
+    public SlabArena getArena() {
+        return engine instanceof InMemoryStorageEngine ? ((InMemoryStorageEngine) engine).getArena() : null;
+    }
+
+    // Hash of the value of a key in the Merkle tree, 0 for a key without value
+    private static long hashOf(String key, VersionedValue value) {
+        return value == null ? 0 : MerkleTree.hashEntry(key, value.getValue(), value.getVersion());
+    }
+
+    public long getMerkleHash(int node) {
+        return merkleTree.getHash(node);
+    }
+
+    // Values of the keys in a leaf of the Merkle tree, keys without value are left out. Throws an
+    // UncheckedIOException if the engine cannot read them.
+    public Map<String, VersionedValue> getLeafEntries(int leaf) {
+        Map<String, VersionedValue> leafEntries = new HashMap<>();
+        try {
+            engine.forEachInLeaf(leaf, (key, value, version) -> leafEntries.put(key,
+                    new VersionedValue(value, version)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return leafEntries;
+    }
+
+    private static LeaseWheel newLeaseWheel(long lockTtlMs) {
+        if (lockTtlMs <= 0) {
             return null;
         }
+        // Expire the leases within a tenth of their time to live
+        long tickMs = Math.max(1, Math.min(1000, lockTtlMs / 10));
+        return new LeaseWheel(tickMs, LEASE_WHEEL_SLOTS, now());
+    }
 
+    // Interval at which reapExpiredLeases() should run, 0 when locks never expire
+    public long getLeaseTickMs() {
+        return leaseWheel == null ? 0 : leaseWheel.getTickMs();
+    }
+
+    public WriteLockResult acquireWriteLock(String key, InetSocketAddress holder) {
+        // Take the lock if nobody holds it or its lease expired. The holder of the lock renews its lease.
+        long now = now();
+        long deadline = leaseDeadline(now);
+        WriteLock lock = engine.updateLock(key, current -> {
+            if (current == null) {
+                return new WriteLock(holder, deadline);
+            }
+            if (current.isHeldBy(holder, now)) {
+                return new WriteLock(holder, Math.max(current.leaseDeadline, deadline));
+            }
+            return current.isLocked(now) ? current : new WriteLock(holder, deadline);
+        });
+
+        if (!lock.isHeldBy(holder, now)) {
+            return new WriteLockResult(false, 0);
+        }
+        // Lock acquired, or the client already holds it. The version cannot change while the lock is held.
+        scheduleLease(key, lock);
         try {
-            String value = store.get(key);
-            int version;
+            VersionedValue current = engine.get(key);
+            return new WriteLockResult(true, current == null ? 0 : current.getVersion());
+        } catch (IOException e) {
+            Log.error("Failed to read the version of key " + key, e);
+            releaseWriteLock(key, holder);
+            return new WriteLockResult(false, 0);
+        }
+    }
 
-            if (value == null) {
-                // Value not yet stored on this replica
-                value = "";
-                version = -1;
-            } else {
-                version = versions.get(key);
+    // Extend the lease of a write lock still held by the holder
+    public WriteLockResult renewWriteLock(String key, InetSocketAddress holder) {
+        long now = now();
+        long deadline = leaseDeadline(now);
+        WriteLock lock = engine.updateLock(key, current -> current != null && current.isHeldBy(holder, now)
+                ? new WriteLock(holder, Math.max(current.leaseDeadline, deadline))
+                : current);
+
+        if (lock == null || !lock.isHeldBy(holder, now)) {
+            return new WriteLockResult(false, 0);
+        }
+        scheduleLease(key, lock);
+        try {
+            VersionedValue current = engine.get(key);
+            return new WriteLockResult(true, current == null ? 0 : current.getVersion());
+        } catch (IOException e) {
+            Log.error("Failed to read the version of key " + key, e);
+            return new WriteLockResult(false, 0);
+        }
+    }
+
+    public void releaseWriteLock(String key, InetSocketAddress holder) {
+        // Release the write lock on the key if held by the specified holder
+        engine.updateLock(key, current -> current != null && holder.equals(current.holder) ? null : current);
+    }
+
+    // Release the write locks whose lease expired, a lock still counts as released before its lease is reaped
+    public void reapExpiredLeases() {
+        if (leaseWheel == null) {
+            return;
+        }
+        long now = now();
+        leaseWheel.advance(now, lease -> engine.updateLock(lease.getKey(), current -> {
+            // A lease renewed or released since it was scheduled is not the one of the lock anymore
+            if (current == null || current.leaseDeadline != lease.getDeadlineMs() || current.leaseDeadline > now) {
+                return current;
             }
+            Log.info("Lease of the write lock on key " + lease.getKey() + " held by " + current.holder + " expired");
+            return null;
+        }));
+    }
 
-            // Return a copy of the value with the current version number
-            return new String(value + " " + version);
-        } finally {
-            // Release read lock on the key
-            lock.readLock().unlock();
+    private long leaseDeadline(long now) {
+        return lockTtlMs > 0 ? now + lockTtlMs : NO_EXPIRY;
+    }
+
+    private void scheduleLease(String key, WriteLock lock) {
+        if (leaseWheel != null && lock.leaseDeadline != NO_EXPIRY) {
+            leaseWheel.schedule(key, lock.leaseDeadline);
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    public String get(String key) {
+        VersionedValue versionedValue = getVersioned(key);
+        if (versionedValue == null) {
+            return null;
         }
+        // Return a copy of the value with the current version number
+        return versionedValue.getValue() + " " + versionedValue.getVersion();
+    }
+
+    // Value and version of a key, a version of -1 for a key not yet stored on this replica, null while a write is in
+    // progress on the key. The engine checks the lock and reads the value in one lookup.
+    public VersionedValue getVersioned(String key) {
+        VersionedValue value;
+        try {
+            value = engine.read(key, now());
+        } catch (IOException e) {
+            Log.error("Failed to read key " + key, e);
+            return null;
+        }
+        if (value == null && Log.isTraced()) {
+            Log.debug("Failed to acquire read lock for key: " + key);
+        }
+        return value;
     }
 
     public boolean put(String key, String value, InetSocketAddress holder, Integer version) {
-        // Check if the client holds the write lock for the given key
-        InetSocketAddress currentHolder = writeLockHolders.get(key);
-        if (currentHolder == null || !currentHolder.equals(holder)) {
+        if (writeAheadLog == null) {
+            return apply(key, value, holder, version);
+        }
+
+        // Check if the client holds the write lock for the given key, and keep its lease from expiring until the
+        // write is applied so that a logged write is never lost with its lock
+        long now = now();
+        WriteLock pinned = engine.updateLock(key, current -> current != null && current.isHeldBy(holder, now)
+                ? current.pinned()
+                : current);
+        if (pinned == null || !pinned.isHeldBy(holder, now)) {
             // Client does not hold the write lock for the key
             return false;
         }
+        return logAndApply(key, value, holder, version);
+    }
+
+    // The write is logged before it becomes visible, it is lost if it cannot be logged
+    private boolean logAndApply(String key, String value, InetSocketAddress holder, int version) {
+        checkpointLock.readLock().lock();
         try {
-            store.put(key, value);
-            versions.put(key, version);
-            return true;
+            writeAheadLog.append(key, value, version);
+            return apply(key, value, holder, version);
+        } catch (IOException e) {
+            Log.error("Failed to log the write of key " + key, e);
+            releaseWriteLock(key, holder);
+            return false;
         } finally {
-            // Release the write lock on the key
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    // Write the value with a new version if the key is not locked and still at the expected version, the version of
+    // a key without value being -1. The key is locked for the holder while the write is logged.
+    public ConditionalPutResult putIfVersion(String key, String value, InetSocketAddress holder, int expectedVersion,
+            int newVersion) {
+        int currentVersion;
+        if (!reserve(key, holder)) {
+            currentVersion = currentVersion(key);
+            return new ConditionalPutResult(false, currentVersion);
+        }
+        currentVersion = currentVersion(key);
+        if (currentVersion == Integer.MIN_VALUE || currentVersion != expectedVersion
+                || newVersion <= currentVersion) {
+            releaseWriteLock(key, holder);
+            return new ConditionalPutResult(false, currentVersion);
+        }
+        if (writeAheadLog == null ? apply(key, value, holder, newVersion)
+                : logAndApply(key, value, holder, newVersion)) {
+            return new ConditionalPutResult(true, newVersion);
+        }
+        return new ConditionalPutResult(false, expectedVersion);
+    }
+
+    // Write a value read from another replica if it is newer than the one of this replica and the key is not locked,
+    // used to repair replicas that missed writes
+    public boolean putIfNewer(String key, String value, InetSocketAddress holder, int version) {
+        if (!reserve(key, holder)) {
+            return false;
+        }
+        int currentVersion = currentVersion(key);
+        if (currentVersion == Integer.MIN_VALUE || version <= currentVersion) {
             releaseWriteLock(key, holder);
-            // remove the holder from the write lock holders
-            writeLockHolders.remove(key);
+            return false;
+        }
+        return writeAheadLog == null ? apply(key, value, holder, version)
+                : logAndApply(key, value, holder, version);
+    }
+
+    // Lock a key that is not locked for the holder until its write is applied
+    private boolean reserve(String key, InetSocketAddress holder) {
+        long now = now();
+        boolean[] reserved = new boolean[1];
+        engine.updateLock(key, current -> {
+            if (current != null && current.isLocked(now)) {
+                return current;
+            }
+            reserved[0] = true;
+            return new WriteLock(holder, NO_EXPIRY);
+        });
+        return reserved[0];
+    }
+
+    // Version of the value of a key, -1 for a key without value and Integer.MIN_VALUE if it cannot be read
+    private int currentVersion(String key) {
+        try {
+            VersionedValue current = engine.get(key);
+            return current == null ? -1 : current.getVersion();
+        } catch (IOException e) {
+            Log.error("Failed to read the version of key " + key, e);
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    // Store the value and release the write lock, the Merkle tree being updated with the value replaced. The tree
+    // takes its updates in any order, so it does not have to be updated under the lock of the key.
+    private boolean apply(String key, String value, InetSocketAddress holder, int version) {
+        try {
+            return engine.putAndUnlock(key, value, version, holder, now(), previous -> {
+                merkleTree.update(key, hashOf(key, previous), MerkleTree.hashEntry(key, value, version));
+                if (previous == null) {
+                    keyCount.increment();
+                }
+            });
+        } catch (IOException e) {
+            Log.error("Failed to write key " + key, e);
+            releaseWriteLock(key, holder);
+            return false;
+        }
+    }
+
+    // Holder of the write lock of a key, replaced as a whole when the lock changes hands or its lease is extended
+    public static final class WriteLock {
+        private final InetSocketAddress holder;
+        // Time after which the lock counts as released even if the reaper has not removed it yet
+        private final long leaseDeadline;
+
+        public WriteLock(InetSocketAddress holder, long leaseDeadline) {
+            this.holder = holder;
+            this.leaseDeadline = leaseDeadline;
+        }
+
+        public InetSocketAddress getHolder() {
+            return holder;
+        }
+
+        public long getLeaseDeadline() {
+            return leaseDeadline;
+        }
+
+        public boolean isLocked(long now) {
+            return leaseDeadline > now;
+        }
+
+        public boolean isHeldBy(InetSocketAddress candidate, long now) {
+            return candidate.equals(holder) && leaseDeadline > now;
+        }
+
+        // Same lock with a lease that does not expire, held while a write is logged and applied
+        WriteLock pinned() {
+            return new WriteLock(holder, NO_EXPIRY);
         }
     }
 
@@ -139,16 +525,87 @@ public class Storage {
         }
     }
 
-    // Getters for testing
+    public static class ConditionalPutResult {
+        private boolean success;
+        private int currentVersion;
+
+        public ConditionalPutResult(boolean success, int currentVersion) {
+            this.success = success;
+            this.currentVersion = currentVersion;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public int getCurrentVersion() {
+            return currentVersion;
+        }
+
+        @Override
+        public String toString() {
+            return "ConditionalPutResult [success=" + success + ", currentVersion=" + currentVersion + "]";
+        }
+    }
+
+    public static class VersionedValue {
+        private String value;
+        private int version;
+
+        public VersionedValue(String value, int version) {
+            this.value = value;
+            this.version = version;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        @Override
+        public String toString() {
+            return "VersionedValue [value=" + value + ", version=" + version + "]";
+        }
+    }
+
+    // Getters for testing, copies of the data
     public ConcurrentHashMap<String, String> getStore() {
+        ConcurrentHashMap<String, String> store = new ConcurrentHashMap<>();
+        forEachKey((key, value, version) -> store.put(key, value));
         return store;
     }
 
+    // Versions of the keys with a value
     public ConcurrentHashMap<String, Integer> getVersions() {
+        ConcurrentHashMap<String, Integer> versions = new ConcurrentHashMap<>();
+        forEachKey((key, value, version) -> versions.put(key, version));
         return versions;
     }
 
     public ConcurrentHashMap<String, InetSocketAddress> getWriteLockHolders() {
+        ConcurrentHashMap<String, InetSocketAddress> writeLockHolders = new ConcurrentHashMap<>();
+        long now = now();
+        engine.forEachLock((key, lock) -> {
+            if (lock.isLocked(now)) {
+                writeLockHolders.put(key, lock.holder);
+            }
+        });
         return writeLockHolders;
     }
+
+    // Keys with a value
+    public int getEntryCount() {
+        return (int) Math.min(Integer.MAX_VALUE, keyCount.sum());
+    }
+
+    private void forEachKey(WriteAheadLog.RecordHandler handler) {
+        try {
+            engine.forEach(handler);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
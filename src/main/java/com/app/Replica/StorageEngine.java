@@ -0,0 +1,76 @@
+package com.app.Replica;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Where a {@link Storage} keeps the values, versions and write locks of its
+ * keys.
+ *
+ * The storage runs the locking protocol: it decides who gets a lock and for
+ * how long, logs the writes and keeps the Merkle tree. The engine keeps the
+ * lock of a key next to its value, so that a read checks both in one lookup
+ * and they change together. A value is only written by the holder of the lock
+ * of its key, so an engine may read the previous value of a key before
+ * replacing it, but reads of a key can run at any time, concurrently with its
+ * writes.
+ *
+ * {@link InMemoryStorageEngine} keeps the values and locks in the same entry
+ * and relies on {@link Snapshot}s for durability. {@link LsmStorageEngine}
+ * keeps the values in files and only the locks in memory, and is persistent:
+ * it survives restarts on its own, and only the writes made since its last
+ * checkpoint are replayed from the log.
+ */
+public interface StorageEngine extends Closeable {
+    // Value and version of a key, null if the key has no value
+    Storage.VersionedValue get(String key) throws IOException;
+
+    // Value and version of a key for a client read: null while its write lock is held at the given time, and a
+    // version of -1 for a key without value
+    Storage.VersionedValue read(String key, long now) throws IOException;
+
+    // Store the value of a key regardless of its lock, used to restore the data on startup
+    void put(String key, String value, int version);
+
+    // Store the value of a key and release its write lock if the holder holds it at the given time, telling the
+    // handler the value it replaced, null for none. Returns false without writing if the lock is not held.
+    boolean putAndUnlock(String key, String value, int version, InetSocketAddress holder, long now,
+            Consumer<Storage.VersionedValue> replaced) throws IOException;
+
+    // Write lock of a key, null if it has none
+    Storage.WriteLock getLock(String key);
+
+    // Replace the write lock of a key by the one computed from the current one, null meaning no lock, atomically
+    // with the other changes of the lock. Returns the new lock. The update must be quick and must not block.
+    Storage.WriteLock updateLock(String key, UnaryOperator<Storage.WriteLock> update);
+
+    // Visit the keys that have a write lock
+    void forEachLock(BiConsumer<String, Storage.WriteLock> action);
+
+    // Visit every key with a value in a leaf of the Merkle tree, once each
+    void forEachInLeaf(int leaf, WriteAheadLog.RecordHandler handler) throws IOException;
+
+    // Visit every key with a value, once each
+    default void forEach(WriteAheadLog.RecordHandler handler) throws IOException {
+        for (int leaf = 0; leaf < MerkleTree.LEAVES; leaf++) {
+            forEachInLeaf(leaf, handler);
+        }
+    }
+
+    // Whether the data is kept across restarts without a snapshot
+    boolean isPersistent();
+
+    // First log segment whose writes may not be durable in the engine yet, 0 for an engine that is not persistent
+    long getCheckpoint();
+
+    // Make every write applied so far durable, and record that the log segments before the given one are covered
+    void checkpoint(long logSegment) throws IOException;
+
+    // Make room for a number of keys about to be loaded
+    default void reserve(long keyCount) {
+    }
+}
@@ -1,63 +1,58 @@
 package com.app.Replica;
 
+import com.app.Common.BinaryProtocol;
+import com.app.Common.Log;
+import com.app.Common.Message;
+import com.app.Common.TextProtocol;
+
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.concurrent.ExecutorService;
 
 public class StorageHandler implements Runnable {
     private Socket clientSocket;
-    private Storage replica;
+    private RequestProcessor processor;
+
+    // Threads running the pipelined requests that may complete out of order, null to run them in order
+    private ExecutorService pipelineWorkers;
 
     public StorageHandler(Socket clientSocket, Storage replica) {
+        this(clientSocket, new RequestProcessor(replica), null);
+    }
+
+    public StorageHandler(Socket clientSocket, RequestProcessor processor, ExecutorService pipelineWorkers) {
         this.clientSocket = clientSocket;
-        this.replica = replica;
+        this.processor = processor;
+        this.pipelineWorkers = pipelineWorkers;
     }
 
     @Override
     public void run() {
+        processor.getMetrics().connectionOpened();
         try {
             BufferedReader input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
             PrintWriter output = new PrintWriter(clientSocket.getOutputStream(), true);
+            InetSocketAddress clientAddress = new InetSocketAddress(
+                    clientSocket.getInetAddress().getHostAddress(), clientSocket.getPort());
 
             String request;
+            boolean firstRequest = true;
             while ((request = input.readLine()) != null) {
-                // Process the request and call methods in the Replica class
-                String[] parts = request.split(" ");
-                String method = parts[0];
-                String response = "";
-
-                if ("ACQUIRE_LOCK".equals(method) && parts.length == 2) {
-                    System.out.println("Acquiring write lock for key: " + parts[1]);
-                    String key = parts[1];
-                    InetSocketAddress clientAddress = new InetSocketAddress(
-                            clientSocket.getInetAddress().getHostAddress(), clientSocket.getPort());
-                    Storage.WriteLockResult lockResult = replica.acquireWriteLock(key, clientAddress);
-                    response = lockResult.isSuccess() ? "LOCK_ACQUIRED " + lockResult.getCurrentVersion()
-                            : "LOCK_NOT_ACQUIRED";
-                } else if ("RELEASE_LOCK".equals(method) && parts.length == 2) {
-                    System.out.println("Releasing lock for key " + parts[1]);
-                    String key = parts[1];
-                    InetSocketAddress clientAddress = new InetSocketAddress(
-                            clientSocket.getInetAddress().getHostAddress(), clientSocket.getPort());
-                    replica.releaseWriteLock(key, clientAddress);
-                    response = "LOCK_RELEASED";
-                } else if ("GET".equals(method) && parts.length == 2) {
-                    System.out.println("Getting value for key " + parts[1]);
-                    String key = parts[1];
-                    String value = replica.get(key);
-                    response = (value != null) ? "GET_SUCCESS " + value : "GET_FAILED";
-                } else if ("PUT".equals(method) && parts.length == 4) {
-                    System.out.println("Putting value for key " + parts[1]);
-                    String key = parts[1];
-                    String value = parts[2];
-                    Integer version = Integer.parseInt(parts[3]);
-                    InetSocketAddress clientAddress = new InetSocketAddress(
-                            clientSocket.getInetAddress().getHostAddress(), clientSocket.getPort());
-                    boolean success = replica.put(key, value, clientAddress, version);
-                    response = success ? "PUT_SUCCESS" : "PUT_FAILED";
-                } else {
-                    response = "INVALID_REQUEST";
+                if (firstRequest && BinaryProtocol.NEGOTIATION_REQUEST.equals(request)) {
+                    // The client waits for this answer before sending frames, so the reader holds no frame bytes
+                    output.println(BinaryProtocol.NEGOTIATION_ACCEPTED);
+                    serveBinaryRequests(clientAddress);
+                    break;
+                }
+                if (firstRequest && TextProtocol.PIPELINING_REQUEST.equals(request)) {
+                    output.println(TextProtocol.PIPELINING_ACCEPTED);
+                    servePipelinedRequests(input, output, clientAddress);
+                    break;
                 }
+                firstRequest = false;
+
+                String response = processor.process(request, clientAddress);
 
                 // Send the response back to the client
                 output.println(response);
@@ -66,7 +61,36 @@ public class StorageHandler implements Runnable {
             // Close the connection after handling all requests
             clientSocket.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.warn("Connection of client " + clientSocket.getRemoteSocketAddress() + " failed", e);
+        } finally {
+            processor.getMetrics().connectionClosed();
+        }
+    }
+
+    // Handle the rest of the connection with tagged requests, answering each one as soon as it completes
+    private void servePipelinedRequests(BufferedReader input, PrintWriter output, InetSocketAddress clientAddress)
+            throws IOException {
+        String request;
+        while ((request = input.readLine()) != null) {
+            String taggedRequest = request;
+            if (pipelineWorkers == null || RequestProcessor.touchesWriteLocks(taggedRequest)) {
+                output.println(processor.processTagged(taggedRequest, clientAddress));
+            } else {
+                // PrintWriter.println is atomic, so responses written by the workers do not interleave
+                pipelineWorkers.execute(() -> output.println(processor.processTagged(taggedRequest, clientAddress)));
+            }
+        }
+    }
+
+    // Handle the rest of the connection with the binary protocol
+    private void serveBinaryRequests(InetSocketAddress clientAddress) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
+
+        Message request;
+        while ((request = BinaryProtocol.read(input)) != null) {
+            BinaryProtocol.write(output, processor.process(request, clientAddress));
+            output.flush();
         }
     }
 }
@@ -0,0 +1,510 @@
+package com.app.Replica;
+
+import com.app.Common.Log;
+import com.app.Common.ThreadMode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the writes applied to a {@link Storage}, replayed when the
+ * replica restarts.
+ *
+ * The log is a sequence of numbered segment files in its directory. Records
+ * are appended to the last segment, and {@link #rotate()} starts a new one, so
+ * the segments covered by a snapshot can be deleted.
+ *
+ * Record:  int payload length | int CRC32 of the payload | payload
+ * Payload: int key length | key bytes | int value length | value bytes | int version
+ *
+ * A record that was only partly written when the replica stopped fails its
+ * length or checksum test, and the log is cut before it on replay.
+ *
+ * How the writes reach the disk depends on the {@link FsyncPolicy}. With group
+ * commit, a background thread forces the log every interval, or sooner once
+ * enough records are waiting. Every writer blocks until a force covers its
+ * record, so concurrent writers share one fsync.
+ *
+ * A record whose append failed is cut off the end of the segment before the
+ * failure is reported, together with the records written after it, so that a
+ * write reported as failed is never replayed. If the segment cannot be cut,
+ * the log refuses the next records instead.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    public enum FsyncPolicy {
+        // Force the log after every record
+        ALWAYS,
+        // Force the log for many records at once, every interval or after a number of records
+        GROUP,
+        // Leave flushing to the operating system, records survive a crash of the replica but not of the machine
+        NEVER;
+
+        public static FsyncPolicy fromName(String name) {
+            return valueOf(name.toUpperCase());
+        }
+    }
+
+    // Receives the records of the log in the order they were written
+    public interface RecordHandler {
+        void apply(String key, String value, int version);
+    }
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long groupCommitIntervalMs;
+    private final int groupCommitRecords;
+
+    // Active segment, the end of the records of the segment known to be on disk, and the records waiting for a
+    // force, guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition recordsWritten = lock.newCondition();
+    private final Condition recordsSynced = lock.newCondition();
+    private long segment;
+    private FileChannel channel;
+    private long syncedPosition;
+    private Batch pendingBatch = new Batch();
+    private boolean closed;
+
+    // Failure after which records could not be cut off the log, no record is accepted anymore
+    private IOException failure;
+
+    private final Thread groupCommitThread;
+
+    public WriteAheadLog(Path directory, FsyncPolicy fsyncPolicy, long groupCommitIntervalMs,
+            int groupCommitRecords) throws IOException {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.groupCommitIntervalMs = Math.max(1, groupCommitIntervalMs);
+        this.groupCommitRecords = Math.max(1, groupCommitRecords);
+
+        // Keep appending to the last segment
+        Files.createDirectories(directory);
+        List<Long> segments = listSegments();
+        segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+        channel = openSegment(segment);
+        syncedPosition = channel.position();
+
+        if (fsyncPolicy == FsyncPolicy.GROUP) {
+            groupCommitThread = ThreadMode.PLATFORM.threadFactory("wal-group-commit").newThread(this::runGroupCommit);
+            groupCommitThread.start();
+        } else {
+            groupCommitThread = null;
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Path getSegmentFile(long segment) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    public long getActiveSegment() {
+        lock.lock();
+        try {
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Whether no record was appended to the active segment yet
+    public boolean isActiveSegmentEmpty() throws IOException {
+        lock.lock();
+        try {
+            return channel.size() == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int replay(RecordHandler handler) throws IOException {
+        return replay(0, handler);
+    }
+
+    // Apply every complete record of the segments from the given one onwards, cutting off torn records,
+    // returns the number of records
+    public int replay(long fromSegment, RecordHandler handler) throws IOException {
+        lock.lock();
+        try {
+            int records = 0;
+            for (long replayed : listSegments()) {
+                if (replayed < fromSegment) {
+                    continue;
+                }
+                if (replayed == segment) {
+                    records += replaySegment(channel, getSegmentFile(replayed), handler);
+                    syncedPosition = channel.position();
+                    continue;
+                }
+                try (FileChannel segmentChannel = FileChannel.open(getSegmentFile(replayed), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    records += replaySegment(segmentChannel, getSegmentFile(replayed), handler);
+                }
+            }
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int replaySegment(FileChannel segmentChannel, Path file, RecordHandler handler)
+            throws IOException {
+        long size = segmentChannel.size();
+        long position = 0;
+        int records = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        while (position + RECORD_HEADER_LENGTH <= size) {
+            header.clear();
+            readFully(segmentChannel, header, position);
+            header.flip();
+            int payloadLength = header.getInt();
+            int checksum = header.getInt();
+            if (payloadLength < 0 || position + RECORD_HEADER_LENGTH + payloadLength > size) {
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+            readFully(segmentChannel, payload, position + RECORD_HEADER_LENGTH);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, payloadLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            payload.flip();
+            String key = readString(payload);
+            String value = readString(payload);
+            handler.apply(key, value, payload.getInt());
+            position += RECORD_HEADER_LENGTH + payloadLength;
+            records++;
+        }
+
+        if (position < size) {
+            Log.warn("Discarding " + (size - position) + " bytes of incomplete records at the end of "
+                    + file);
+            segmentChannel.truncate(position);
+            segmentChannel.force(true);
+        }
+        segmentChannel.position(position);
+        return records;
+    }
+
+    // Append a record, returning once it is as durable as the fsync policy requires
+    public void append(String key, String value, int version) throws IOException {
+        ByteBuffer record = encode(key, value, version);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Write-ahead log " + directory + " is closed");
+            }
+            if (failure != null) {
+                throw new IOException("Write-ahead log " + directory + " failed", failure);
+            }
+            long start = channel.position();
+            try {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            } catch (IOException e) {
+                // The records before this one are kept, the group they belong to may still be forced
+                cutOff(start, e);
+                throw e;
+            }
+
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                try {
+                    channel.force(false);
+                } catch (IOException e) {
+                    cutOff(syncedPosition, e);
+                    throw e;
+                }
+                syncedPosition = channel.position();
+                return;
+            }
+            if (fsyncPolicy == FsyncPolicy.NEVER) {
+                return;
+            }
+
+            // Wake up the group commit thread for the first record of a group, and again once the group is full
+            Batch batch = pendingBatch;
+            batch.records++;
+            if (batch.records == 1 || batch.records >= groupCommitRecords) {
+                recordsWritten.signal();
+            }
+            boolean interrupted = false;
+            while (!batch.done) {
+                try {
+                    recordsSynced.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (batch.failure != null) {
+                throw new IOException("Failed to force the write-ahead log " + directory, batch.failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Cut the records from the given position off the active segment after a failed write or force, so that they
+    // are not replayed. Every record written after the last successful force is failed with the pending group.
+    // Called with the lock held.
+    private void cutOff(long position, IOException cause) {
+        try {
+            channel.truncate(position);
+            channel.position(position);
+            channel.force(true);
+            Log.warn("Discarded the records of " + getSegmentFile(segment) + " from offset " + position
+                    + " after a failure of the write-ahead log");
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            failure = cause;
+            Log.error("Failed to discard the records of " + getSegmentFile(segment) + " from offset " + position
+                    + ", the write-ahead log stops accepting writes", e);
+        }
+        if (position <= syncedPosition) {
+            syncedPosition = position;
+            pendingBatch.complete(cause);
+            pendingBatch = new Batch();
+            recordsSynced.signalAll();
+        }
+    }
+
+    // Force the active segment and start a new one, returns the number of the new segment. Every record appended
+    // before the call is in an earlier segment, every record appended after it in the new one or later.
+    public long rotate() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Write-ahead log " + directory + " is closed");
+            }
+            FileChannel nextChannel = openSegment(segment + 1);
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                nextChannel.close();
+                Files.deleteIfExists(getSegmentFile(segment + 1));
+                throw e;
+            }
+            channel.close();
+            channel = nextChannel;
+            segment++;
+            syncedPosition = 0;
+            // The records of a group being forced by the group commit thread were covered by this force as well
+            pendingBatch.complete(null);
+            pendingBatch = new Batch();
+            recordsSynced.signalAll();
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Delete the segments before the given one, once a snapshot covers their records
+    public void deleteSegmentsBefore(long firstKeptSegment) throws IOException {
+        for (long deleted : listSegments()) {
+            if (deleted < firstKeptSegment) {
+                Files.deleteIfExists(getSegmentFile(deleted));
+            }
+        }
+    }
+
+    // Force the log for all records written so far, waking up the writers waiting for them. A failed force only
+    // fails the writers of its group and of the group after it, the next groups are forced again.
+    private void runGroupCommit() {
+        while (true) {
+            Batch batch;
+            long endPosition;
+            FileChannel forcedChannel;
+            lock.lock();
+            try {
+                while (!closed && pendingBatch.records == 0) {
+                    recordsWritten.awaitUninterruptibly();
+                }
+                // Give the other writers the rest of the interval to join the group
+                long remaining = TimeUnit.MILLISECONDS.toNanos(groupCommitIntervalMs);
+                while (!closed && pendingBatch.records < groupCommitRecords && remaining > 0) {
+                    try {
+                        remaining = recordsWritten.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        remaining = 0;
+                    }
+                }
+                if (pendingBatch.records == 0) {
+                    return;
+                }
+                batch = pendingBatch;
+                pendingBatch = new Batch();
+                forcedChannel = channel;
+                endPosition = channel.position();
+            } catch (IOException e) {
+                // The position of an open channel is always known
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.unlock();
+            }
+
+            // Writers keep appending while the force runs, it covers at least the records of the group
+            IOException forceFailure = null;
+            try {
+                forcedChannel.force(false);
+            } catch (IOException e) {
+                forceFailure = e;
+            }
+
+            lock.lock();
+            try {
+                if (forcedChannel != channel) {
+                    // A segment closed by a rotation in the meantime was forced by the rotation
+                    batch.complete(null);
+                } else if (forceFailure != null) {
+                    Log.error("Failed to sync the write-ahead log", forceFailure);
+                    batch.complete(forceFailure);
+                    cutOff(syncedPosition, forceFailure);
+                } else {
+                    syncedPosition = Math.max(syncedPosition, endPosition);
+                    batch.complete(null);
+                }
+                recordsSynced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            recordsWritten.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (groupCommitThread != null) {
+            try {
+                groupCommitThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Writers still waiting for their records are released by this last force
+        lock.lock();
+        try {
+            channel.force(false);
+            pendingBatch.complete(null);
+        } catch (IOException e) {
+            cutOff(syncedPosition, e);
+            throw e;
+        } finally {
+            recordsSynced.signalAll();
+            lock.unlock();
+            channel.close();
+        }
+    }
+
+    // Records forced to disk together, the writers of a group wait for its outcome. Guarded by the lock of the log.
+    private static final class Batch {
+        private int records;
+        private boolean done;
+        private IOException failure;
+
+        private void complete(IOException cause) {
+            if (!done) {
+                done = true;
+                failure = cause;
+            }
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        FileChannel segmentChannel = FileChannel.open(getSegmentFile(number), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentChannel.position(segmentChannel.size());
+        return segmentChannel;
+    }
+
+    // Numbers of the segments in the directory, in ascending order
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    Log.warn("Ignoring unexpected file in the write-ahead log: " + file);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static ByteBuffer encode(String key, String value, int version) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 4 + keyBytes.length + 4 + valueBytes.length + 4;
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payloadLength);
+        record.putInt(payloadLength).putInt(0);
+        record.putInt(keyBytes.length).put(keyBytes);
+        record.putInt(valueBytes.length).put(valueBytes);
+        record.putInt(version);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_LENGTH, payloadLength);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static void readFully(FileChannel segmentChannel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = segmentChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of the write-ahead log segment");
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Malformed record in the write-ahead log");
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
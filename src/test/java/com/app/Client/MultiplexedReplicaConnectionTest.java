@@ -0,0 +1,170 @@
+package com.app.Client;
+
+import com.app.Common.TextProtocol;
+import com.app.Replica.RequestProcessor;
+import com.app.Replica.Storage;
+import com.app.Replica.StorageHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Client.MultiplexedReplicaConnection} class.
+ * A replica is started in-process with a pool of pipeline workers, so responses
+ * may come back out of order, and many threads share a single connection.
+ * The cancelled and unanswered requests are checked against a replica that
+ * accepts the requests and never answers.
+ */
+
+public class MultiplexedReplicaConnectionTest {
+    private static final int NUM_KEYS = 100;
+
+    private ServerSocket serverSocket;
+    private ExecutorService pipelineWorkers;
+    private MultiplexedReplicaConnection connection;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        Storage storage = new Storage();
+        InetSocketAddress writer = new InetSocketAddress("127.0.0.1", 12345);
+        for (int i = 0; i < NUM_KEYS; i++) {
+            storage.acquireWriteLock("key" + i, writer);
+            storage.put("key" + i, "value" + i, writer, 1);
+        }
+
+        serverSocket = new ServerSocket(0);
+        pipelineWorkers = Executors.newFixedThreadPool(4);
+        RequestProcessor processor = new RequestProcessor(storage);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket clientSocket = serverSocket.accept();
+                    new Thread(new StorageHandler(clientSocket, processor, pipelineWorkers)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed at the end of the test
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        connection = new MultiplexedReplicaConnection("127.0.0.1", serverSocket.getLocalPort());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        connection.closeConnection();
+        serverSocket.close();
+        pipelineWorkers.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCallersShareTheConnection() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+
+        for (int caller = 0; caller < 8; caller++) {
+            results.add(callers.submit(() -> {
+                List<CompletableFuture<String>> responses = new ArrayList<>();
+                for (int i = 0; i < NUM_KEYS; i++) {
+                    responses.add(connection.get("key" + i));
+                }
+                for (int i = 0; i < NUM_KEYS; i++) {
+                    assertEquals("GET_SUCCESS value" + i + " 1", responses.get(i).get(5, TimeUnit.SECONDS));
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+        callers.shutdown();
+        assertEquals(0, connection.getPendingCount());
+    }
+
+    @Test
+    public void testInvalidRequestKeepsItsIdentifier() throws Exception {
+        assertEquals("INVALID_REQUEST", connection.send("BOGUS").get(5, TimeUnit.SECONDS));
+        assertEquals("PONG", connection.ping().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPendingRequestsFailWhenTheConnectionCloses() {
+        connection.closeConnection();
+
+        CompletableFuture<String> response = connection.get("key0");
+
+        assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+        assertTrue(connection.isBroken());
+    }
+
+    @Test
+    public void testCancelledRequestIsForgotten() throws Exception {
+        // Act
+        CompletableFuture<String> response = connection.get("key0");
+        response.cancel(false);
+
+        // Assert
+        assertEquals(0, connection.getPendingCount());
+        assertEquals("PONG", connection.ping().get(5, TimeUnit.SECONDS));
+        assertFalse(connection.isBroken());
+    }
+
+    @Test
+    public void testUnansweredRequestBreaksTheConnection() throws Exception {
+        // Arrange
+        ServerSocket silentReplica = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try (Socket clientSocket = silentReplica.accept()) {
+                BufferedReader input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+                PrintWriter output = new PrintWriter(clientSocket.getOutputStream(), true);
+                input.readLine();
+                output.println(TextProtocol.PIPELINING_ACCEPTED);
+                while (input.readLine() != null) {
+                    // Never answer
+                }
+            } catch (IOException e) {
+                // Connection closed at the end of the test
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        MultiplexedReplicaConnection silentConnection = new MultiplexedReplicaConnection("127.0.0.1",
+                silentReplica.getLocalPort(), 200, timer);
+
+        try {
+            // Act
+            CompletableFuture<String> response = silentConnection.get("key0");
+
+            // Assert
+            assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+            assertTrue(silentConnection.isBroken());
+            assertEquals(0, silentConnection.getPendingCount());
+        } finally {
+            silentConnection.closeConnection();
+            silentReplica.close();
+            timer.shutdownNow();
+        }
+    }
+}
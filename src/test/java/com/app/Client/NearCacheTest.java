@@ -0,0 +1,48 @@
+package com.app.Client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Client.NearCache} class.
+ * It verifies that an older version never replaces a newer one and that the
+ * least recently used keys are evicted once the cache is full.
+ */
+
+public class NearCacheTest {
+
+    @Test
+    public void testOlderVersionIsIgnored() {
+        // Arrange
+        NearCache cache = new NearCache(1024);
+
+        // Act
+        cache.put("key", "new", 5);
+        cache.put("key", "old", 4);
+
+        // Assert
+        assertEquals("new", cache.get("key").getValue());
+        assertEquals(5, cache.get("key").getVersion());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedKeyIsEvicted() {
+        // Arrange
+        NearCache cache = new NearCache(3 * (64 + 2 * 8));
+        cache.put("key1", "val1", 1);
+        cache.put("key2", "val2", 1);
+        cache.put("key3", "val3", 1);
+
+        // Act
+        cache.get("key1");
+        cache.put("key4", "val4", 1);
+
+        // Assert
+        assertNotNull(cache.get("key1"));
+        assertNull(cache.get("key2"));
+        assertNotNull(cache.get("key4"));
+        assertEquals(3, cache.size());
+        assertEquals(3 * (64 + 2 * 8), cache.getUsedBytes());
+    }
+}
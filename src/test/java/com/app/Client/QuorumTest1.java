@@ -7,6 +7,11 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.After;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * This class contains unit tests for the {@link com.app.Client.Quorum} class.
  * These tests focus on client operations (PUT and GET) when only one client is
@@ -79,6 +84,36 @@ public class QuorumTest1 {
         assertThrows(IllegalArgumentException.class, () -> quorum.putValue(key, value));
     }
 
+    @Test
+    public void testPutAsyncThenGetAsync() throws Exception {
+        // Test the asynchronous put and get methods, which return typed results.
+        String key = "asyncKey";
+
+        WriteResult first = quorum.putAsync(key, "first").get(10, TimeUnit.SECONDS);
+        WriteResult second = quorum.putAsync(key, "second").get(10, TimeUnit.SECONDS);
+        ReadResult read = quorum.getAsync(key).get(10, TimeUnit.SECONDS);
+
+        assertTrue(first.isSuccess());
+        assertTrue(second.isSuccess());
+        assertTrue(second.getVersion() > first.getVersion());
+        assertEquals("second", read.getValue()); // The read quorum overlaps the write quorum.
+        assertEquals(second.getVersion(), read.getVersion());
+    }
+
+    @Test
+    public void testPutAsyncKeepsOrderOfWrites() throws Exception {
+        // Test that concurrent asynchronous writes of one key are applied in the order of the calls.
+        String key = "asyncOrderedKey";
+
+        List<CompletableFuture<WriteResult>> writes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            writes.add(quorum.putAsync(key, "value" + i));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+
+        assertEquals("value9", quorum.getAsync(key).get(10, TimeUnit.SECONDS).getValue());
+    }
+
     // Add more test cases as needed to cover other scenarios and edge cases.
 
     @After
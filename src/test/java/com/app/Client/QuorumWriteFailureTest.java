@@ -0,0 +1,188 @@
+package com.app.Client;
+
+import com.app.Common.Message;
+import com.app.Common.Opcode;
+import com.app.Replica.RequestProcessor;
+import com.app.Replica.Storage;
+import com.app.Replica.StorageHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Client.Quorum} class.
+ * Replicas are started in-process with a write quorum of every replica, so a
+ * write fails as soon as one replica does not take it, and the tests verify
+ * that such a write is reported as failed rather than written, and that the
+ * locks of a write waiting for a slow replica are not lost meanwhile.
+ */
+
+public class QuorumWriteFailureTest {
+    private final List<ServerSocket> serverSockets = new ArrayList<>();
+    private Quorum quorum;
+
+    // Replica answering the requests with the given processor, returns its "address:port"
+    private String startReplica(RequestProcessor processor) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        serverSockets.add(serverSocket);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket clientSocket = serverSocket.accept();
+                    new Thread(new StorageHandler(clientSocket, processor, null)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed at the end of the test
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return "127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    // Address of a replica that is down: nothing listens on its port
+    private static String downReplica() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return "127.0.0.1:" + serverSocket.getLocalPort();
+        }
+    }
+
+    private static Quorum newQuorum(String writeMode, String... replicas) {
+        return newQuorum(writeMode, 3000, replicas);
+    }
+
+    private static Quorum newQuorum(String writeMode, long lockRenewalMs, String... replicas) {
+        Properties properties = new Properties();
+        properties.setProperty("numReplicas", String.valueOf(replicas.length));
+        properties.setProperty("readQuorum", "1");
+        properties.setProperty("writeQuorum", String.valueOf(replicas.length));
+        properties.setProperty("requestTimeoutMs", "2000");
+        properties.setProperty("writeMode", writeMode);
+        properties.setProperty("lockRenewalMs", String.valueOf(lockRenewalMs));
+        for (int i = 0; i < replicas.length; i++) {
+            properties.setProperty("replica" + (i + 1), replicas[i]);
+        }
+        return new Quorum(properties);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (quorum != null) {
+            quorum.close();
+        }
+        for (ServerSocket serverSocket : serverSockets) {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void testWriteFailsWhenAReplicaIsDown() throws Exception {
+        // Arrange
+        quorum = newQuorum("optimistic", startReplica(new RequestProcessor(new Storage())),
+                startReplica(new RequestProcessor(new Storage())), downReplica());
+
+        // Act
+        WriteResult result = quorum.putAsync("key", "value").get(30, TimeUnit.SECONDS);
+
+        // Assert
+        assertFalse(result.isSuccess());
+        assertEquals(-1, result.getVersion());
+        assertEquals("false", quorum.putValue("key", "value"));
+    }
+
+    @Test
+    public void testWriteFailsWhenAReplicaRefusesTheWriteAfterLocking() throws Exception {
+        // Arrange
+        RequestProcessor refusingWrites = new RequestProcessor(new Storage()) {
+            @Override
+            public Message process(Message request, InetSocketAddress clientAddress) {
+                Opcode opcode = request.getOpcode();
+                if (opcode == Opcode.PUT || opcode == Opcode.PUT_IF_VERSION) {
+                    return Message.of(Opcode.PUT_FAILED);
+                }
+                return super.process(request, clientAddress);
+            }
+        };
+        quorum = newQuorum("lock", startReplica(new RequestProcessor(new Storage())),
+                startReplica(new RequestProcessor(new Storage())), startReplica(refusingWrites));
+
+        // Act
+        String written = quorum.putValue("key", "value");
+        WriteResult asyncResult = quorum.putAsync("key", "value").get(30, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals("false", written);
+        assertFalse(asyncResult.isSuccess());
+        assertEquals(ReplicaOutcome.FAILED, asyncResult.getReplicaOutcomes().values().stream()
+                .filter(outcome -> outcome != ReplicaOutcome.SUCCESS).findFirst().orElse(null));
+    }
+
+    @Test
+    public void testBatchWriteFailsWhenAReplicaRefusesTheWriteAfterLocking() throws Exception {
+        // Arrange
+        RequestProcessor refusingWrites = new RequestProcessor(new Storage()) {
+            @Override
+            public Message process(Message request, InetSocketAddress clientAddress) {
+                if (request.getOpcode() == Opcode.MPUT) {
+                    List<Message.Entry> refused = new ArrayList<>();
+                    for (Message.Entry entry : request.getEntries()) {
+                        refused.add(new Message.Entry(Opcode.PUT_FAILED, entry.getKey(), null, 0));
+                    }
+                    return new Message(Opcode.MPUT_RESULT, refused);
+                }
+                return super.process(request, clientAddress);
+            }
+        };
+        quorum = newQuorum("lock", startReplica(new RequestProcessor(new Storage())),
+                startReplica(new RequestProcessor(new Storage())), startReplica(refusingWrites));
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("key1", "value1");
+        values.put("key2", "value2");
+
+        // Act
+        Map<String, Boolean> written = quorum.putValues(values);
+
+        // Assert
+        assertEquals(2, written.size());
+        assertFalse(written.get("key1"));
+        assertFalse(written.get("key2"));
+    }
+
+    @Test
+    public void testLocksAreRenewedWhileAReplicaIsSlowToLock() throws Exception {
+        // Arrange
+        RequestProcessor slowLocking = new RequestProcessor(new Storage(300)) {
+            @Override
+            public Message process(Message request, InetSocketAddress clientAddress) {
+                if (request.getOpcode() == Opcode.ACQUIRE_LOCK) {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.process(request, clientAddress);
+            }
+        };
+        quorum = newQuorum("lock", 100, startReplica(new RequestProcessor(new Storage(300))),
+                startReplica(new RequestProcessor(new Storage(300))), startReplica(slowLocking));
+
+        // Act
+        String written = quorum.putValue("key", "value");
+
+        // Assert
+        assertEquals("true", written);
+    }
+}
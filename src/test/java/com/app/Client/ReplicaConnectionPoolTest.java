@@ -0,0 +1,130 @@
+package com.app.Client;
+
+import com.app.Replica.Storage;
+import com.app.Replica.StorageHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Client.ReplicaConnectionPool} class.
+ * A replica is started in-process on an ephemeral port so that the tests verify
+ * connection reuse, replacement of broken connections, idle eviction, the
+ * bound on the number of borrowed connections and the read timeout against a
+ * real server.
+ */
+
+public class ReplicaConnectionPoolTest {
+    private ServerSocket serverSocket;
+    private ReplicaConnectionPool pool;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0);
+        Storage storage = new Storage();
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket clientSocket = serverSocket.accept();
+                    new Thread(new StorageHandler(clientSocket, storage)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed at the end of the test
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        pool = new ReplicaConnectionPool("127.0.0.1", serverSocket.getLocalPort(), 2, 60000, 0);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        pool.close();
+        serverSocket.close();
+    }
+
+    @Test
+    public void testReleasedConnectionIsReused() throws IOException {
+        ReplicaConnection first = pool.borrow(1000);
+        pool.release(first);
+
+        ReplicaConnection second = pool.borrow(1000);
+
+        assertSame(first, second);
+        assertEquals("GET_SUCCESS  -1", second.get("testKey"));
+        pool.release(second);
+    }
+
+    @Test
+    public void testBrokenConnectionIsReplaced() throws IOException {
+        ReplicaConnection first = pool.borrow(1000);
+        first.closeConnection();
+        pool.release(first);
+
+        ReplicaConnection second = pool.borrow(1000);
+
+        assertNotSame(first, second);
+        assertEquals(0, pool.getIdleCount());
+        pool.release(second);
+    }
+
+    @Test
+    public void testBorrowIsBounded() throws IOException {
+        ReplicaConnection first = pool.borrow(1000);
+        ReplicaConnection second = pool.borrow(1000);
+
+        assertThrows(IOException.class, () -> pool.borrow(50));
+
+        pool.release(first);
+        pool.release(second);
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws IOException, InterruptedException {
+        ReplicaConnectionPool shortLivedPool = new ReplicaConnectionPool("127.0.0.1", serverSocket.getLocalPort(),
+                2, 10, 0);
+        shortLivedPool.release(shortLivedPool.borrow(1000));
+
+        Thread.sleep(50);
+        shortLivedPool.evictIdle();
+
+        assertEquals(0, shortLivedPool.getIdleCount());
+        shortLivedPool.close();
+    }
+
+    @Test
+    public void testUnansweredRequestTimesOut() throws IOException {
+        ServerSocket silentReplica = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try (Socket clientSocket = silentReplica.accept()) {
+                while (clientSocket.getInputStream().read() != -1) {
+                    // Never answer
+                }
+            } catch (IOException e) {
+                // Connection closed at the end of the test
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        ReplicaConnectionPool silentPool = new ReplicaConnectionPool("127.0.0.1", silentReplica.getLocalPort(), 1,
+                60000, 0, false, 200);
+
+        ReplicaConnection connection = silentPool.borrow(1000);
+
+        assertThrows(SocketTimeoutException.class, () -> connection.get("testKey"));
+        assertTrue(connection.isBroken());
+        silentPool.release(connection);
+        assertEquals(0, silentPool.getIdleCount());
+        silentPool.close();
+        silentReplica.close();
+    }
+}
@@ -0,0 +1,59 @@
+package com.app.Client;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Client.ReplicaSelector} class.
+ * It verifies that slow and failing replicas are ranked after the others while
+ * every replica stays in the ranking as a spare.
+ */
+
+public class ReplicaSelectorTest {
+
+    @Test
+    public void testSlowReplicaIsRankedLast() throws IOException {
+        // Arrange
+        ReplicaSelector selector = new ReplicaSelector(Arrays.asList("a:1", "b:2", "c:3"));
+        selector.track("a:1", () -> "fast");
+        selector.track("b:2", () -> "fast");
+
+        // Act
+        selector.track("c:3", () -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "slow";
+        });
+        List<String> ranked = selector.rank();
+
+        // Assert
+        assertEquals(3, ranked.size());
+        assertEquals("c:3", ranked.get(2));
+    }
+
+    @Test
+    public void testFailedReplicaIsRankedLast() throws IOException {
+        // Arrange
+        ReplicaSelector selector = new ReplicaSelector(Arrays.asList("a:1", "b:2", "c:3"));
+        selector.track("b:2", () -> "ok");
+        selector.track("c:3", () -> "ok");
+
+        // Act
+        assertThrows(IOException.class, () -> selector.track("a:1", () -> {
+            throw new IOException("Connection refused");
+        }));
+        List<String> ranked = selector.rank();
+
+        // Assert
+        assertEquals(Arrays.asList("a:1"), ranked.subList(2, 3));
+        assertTrue(ranked.containsAll(Arrays.asList("b:2", "c:3")));
+    }
+}
@@ -0,0 +1,106 @@
+package com.app.Common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Common.BinaryProtocol} class.
+ * It verifies that messages survive an encode/decode round-trip, including values
+ * the text protocol cannot carry, and that malformed frames are rejected.
+ */
+
+public class BinaryProtocolTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        // Arrange
+        Message message = Message.of(Opcode.PUT, "testKey", "value with spaces\nand newlines", 42);
+
+        // Act
+        byte[] frame = BinaryProtocol.encode(message);
+        Message decoded = BinaryProtocol.decode(frame, 4, frame.length - 4);
+
+        // Assert
+        assertEquals(Opcode.PUT, decoded.getOpcode());
+        assertEquals("testKey", decoded.getEntry().getKey());
+        assertEquals("value with spaces\nand newlines", decoded.getEntry().getValue());
+        assertEquals(42, decoded.getEntry().getVersion());
+    }
+
+    @Test
+    public void testBatchRoundTrip() throws IOException {
+        // Arrange
+        Message message = new Message(Opcode.MLOCK_RESULT, Arrays.asList(
+                new Message.Entry(Opcode.LOCK_ACQUIRED, "k1", null, 3),
+                new Message.Entry(Opcode.LOCK_NOT_ACQUIRED, "k2", null, 0)));
+
+        // Act
+        byte[] frame = BinaryProtocol.encode(message);
+        Message decoded = BinaryProtocol.decode(frame, 4, frame.length - 4);
+
+        // Assert
+        assertEquals(Opcode.MLOCK_RESULT, decoded.getOpcode());
+        assertEquals(2, decoded.getEntries().size());
+        assertEquals(Opcode.LOCK_ACQUIRED, decoded.getEntries().get(0).getStatus());
+        assertEquals(3, decoded.getEntries().get(0).getVersion());
+        assertEquals(Opcode.LOCK_NOT_ACQUIRED, decoded.getEntries().get(1).getStatus());
+        assertEquals("k2", decoded.getEntries().get(1).getKey());
+    }
+
+    @Test
+    public void testStreamRoundTrip() throws IOException {
+        // Arrange
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        // Act
+        BinaryProtocol.write(output, Message.of(Opcode.PING));
+        BinaryProtocol.write(output, Message.of(Opcode.GET, "testKey", null, 0));
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        // Assert
+        assertEquals(Opcode.PING, BinaryProtocol.read(input).getOpcode());
+        assertEquals("testKey", BinaryProtocol.read(input).getEntry().getKey());
+        assertNull(BinaryProtocol.read(input));
+    }
+
+    @Test
+    public void testUnknownOpcode() throws IOException {
+        // Arrange
+        byte[] frame = BinaryProtocol.encode(Message.of(Opcode.PING));
+        frame[4] = (byte) 200;
+
+        // Act
+        Message decoded = BinaryProtocol.decode(frame, 4, frame.length - 4);
+
+        // Assert
+        assertNull(decoded.getOpcode());
+    }
+
+    @Test
+    public void testTruncatedFrame() {
+        // Arrange
+        byte[] frame = BinaryProtocol.encode(Message.of(Opcode.PUT, "testKey", "testValue", 1));
+        byte[] truncated = Arrays.copyOf(frame, frame.length - 2);
+
+        // Act and assert
+        assertThrows(IOException.class, () -> BinaryProtocol.decode(truncated, 4, truncated.length - 4));
+    }
+
+    @Test
+    public void testInvalidLength() {
+        // Arrange
+        byte[] prefix = { (byte) 0xFF, 0, 0, 0 };
+
+        // Act and assert
+        assertThrows(IOException.class, () -> BinaryProtocol.readLength(prefix, 0));
+    }
+}
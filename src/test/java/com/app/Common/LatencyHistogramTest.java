@@ -0,0 +1,49 @@
+package com.app.Common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Common.LatencyHistogram} class.
+ * It verifies that percentiles are found within the precision of the buckets
+ * and that a reset forgets the recorded samples.
+ */
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        // Arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // Act
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        // Assert
+        assertEquals(100, histogram.getCount());
+        long median = histogram.getPercentileNanos(50);
+        long p95 = histogram.getPercentileNanos(95);
+        assertTrue(median >= TimeUnit.MILLISECONDS.toNanos(50) && median <= TimeUnit.MILLISECONDS.toNanos(54));
+        assertTrue(p95 >= TimeUnit.MILLISECONDS.toNanos(95) && p95 <= TimeUnit.MILLISECONDS.toNanos(101));
+    }
+
+    @Test
+    public void testReset() {
+        // Arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.SECONDS.toNanos(3));
+
+        // Act
+        histogram.reset();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(7));
+
+        // Assert
+        assertEquals(1, histogram.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(7), histogram.getPercentileNanos(99));
+    }
+}
@@ -0,0 +1,77 @@
+package com.app.Common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Common.Log} class.
+ * It verifies that messages below the level and unsampled traces are dropped,
+ * that an exception is logged with its stack trace, and that the
+ * {@link com.app.Common.AsyncAppender} writes every message it queued before
+ * closing.
+ */
+
+public class LogTest {
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private final Log.Appender originalAppender = Log.setAppender(new ConsoleAppender(new PrintStream(outputStream)));
+
+    @AfterEach
+    public void restoreLog() {
+        Log.setAppender(originalAppender);
+        Log.setLevel(Log.Level.INFO);
+        Log.setTraceSampleRate(1);
+    }
+
+    @Test
+    public void testLevelAndSampling() {
+        // Arrange
+        Log.setLevel(Log.Level.WARN);
+
+        // Act
+        Log.info("hidden info");
+        Log.warn("visible warning");
+        Log.error("visible failure", new IllegalStateException("broken disk"));
+        Log.log(Log.Level.INFO, "hidden failure", new IllegalStateException("hidden cause"));
+        boolean tracedAtWarn = Log.isTraced();
+        Log.setLevel(Log.Level.DEBUG);
+        Log.setTraceSampleRate(0);
+        boolean tracedUnsampled = Log.isTraced();
+        Log.setTraceSampleRate(1);
+        boolean tracedSampled = Log.isTraced();
+
+        // Assert
+        String output = outputStream.toString();
+        assertFalse(output.contains("hidden info"));
+        assertTrue(output.contains("visible warning"));
+        assertTrue(output.contains("visible failure" + System.lineSeparator()
+                + "java.lang.IllegalStateException: broken disk"));
+        assertFalse(output.contains("hidden"));
+        assertFalse(tracedAtWarn);
+        assertFalse(tracedUnsampled);
+        assertTrue(tracedSampled);
+    }
+
+    @Test
+    public void testAsyncAppenderWritesQueuedMessages() {
+        // Arrange
+        AsyncAppender appender = new AsyncAppender(1000, new PrintStream(outputStream));
+        Log.setAppender(appender);
+
+        // Act
+        for (int i = 0; i < 500; i++) {
+            Log.info("message " + i);
+        }
+        appender.close();
+
+        // Assert
+        String output = outputStream.toString();
+        assertTrue(output.contains("message 0\n"));
+        assertTrue(output.contains("message 499\n"));
+        assertEquals(0, appender.getDroppedMessages());
+    }
+}
@@ -0,0 +1,123 @@
+package com.app.Common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Common.TextProtocol} class.
+ * It verifies the parsing and formatting of the single-key and batch commands,
+ * the escaping of the keys and values, and that malformed lines are rejected.
+ */
+
+public class TextProtocolTest {
+
+    @Test
+    public void testParseBatchPut() {
+        // Act
+        Message request = TextProtocol.parseRequest("MPUT k1 v1 3 k2 v2 5");
+
+        // Assert
+        assertEquals(Opcode.MPUT, request.getOpcode());
+        assertEquals(2, request.getEntries().size());
+        assertEquals("k2", request.getEntries().get(1).getKey());
+        assertEquals("v2", request.getEntries().get(1).getValue());
+        assertEquals(5, request.getEntries().get(1).getVersion());
+        assertEquals("MPUT k1 v1 3 k2 v2 5", TextProtocol.formatRequest(request));
+    }
+
+    @Test
+    public void testConditionalPutRoundTrip() {
+        // Act
+        Message request = TextProtocol.parseRequest("PUT_IF_VERSION k1 v1 3 4");
+        Message conflict = TextProtocol.parseResponse("VERSION_CONFLICT 6");
+
+        // Assert
+        assertEquals(Opcode.PUT_IF_VERSION, request.getOpcode());
+        assertEquals("v1", request.getEntries().get(0).getValue());
+        assertEquals(4, request.getEntries().get(0).getVersion());
+        assertEquals(3, request.getEntries().get(1).getVersion());
+        assertEquals("PUT_IF_VERSION k1 v1 3 4", TextProtocol.formatRequest(request));
+        assertEquals(6, conflict.getEntry().getVersion());
+        assertNull(TextProtocol.parseRequest("PUT_IF_VERSION k1 v1 3"));
+    }
+
+    @Test
+    public void testMalformedRequests() {
+        assertNull(TextProtocol.parseRequest("MGET"));
+        assertNull(TextProtocol.parseRequest("MPUT k1 v1"));
+        assertNull(TextProtocol.parseRequest("MPUT k1 v1 notANumber"));
+        assertNull(TextProtocol.parseRequest("GET_SUCCESS value 1"));
+    }
+
+    @Test
+    public void testBatchGetResponseRoundTrip() {
+        // Arrange
+        Message response = new Message(Opcode.MGET_RESULT, Arrays.asList(
+                new Message.Entry(Opcode.GET_SUCCESS, "k1", "v1", 3),
+                new Message.Entry(Opcode.GET_FAILED, "k2", null, 0)));
+
+        // Act
+        String line = TextProtocol.formatResponse(response);
+        Message parsed = TextProtocol.parseResponse(line);
+
+        // Assert
+        assertEquals("MGET_RESULT GET_SUCCESS v1 3 GET_FAILED  0", line);
+        assertEquals(2, parsed.getEntries().size());
+        assertEquals(Opcode.GET_SUCCESS, parsed.getEntries().get(0).getStatus());
+        assertEquals("v1", parsed.getEntries().get(0).getValue());
+        assertEquals(3, parsed.getEntries().get(0).getVersion());
+        assertEquals(Opcode.GET_FAILED, parsed.getEntries().get(1).getStatus());
+    }
+
+    @Test
+    public void testParseSingleKeyResponses() {
+        // Act
+        Message get = TextProtocol.parseResponse("GET_SUCCESS value 7");
+        Message lock = TextProtocol.parseResponse("LOCK_ACQUIRED 4");
+
+        // Assert
+        assertEquals("value", get.getEntry().getValue());
+        assertEquals(7, get.getEntry().getVersion());
+        assertEquals(4, lock.getEntry().getVersion());
+        assertEquals(Opcode.PUT_FAILED, TextProtocol.parseResponse("PUT_FAILED").getOpcode());
+        assertNull(TextProtocol.parseResponse("MLOCK_RESULT LOCK_ACQUIRED"));
+    }
+
+    @Test
+    public void testValuesWithSpacesAndNewlinesRoundTrip() {
+        // Arrange
+        String value = "two words\nand a \\s line";
+        Message put = Message.of(Opcode.PUT, "a key", value, 3);
+        Message get = Message.of(Opcode.GET_SUCCESS, "a key", value, 3);
+        Message batch = new Message(Opcode.MGET_RESULT, Arrays.asList(
+                new Message.Entry(Opcode.GET_SUCCESS, "k1", value, 3),
+                new Message.Entry(Opcode.GET_SUCCESS, "k2", "v2", 5)));
+        Message leaf = new Message(Opcode.LEAF_ENTRIES, Arrays.asList(new Message.Entry("a key", value, 3)));
+
+        // Act
+        String putLine = TextProtocol.formatRequest(put);
+        String getLine = TextProtocol.formatResponse(get);
+        String batchLine = TextProtocol.formatResponse(batch);
+        String leafLine = TextProtocol.formatResponse(leaf);
+
+        // Assert
+        assertEquals("PUT a\\skey two\\swords\\nand\\sa\\s\\\\s\\sline 3", putLine);
+        for (String line : Arrays.asList(putLine, getLine, batchLine, leafLine)) {
+            assertFalse(line.contains("\n"));
+        }
+        Message parsedPut = TextProtocol.parseRequest(putLine);
+        assertEquals("a key", parsedPut.getEntry().getKey());
+        assertEquals(value, parsedPut.getEntry().getValue());
+        assertEquals(value, TextProtocol.parseResponse(getLine).getEntry().getValue());
+        Message parsedBatch = TextProtocol.parseResponse(batchLine);
+        assertEquals(value, parsedBatch.getEntries().get(0).getValue());
+        assertEquals("v2", parsedBatch.getEntries().get(1).getValue());
+        assertEquals(5, parsedBatch.getEntries().get(1).getVersion());
+        Message parsedLeaf = TextProtocol.parseResponse(leafLine);
+        assertEquals("a key", parsedLeaf.getEntry().getKey());
+        assertEquals(value, parsedLeaf.getEntry().getValue());
+    }
+}
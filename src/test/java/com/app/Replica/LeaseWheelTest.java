@@ -0,0 +1,55 @@
+package com.app.Replica;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Replica.LeaseWheel} class.
+ * It verifies that leases are handed out once their deadline has passed, including
+ * the ones further away than one revolution of the wheel.
+ */
+
+public class LeaseWheelTest {
+
+    @Test
+    public void testLeasesExpireInDeadlineOrder() {
+        // Arrange
+        LeaseWheel wheel = new LeaseWheel(10, 8, 1000);
+        List<String> expired = new ArrayList<>();
+        wheel.schedule("soon", 1025);
+        wheel.schedule("later", 1055);
+        wheel.schedule("nextRevolution", 1125);
+
+        // Act
+        wheel.advance(1030, lease -> expired.add(lease.getKey()));
+        List<String> first = new ArrayList<>(expired);
+        wheel.advance(1100, lease -> expired.add(lease.getKey()));
+        List<String> second = new ArrayList<>(expired);
+        wheel.advance(1200, lease -> expired.add(lease.getKey()));
+
+        // Assert
+        assertEquals(Arrays.asList("soon"), first);
+        assertEquals(Arrays.asList("soon", "later"), second);
+        assertEquals(Arrays.asList("soon", "later", "nextRevolution"), expired);
+    }
+
+    @Test
+    public void testLeaseScheduledInThePastExpiresOnTheNextTick() {
+        // Arrange
+        LeaseWheel wheel = new LeaseWheel(10, 8, 1000);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(1050, lease -> expired.add(lease.getKey()));
+
+        // Act
+        wheel.schedule("late", 1020);
+        wheel.advance(1065, lease -> expired.add(lease.getKey()));
+
+        // Assert
+        assertEquals(Arrays.asList("late"), expired);
+    }
+}
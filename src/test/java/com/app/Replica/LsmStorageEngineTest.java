@@ -0,0 +1,140 @@
+package com.app.Replica;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Replica.LsmStorageEngine} class.
+ * It verifies that the newest value of every key is read back once the
+ * memtables have been flushed and the tables compacted, after a restart, and
+ * that a {@link com.app.Replica.Storage} restores the writes logged after the
+ * latest checkpoint of the engine, and that a scan interrupted by a compaction
+ * still visits every key once.
+ */
+
+public class LsmStorageEngineTest {
+
+    @TempDir
+    Path directory;
+
+    private static void write(Storage storage, String key, String value, int version) {
+        InetSocketAddress holder = new InetSocketAddress("localhost", 1234);
+        storage.acquireWriteLock(key, holder);
+        assertTrue(storage.put(key, value, holder, version));
+    }
+
+    @Test
+    public void testNewestValuesSurviveFlushCompactionAndRestart() throws IOException {
+        // Arrange
+        LsmStorageEngine engine = new LsmStorageEngine(directory, 4096);
+        for (int version = 1; version <= 3; version++) {
+            for (int k = 0; k < 1000; k++) {
+                if (k % version == 0) {
+                    engine.put("key" + k, "value" + k + "-" + version, version);
+                }
+            }
+        }
+
+        // Act
+        Storage.VersionedValue beforeRestart = engine.get("key6");
+        engine.close();
+        LsmStorageEngine reopened = new LsmStorageEngine(directory, 4096);
+        int[] keys = new int[1];
+        for (int leaf = 0; leaf < MerkleTree.LEAVES; leaf++) {
+            reopened.forEachInLeaf(leaf, (key, value, version) -> keys[0]++);
+        }
+
+        // Assert
+        assertEquals("value6-3", beforeRestart.getValue());
+        assertEquals(3, beforeRestart.getVersion());
+        assertTrue(engine.getCompactions() > 0);
+        assertEquals(1000, keys[0]);
+        assertEquals("value6-3", reopened.get("key6").getValue());
+        assertEquals("value4-2", reopened.get("key4").getValue());
+        assertEquals(1, reopened.get("key5").getVersion());
+        assertNull(reopened.get("key1000"));
+        reopened.close();
+    }
+
+    @Test
+    public void testStorageReplaysLogAfterCheckpoint() throws IOException {
+        // Arrange
+        Path logDirectory = directory.resolve("log");
+        Path tableDirectory = directory.resolve("sstables");
+        long merkleRoot;
+        try (WriteAheadLog log = new WriteAheadLog(logDirectory, WriteAheadLog.FsyncPolicy.ALWAYS, 5, 128)) {
+            Storage storage = new Storage(log, 0, new LsmStorageEngine(tableDirectory, 1 << 20));
+            write(storage, "key1", "before", 1);
+            write(storage, "key2", "before", 1);
+            storage.snapshot();
+            write(storage, "key2", "after", 2);
+            write(storage, "key3", "after", 1);
+            merkleRoot = storage.getMerkleHash(MerkleTree.ROOT);
+            // Stop without flushing the memtable, as a crash would
+        }
+
+        // Act
+        Storage restored;
+        try (WriteAheadLog log = new WriteAheadLog(logDirectory, WriteAheadLog.FsyncPolicy.NEVER, 5, 128)) {
+            restored = new Storage(log, 0, new LsmStorageEngine(tableDirectory, 1 << 20));
+        }
+
+        // Assert
+        assertEquals("before", restored.getStore().get("key1"));
+        assertEquals("after", restored.getStore().get("key2"));
+        assertEquals(2, restored.getVersions().get("key2"));
+        assertEquals("after", restored.getStore().get("key3"));
+        assertEquals(3, restored.getEntryCount());
+        assertEquals(merkleRoot, restored.getMerkleHash(MerkleTree.ROOT));
+        restored.close();
+    }
+
+    @Test
+    public void testScanVisitsEveryKeyOnceAcrossACompaction() throws Exception {
+        // Arrange: one table short of a compaction, every table holding every key
+        LsmStorageEngine engine = new LsmStorageEngine(directory, 1 << 20);
+        for (int version = 1; version <= 3; version++) {
+            for (int k = 0; k < 1000; k++) {
+                engine.put("key" + k, "value" + k + "-" + version, version);
+            }
+            engine.checkpoint(0);
+        }
+
+        // Act: the fourth table, written during the scan, gets the tables being scanned compacted and released
+        Set<String> keys = new HashSet<>();
+        int[] visits = new int[1];
+        engine.forEach((key, value, version) -> {
+            visits[0]++;
+            keys.add(key);
+            if (visits[0] == 1) {
+                try {
+                    for (int k = 0; k < 1000; k++) {
+                        engine.put("key" + k, "value" + k + "-4", 4);
+                    }
+                    engine.checkpoint(0);
+                    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                    while (engine.getCompactions() == 0 && System.nanoTime() < deadline) {
+                        Thread.sleep(10);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+
+        // Assert
+        assertTrue(engine.getCompactions() > 0);
+        assertEquals(1000, keys.size());
+        assertEquals(1000, visits[0]);
+        engine.close();
+    }
+}
@@ -0,0 +1,57 @@
+package com.app.Replica;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Replica.MerkleTree} class.
+ * It verifies that the tree of a {@link Storage} only depends on the values it
+ * holds, not on the order of the writes, and that a difference is found in the
+ * leaf of the key.
+ */
+
+public class MerkleTreeTest {
+
+    @Test
+    public void testSameValuesGiveSameTree() {
+        // Arrange
+        Storage storage1 = new Storage();
+        Storage storage2 = new Storage();
+        InetSocketAddress holder = new InetSocketAddress("127.0.0.1", 12345);
+
+        // Act
+        storage1.putIfNewer("key1", "old", holder, 1);
+        storage1.putIfNewer("key1", "new", holder, 2);
+        storage1.putIfNewer("key2", "value", holder, 1);
+        storage2.putIfNewer("key2", "value", holder, 1);
+        storage2.putIfNewer("key1", "new", holder, 2);
+
+        // Assert
+        assertNotEquals(0, storage1.getMerkleHash(MerkleTree.ROOT));
+        assertEquals(storage1.getMerkleHash(MerkleTree.ROOT), storage2.getMerkleHash(MerkleTree.ROOT));
+    }
+
+    @Test
+    public void testDifferenceIsInTheLeafOfTheKey() {
+        // Arrange
+        Storage storage1 = new Storage();
+        Storage storage2 = new Storage();
+        InetSocketAddress holder = new InetSocketAddress("127.0.0.1", 12345);
+        storage1.putIfNewer("key1", "value", holder, 1);
+        storage2.putIfNewer("key1", "value", holder, 1);
+
+        // Act
+        storage2.putIfNewer("key2", "value", holder, 1);
+        int leaf = MerkleTree.leafOf("key2");
+
+        // Assert
+        assertNotEquals(storage1.getMerkleHash(MerkleTree.ROOT), storage2.getMerkleHash(MerkleTree.ROOT));
+        assertNotEquals(storage1.getMerkleHash(MerkleTree.LEAVES + leaf),
+                storage2.getMerkleHash(MerkleTree.LEAVES + leaf));
+        assertTrue(storage2.getLeafEntries(leaf).containsKey("key2"));
+        assertFalse(storage1.getLeafEntries(leaf).containsKey("key2"));
+    }
+}
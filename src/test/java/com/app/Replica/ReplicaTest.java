@@ -0,0 +1,84 @@
+package com.app.Replica;
+
+import com.app.Client.Quorum;
+import com.app.Client.ReplicaConnection;
+import com.app.Common.ThreadMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Replica.Replica} class.
+ * It verifies that replicas started in the test process on free ports serve a
+ * client configured with their addresses, and report their metrics.
+ */
+
+public class ReplicaTest {
+
+    @Test
+    public void testInProcessReplicasServeQuorum() throws Exception {
+        // Arrange
+        List<Replica> replicas = new ArrayList<>();
+        Properties properties = new Properties();
+        properties.setProperty("numReplicas", "3");
+        properties.setProperty("readQuorum", "2");
+        properties.setProperty("writeQuorum", "2");
+        for (int i = 1; i <= 3; i++) {
+            Replica replica = Replica.start(0, ThreadMode.PLATFORM, 10000);
+            replicas.add(replica);
+            properties.setProperty("replica" + i, "127.0.0.1:" + replica.getPort());
+        }
+        Quorum quorum = new Quorum(properties);
+
+        try {
+            // Act
+            String putResult = quorum.putValue("inProcessKey", "inProcessValue");
+            String getResult = quorum.getValue("inProcessKey");
+
+            // Assert
+            assertEquals("true", putResult);
+            assertNotNull(getResult);
+            assertTrue(getResult.contains("inProcessValue"));
+        } finally {
+            quorum.close();
+            for (Replica replica : replicas) {
+                replica.close();
+            }
+        }
+    }
+
+    @Test
+    public void testStatsReportRequestsAndLockFailures() throws Exception {
+        // Arrange
+        Replica replica = Replica.start(0, ThreadMode.PLATFORM, 10000);
+        ReplicaConnection holder = new ReplicaConnection("127.0.0.1", replica.getPort());
+        ReplicaConnection other = new ReplicaConnection("127.0.0.1", replica.getPort());
+
+        try {
+            // Act
+            holder.acquireLock("statsKey");
+            other.acquireLock("statsKey");
+            holder.put("statsKey", "statsValue", 1);
+            holder.get("statsKey");
+            Map<String, Long> stats = other.stats();
+
+            // Assert
+            assertEquals(1L, stats.get("keys"));
+            assertEquals(2L, stats.get("active_connections"));
+            assertEquals(1L, stats.get("lock_acquire_failures"));
+            assertEquals(1L, stats.get("GET.count"));
+            assertEquals(2L, stats.get("ACQUIRE_LOCK.count"));
+            assertTrue(stats.containsKey("PUT.p99_us"));
+            assertTrue(replica.getMetrics().toPrometheus().contains("replica_requests_total{command=\"GET\"} 1"));
+        } finally {
+            holder.closeConnection();
+            other.closeConnection();
+            replica.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.app.Replica;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Replica.SlabArena} class.
+ * It verifies that values are read back as stored, that freed chunks are reused
+ * by their size class, and that a {@link com.app.Replica.Storage} keeping its
+ * values off the heap answers like one keeping them on the heap.
+ */
+
+public class SlabArenaTest {
+    @Test
+    public void testStoreReadAndReuseFreedChunk() {
+        // Arrange
+        SlabArena arena = new SlabArena(4 * 4096, 4096);
+
+        // Act
+        long small = arena.store("value");
+        long large = arena.store(new String(new char[1000]).replace('\0', 'x'));
+        String smallValue = arena.read(small);
+        arena.free(small);
+        long reused = arena.store("other");
+        long tooLarge = arena.store(new byte[4096]);
+
+        // Assert
+        assertEquals("value", smallValue);
+        assertEquals(1000, arena.read(large).length());
+        assertEquals(small, reused);
+        assertEquals("other", arena.read(reused));
+        assertEquals(SlabArena.NO_REF, tooLarge);
+        List<SlabArena.ClassStats> stats = arena.getClassStats();
+        assertEquals(2, stats.size());
+        assertEquals(1, stats.get(0).getUsedChunks());
+        assertEquals(5, stats.get(0).getStoredBytes());
+        assertEquals(2L * 4096, arena.getReservedBytes());
+    }
+
+    @Test
+    public void testOffHeapStorageKeepsLatestValue() {
+        // Arrange
+        SlabArena arena = new SlabArena(1024 * 1024, 64 * 1024);
+        Storage storage = new Storage(0, arena);
+        InetSocketAddress holder = new InetSocketAddress("127.0.0.1", 12345);
+
+        // Act
+        storage.acquireWriteLock("key", holder);
+        storage.put("key", "first", holder, 1);
+        storage.acquireWriteLock("key", holder);
+        storage.put("key", "second", holder, 2);
+        Storage.VersionedValue value = storage.getVersioned("key");
+
+        // Assert
+        assertEquals("second", value.getValue());
+        assertEquals(2, value.getVersion());
+        assertEquals("second", storage.getStore().get("key"));
+        // The chunk of the first value has been freed
+        assertEquals(1, arena.getClassStats().get(0).getUsedChunks());
+    }
+}
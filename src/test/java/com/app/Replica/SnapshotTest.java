@@ -0,0 +1,119 @@
+package com.app.Replica;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Replica.Snapshot} class.
+ * It verifies that a restart restores a snapshot followed by the log written
+ * after it, including when the snapshot is taken while writes go on.
+ */
+
+public class SnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private static void write(Storage storage, String key, String value, int version) {
+        InetSocketAddress holder = new InetSocketAddress("localhost", 1234);
+        storage.acquireWriteLock(key, holder);
+        assertTrue(storage.put(key, value, holder, version));
+    }
+
+    private Storage restore() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.FsyncPolicy.NEVER, 5, 128)) {
+            return new Storage(log);
+        }
+    }
+
+    @Test
+    public void testSnapshotAndLogTailAreRestored() throws IOException {
+        // Arrange
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.FsyncPolicy.ALWAYS, 5, 128)) {
+            Storage storage = new Storage(log);
+            write(storage, "key1", "before", 1);
+            write(storage, "key2", "before", 1);
+            storage.snapshot();
+            write(storage, "key2", "after", 2);
+            write(storage, "key3", "after", 1);
+        }
+
+        // Act
+        Storage restored = restore();
+
+        // Assert
+        assertEquals("before", restored.getStore().get("key1"));
+        assertEquals("after", restored.getStore().get("key2"));
+        assertEquals(2, restored.getVersions().get("key2"));
+        assertEquals("after", restored.getStore().get("key3"));
+    }
+
+    @Test
+    public void testSnapshotReplacesOlderSegments() throws IOException {
+        // Arrange
+        long segment;
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.FsyncPolicy.ALWAYS, 5, 128)) {
+            Storage storage = new Storage(log);
+            write(storage, "key1", "value1", 1);
+            storage.snapshot();
+            write(storage, "key1", "value2", 2);
+
+            // Act
+            storage.snapshot();
+            segment = log.getActiveSegment();
+        }
+
+        // Assert
+        try (Snapshot snapshot = Snapshot.openLatest(directory)) {
+            assertEquals(segment, snapshot.getSegment());
+            assertEquals(1, snapshot.getEntryCount());
+        }
+        assertEquals(2, Files.list(directory).count());
+        assertEquals("value2", restore().getStore().get("key1"));
+    }
+
+    @Test
+    public void testSnapshotDuringWrites() throws Exception {
+        // Arrange
+        int numKeys = 50;
+        AtomicBoolean running = new AtomicBoolean(true);
+        int[] lastVersion = new int[1];
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.FsyncPolicy.NEVER, 5, 128)) {
+            Storage storage = new Storage(log);
+            Thread writer = new Thread(() -> {
+                int version = 0;
+                while (running.get()) {
+                    version++;
+                    for (int k = 0; k < numKeys; k++) {
+                        write(storage, "key" + k, "value" + version, version);
+                    }
+                }
+                lastVersion[0] = version;
+            });
+            writer.start();
+
+            // Act
+            for (int i = 0; i < 5; i++) {
+                storage.snapshot();
+                Thread.sleep(20);
+            }
+            running.set(false);
+            writer.join();
+        }
+
+        // Assert
+        Storage restored = restore();
+        for (int k = 0; k < numKeys; k++) {
+            assertEquals("value" + lastVersion[0], restored.getStore().get("key" + k));
+            assertEquals(lastVersion[0], restored.getVersions().get("key" + k));
+        }
+    }
+}
@@ -160,6 +160,83 @@ public class StorageTest {
         assertEquals(0, storage.getVersions().get(key));
     }
 
+    @Test
+    public void testPutIfVersion_Conflict() {
+        // Arrange
+        String key = "testKey";
+        InetSocketAddress holder1 = new InetSocketAddress("127.0.0.1", 12345);
+        InetSocketAddress holder2 = new InetSocketAddress("127.0.0.1", 54321);
+
+        // Act
+        Storage.ConditionalPutResult first = storage.putIfVersion(key, "first", holder1, -1, 1);
+        Storage.ConditionalPutResult stale = storage.putIfVersion(key, "stale", holder2, -1, 1);
+        storage.acquireWriteLock(key, holder1);
+        Storage.ConditionalPutResult locked = storage.putIfVersion(key, "locked", holder2, 1, 2);
+        storage.releaseWriteLock(key, holder1);
+        Storage.ConditionalPutResult second = storage.putIfVersion(key, "second", holder2, 1, 2);
+
+        // Assert
+        assertTrue(first.isSuccess());
+        assertFalse(stale.isSuccess());
+        assertEquals(1, stale.getCurrentVersion());
+        assertFalse(locked.isSuccess());
+        assertTrue(second.isSuccess());
+        assertEquals("second", storage.getStore().get(key));
+        assertEquals(2, storage.getVersions().get(key));
+        assertTrue(storage.getWriteLockHolders().isEmpty());
+    }
+
+    @Test
+    public void testPutIfNewer() {
+        // Arrange
+        String key = "testKey";
+        InetSocketAddress holder1 = new InetSocketAddress("127.0.0.1", 12345);
+        InetSocketAddress holder2 = new InetSocketAddress("127.0.0.1", 54321);
+        storage.putIfNewer(key, "current", holder1, 3);
+
+        // Act
+        boolean older = storage.putIfNewer(key, "older", holder1, 2);
+        storage.acquireWriteLock(key, holder2);
+        boolean locked = storage.putIfNewer(key, "locked", holder1, 5);
+        storage.releaseWriteLock(key, holder2);
+        boolean newer = storage.putIfNewer(key, "newer", holder1, 4);
+
+        // Assert
+        assertFalse(older);
+        assertFalse(locked);
+        assertTrue(newer);
+        assertEquals("newer", storage.getStore().get(key));
+        assertEquals(4, storage.getVersions().get(key));
+    }
+
+    @Test
+    public void testWriteLockLeaseExpires() throws InterruptedException {
+        // Arrange
+        Storage leasedStorage = new Storage(200);
+        String key = "testKey";
+        InetSocketAddress holder1 = new InetSocketAddress("127.0.0.1", 12345);
+        InetSocketAddress holder2 = new InetSocketAddress("127.0.0.1", 54321);
+
+        // Act
+        leasedStorage.acquireWriteLock(key, holder1);
+        boolean lockedOut = leasedStorage.acquireWriteLock(key, holder2).isSuccess();
+        TimeUnit.MILLISECONDS.sleep(120);
+        boolean renewed = leasedStorage.renewWriteLock(key, holder1).isSuccess();
+        TimeUnit.MILLISECONDS.sleep(120);
+        boolean stillHeld = leasedStorage.getWriteLockHolders().containsKey(key);
+        TimeUnit.MILLISECONDS.sleep(300);
+        leasedStorage.reapExpiredLeases();
+
+        // Assert
+        assertFalse(lockedOut);
+        assertTrue(renewed);
+        assertTrue(stillHeld);
+        assertTrue(leasedStorage.getWriteLockHolders().isEmpty());
+        assertEquals(0, leasedStorage.getEntryCount());
+        assertFalse(leasedStorage.put(key, "testValue", holder1, 1));
+        assertTrue(leasedStorage.acquireWriteLock(key, holder2).isSuccess());
+    }
+
     @Test
     public void testConcurrentWriteLocks() throws InterruptedException {
         // Arrange
@@ -0,0 +1,128 @@
+package com.app.Replica;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class contains unit tests for the {@link com.app.Replica.WriteAheadLog} class.
+ * It verifies that the writes of a {@link Storage} survive a restart with every
+ * fsync policy and that a torn record at the end of the log is discarded.
+ */
+
+public class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testStorageIsRestoredFromTheLog() throws IOException {
+        // Arrange
+        Path file = directory.resolve("wal");
+        InetSocketAddress holder = new InetSocketAddress("localhost", 1234);
+        try (WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.ALWAYS, 5, 128)) {
+            Storage storage = new Storage(log);
+            storage.acquireWriteLock("testKey", holder);
+            storage.put("testKey", "first", holder, 1);
+            storage.acquireWriteLock("testKey", holder);
+            storage.put("testKey", "value with spaces", holder, 2);
+        }
+
+        // Act
+        Storage restored;
+        try (WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.NEVER, 5, 128)) {
+            restored = new Storage(log);
+        }
+
+        // Assert
+        assertEquals("value with spaces", restored.getStore().get("testKey"));
+        assertEquals(2, restored.getVersions().get("testKey"));
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        // Arrange
+        Path file = directory.resolve("wal");
+        try (WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.ALWAYS, 5, 128)) {
+            log.append("key1", "value1", 1);
+            log.append("key2", "value2", 1);
+        }
+        Path segment;
+        try (WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.ALWAYS, 5, 128)) {
+            segment = log.getSegmentFile(log.getActiveSegment());
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        // Act
+        Map<String, String> replayed = new HashMap<>();
+        try (WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.ALWAYS, 5, 128)) {
+            log.replay((key, value, version) -> replayed.put(key, value));
+            log.append("key3", "value3", 1);
+        }
+        try (WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.ALWAYS, 5, 128)) {
+            log.replay((key, value, version) -> replayed.put(key, value));
+        }
+
+        // Assert
+        assertEquals("value1", replayed.get("key1"));
+        assertNull(replayed.get("key2"));
+        assertEquals("value3", replayed.get("key3"));
+    }
+
+    @Test
+    public void testGroupCommitWithConcurrentWriters() throws Exception {
+        // Arrange
+        Path file = directory.resolve("wal");
+        int numThreads = 8;
+        int writesPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+        // Act
+        try (WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.GROUP, 2, 16)) {
+            log.replay((key, value, version) -> {
+            });
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                int thread = t;
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < writesPerThread; i++) {
+                        log.append("key" + thread, "value" + i, i);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Assert
+        Map<String, Integer> versions = new HashMap<>();
+        int records;
+        try (WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.GROUP, 2, 16)) {
+            records = log.replay((key, value, version) -> versions.put(key, version));
+        }
+        assertEquals(numThreads * writesPerThread, records);
+        for (int t = 0; t < numThreads; t++) {
+            assertEquals(writesPerThread - 1, versions.get("key" + t));
+        }
+    }
+}